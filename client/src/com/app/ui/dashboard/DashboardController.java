@@ -89,7 +89,7 @@ public class DashboardController {
 
     @FXML
     private void initialize() {
-        Integer stored = UserContext.getCredits();
+        Long stored = UserContext.getCredits();
         creditsLabel.setText(String.valueOf(stored == null ? 0 : stored));
         if (usernameLabel != null) {
             String id = UserContext.getUserId();
@@ -443,7 +443,7 @@ public class DashboardController {
             stage.showAndWait();
             
             // Get the result after the form is closed
-            int credits = controller.getResult();
+            long credits = controller.getResult();
             if (credits > 0) {
                 updateCreditsDisplay(credits);
                 ApiClient api = new ApiClient();
@@ -503,9 +503,9 @@ public class DashboardController {
     private void openExecutePage(String programName, String functionName) {
         try {
             // Get current credits from label
-            int currentCredits = 0;
+            long currentCredits = 0;
             try {
-                currentCredits = Integer.parseInt(creditsLabel.getText());
+                currentCredits = Long.parseLong(creditsLabel.getText());
             } catch (NumberFormatException e) {
                 currentCredits = 0;
             }
@@ -537,11 +537,11 @@ public class DashboardController {
         }
     }
     
-    public void updateCreditsDisplay(int creditsToAdd) {
+    public void updateCreditsDisplay(long creditsToAdd) {
         try {
             String currentCreditsText = creditsLabel.getText();
-            int currentCredits = Integer.parseInt(currentCreditsText);
-            int newCredits = currentCredits + creditsToAdd;
+            long currentCredits = Long.parseLong(currentCreditsText);
+            long newCredits = currentCredits + creditsToAdd;
             creditsLabel.setText(String.valueOf(newCredits));
         } catch (NumberFormatException e) {
             // If parsing fails, just set the new amount
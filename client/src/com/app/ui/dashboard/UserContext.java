@@ -2,7 +2,7 @@ package com.app.ui.dashboard;
 
 public final class UserContext {
     private static volatile String userId;
-    private static volatile Integer credits;
+    private static volatile Long credits;
 
     private UserContext() {}
 
@@ -14,11 +14,11 @@ public final class UserContext {
         userId = id;
     }
 
-    public static Integer getCredits() {
+    public static Long getCredits() {
         return credits;
     }
 
-    public static void setCredits(Integer value) {
+    public static void setCredits(Long value) {
         credits = value;
     }
 }
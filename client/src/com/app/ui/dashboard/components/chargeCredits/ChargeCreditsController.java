@@ -17,7 +17,7 @@ public class ChargeCreditsController {
     @FXML private Button chargeButton;
     @FXML private Button cancelButton;
     
-    private int result = -1; // -1 indicates cancelled
+    private long result = -1; // -1 indicates cancelled
     private Stage stage;
 
     @FXML
@@ -30,9 +30,9 @@ public class ChargeCreditsController {
             return;
         }
         
-        int credits;
+        long credits;
         try {
-            credits = Integer.parseInt(creditsText);
+            credits = Long.parseLong(creditsText);
             if (credits <= 0) {
                 showError("Amount must be greater than 0");
                 return;
@@ -68,7 +68,7 @@ public class ChargeCreditsController {
         this.stage = stage;
     }
     
-    public int getResult() {
+    public long getResult() {
         return result;
     }
 }
@@ -4,7 +4,7 @@ public final class ExecuteContext {
     private static volatile String programName;
     private static volatile String functionName;
     private static volatile String username;
-    private static volatile int credits;
+    private static volatile long credits;
 
     private ExecuteContext() {}
 
@@ -32,11 +32,11 @@ public final class ExecuteContext {
         username = name;
     }
 
-    public static int getCredits() {
+    public static long getCredits() {
         return credits;
     }
 
-    public static void setCredits(int value) {
+    public static void setCredits(long value) {
         credits = value;
     }
 
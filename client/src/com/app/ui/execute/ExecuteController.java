@@ -329,7 +329,7 @@ public class ExecuteController {
     public void initializeWithContext() {
         // Load context from ExecuteContext
         String username = ExecuteContext.getUsername();
-        int credits = ExecuteContext.getCredits();
+        long credits = ExecuteContext.getCredits();
         String programName = ExecuteContext.getProgramName();
         String functionName = ExecuteContext.getFunctionName();
         
@@ -705,7 +705,7 @@ public class ExecuteController {
     private void handleDebugStepResult(ProgramResult result) {
         // 1. Update credits from sessionCycles
         // Note: sessionCycles is negative when stepping back (refund), positive when stepping forward (charge)
-        int newCredits = ExecuteContext.getCredits() - result.getSessionCycles();
+        long newCredits = ExecuteContext.getCredits() - result.getSessionCycles();
         ExecuteContext.setCredits(newCredits);
         setCredits(newCredits);
         
@@ -838,8 +838,11 @@ public class ExecuteController {
             if(result.getHaltReason() == ProgramResult.HaltReason.INSUFFICIENT_CREDITS){
                 WarningMessageController.showWarning("Program execution halted due to insufficient credits, and did not execute completely");
             }
+            else if(result.getHaltReason() == ProgramResult.HaltReason.CANCELLED){
+                WarningMessageController.showWarning("Program execution was cancelled, and did not execute completely");
+            }
             populateVariablesContainer(result.getVariableToValue());
-            int newCredits = ExecuteContext.getCredits() - (result.getCycles() + architectureToCost(selectedArchitecture));
+            long newCredits = ExecuteContext.getCredits() - (result.getCycles() + architectureToCost(selectedArchitecture));
             ExecuteContext.setCredits(newCredits);
             setCredits(newCredits);
             cyclesLabel.setText("Cycles: " + String.valueOf(result.getCycles()));
@@ -887,7 +890,7 @@ public class ExecuteController {
             populateVariablesContainer(result.getVariableToValue());
             
             // 4. Charge credits from the user (overhead + sessionCycles)
-            int newCredits = ExecuteContext.getCredits() - (result.getSessionCycles() + architectureToCost(architecture));
+            long newCredits = ExecuteContext.getCredits() - (result.getSessionCycles() + architectureToCost(architecture));
             ExecuteContext.setCredits(newCredits);
             setCredits(newCredits);
             cyclesLabel.setText("Cycles: " + result.getCycles());
@@ -1023,7 +1026,7 @@ public class ExecuteController {
     private void handleBackToDashboard() {
         try {
             // Persist current credits to dashboard context before loading UI
-            int creditsNow = getCurrentCreditsSafe();
+            long creditsNow = getCurrentCreditsSafe();
             com.app.ui.dashboard.UserContext.setCredits(creditsNow);
 
             // Get username from context
@@ -1053,7 +1056,7 @@ public class ExecuteController {
         }
     }
 
-    private int getCurrentCreditsSafe(){
+    private long getCurrentCreditsSafe(){
         try{
             if (creditsLabel != null){
                 String text = creditsLabel.getText();
@@ -1062,9 +1065,9 @@ public class ExecuteController {
                     int idx = text.lastIndexOf(':');
                     if (idx >= 0 && idx + 1 < text.length()){
                         String num = text.substring(idx + 1).trim();
-                        return Integer.parseInt(num);
+                        return Long.parseLong(num);
                     }
-                    return Integer.parseInt(text.trim());
+                    return Long.parseLong(text.trim());
                 }
             }
         } catch (Exception ignored) {}
@@ -1079,13 +1082,13 @@ public class ExecuteController {
         }
     }
     
-    public void setCredits(int credits) {
+    public void setCredits(long credits) {
         if (creditsLabel != null) {
             creditsLabel.setText("Available Credits: " + credits);
         }
     }
     
-    public void setCycles(int cycles) {
+    public void setCycles(long cycles) {
         if (cyclesLabel != null) {
             cyclesLabel.setText("Cycles: " + cycles);
         }
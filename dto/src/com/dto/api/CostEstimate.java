@@ -0,0 +1,20 @@
+package com.dto.api;
+
+import java.io.Serializable;
+
+// Cycles a run will take, as far as they can be told before running it
+public class CostEstimate implements Serializable {
+    private long minCycles;
+    private long maxCycles; // -1 when no upper bound is known
+    private boolean exact; // minCycles == maxCycles, the run's exact cost
+
+    public CostEstimate(long minCycles, long maxCycles) {
+        this.minCycles = minCycles;
+        this.maxCycles = maxCycles;
+        this.exact = minCycles == maxCycles;
+    }
+
+    public long getMinCycles() { return minCycles; }
+    public long getMaxCycles() { return maxCycles; }
+    public boolean isExact() { return exact; }
+}
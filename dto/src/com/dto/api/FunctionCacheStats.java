@@ -0,0 +1,22 @@
+package com.dto.api;
+
+import java.io.Serializable;
+
+public class FunctionCacheStats implements Serializable {
+    private String functionName;
+    private long hits;
+    private long misses;
+    private int size; // entries currently cached
+
+    public FunctionCacheStats(String functionName, long hits, long misses, int size) {
+        this.functionName = functionName;
+        this.hits = hits;
+        this.misses = misses;
+        this.size = size;
+    }
+
+    public String getFunctionName() { return functionName; }
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+    public int getSize() { return size; }
+}
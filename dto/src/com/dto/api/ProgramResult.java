@@ -2,16 +2,17 @@ package com.dto.api;
 import java.util.*;
 
 public class ProgramResult{
-    private final int cycles;
-    private final int sessionCycles;
+    private final long cycles;
+    private final long sessionCycles;
     private int result;
     public record VariableToValue(String variable, int value){}
     private List<VariableToValue> variableToValue;
     private int debugIndex;
     private boolean isDebug;
-    public enum HaltReason { FINISHED, STOPPED_MANUALLY, INSUFFICIENT_CREDITS }
+    // CANCELLED: stopped through its CancellationToken (cancel request or wall-clock deadline)
+    public enum HaltReason { FINISHED, STOPPED_MANUALLY, INSUFFICIENT_CREDITS, CANCELLED }
     private final HaltReason haltReason;
-    public ProgramResult(int cycles, HashMap<String, Integer> variables, int debugIndex, boolean isDebug){
+    public ProgramResult(long cycles, HashMap<String, Integer> variables, int debugIndex, boolean isDebug){
         this.cycles = cycles;
         this.sessionCycles = cycles; // For non-debug, session cycles equals total cycles
         this.debugIndex = debugIndex;
@@ -20,7 +21,7 @@ public class ProgramResult{
         UnpackVariables(variables);
     }
 
-    public ProgramResult(int cycles, HashMap<String, Integer> variables, int debugIndex, boolean isDebug, HaltReason haltReason){
+    public ProgramResult(long cycles, HashMap<String, Integer> variables, int debugIndex, boolean isDebug, HaltReason haltReason){
         this.cycles = cycles;
         this.sessionCycles = cycles; // For non-debug, session cycles equals total cycles
         this.debugIndex = debugIndex;
@@ -29,7 +30,7 @@ public class ProgramResult{
         UnpackVariables(variables);
     }
 
-    public ProgramResult(int cycles, int sessionCycles, HashMap<String, Integer> variables, int debugIndex, boolean isDebug, HaltReason haltReason){
+    public ProgramResult(long cycles, long sessionCycles, HashMap<String, Integer> variables, int debugIndex, boolean isDebug, HaltReason haltReason){
         this.cycles = cycles;
         this.sessionCycles = sessionCycles;
         this.debugIndex = debugIndex;
@@ -55,10 +56,10 @@ public class ProgramResult{
         variableToValue.addFirst(new VariableToValue("y", variables.get("y")));
     }
 
-    public int getCycles() {
+    public long getCycles() {
         return cycles;
     }
-    public int getSessionCycles() {
+    public long getSessionCycles() {
         return sessionCycles;
     }
     public int getResult() {
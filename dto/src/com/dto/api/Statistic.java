@@ -19,13 +19,13 @@ public class Statistic implements Serializable {
     private String architecture;
     private List<Integer> input;
     private int result;
-    private int cyclesCount;
+    private long cyclesCount;
     private List<ProgramResult.VariableToValue> variableToValue;
 
     /**
      * New preferred API: include the program/function name and whether it is a function.
      */
-    public static void saveRunDetails(String userId, String programName, boolean isFunction, int expansionLevel, String architecture, List<Integer> input, int result, int cyclesCount, List<ProgramResult.VariableToValue> variableToValue) {
+    public static void saveRunDetails(String userId, String programName, boolean isFunction, int expansionLevel, String architecture, List<Integer> input, int result, long cyclesCount, List<ProgramResult.VariableToValue> variableToValue) {
         Statistic statistic = new Statistic();
         int next = nextIndexByUser.getOrDefault(userId, 1);
         statistic.index = next;
@@ -44,7 +44,7 @@ public class Statistic implements Serializable {
     /**
      * Overload accepting explicit RunType enum.
      */
-    public static void saveRunDetails(String userId, String programName, RunType runType, int expansionLevel, String architecture, List<Integer> input, int result, int cyclesCount, List<ProgramResult.VariableToValue> variableToValue) {
+    public static void saveRunDetails(String userId, String programName, RunType runType, int expansionLevel, String architecture, List<Integer> input, int result, long cyclesCount, List<ProgramResult.VariableToValue> variableToValue) {
         Statistic statistic = new Statistic();
         int next = nextIndexByUser.getOrDefault(userId, 1);
         statistic.index = next;
@@ -63,7 +63,7 @@ public class Statistic implements Serializable {
     /**
      * Backward-compatible shim (without programName/runType). Prefer the new overloads.
      */
-    public static void saveRunDetails(String userId, int expansionLevel, String architecture, List<Integer> input, int result, int cyclesCount, List<ProgramResult.VariableToValue> variableToValue) {
+    public static void saveRunDetails(String userId, int expansionLevel, String architecture, List<Integer> input, int result, long cyclesCount, List<ProgramResult.VariableToValue> variableToValue) {
         saveRunDetails(userId, "UNKNOWN", false, expansionLevel, architecture, input, result, cyclesCount, variableToValue);
     }
 
@@ -98,7 +98,7 @@ public class Statistic implements Serializable {
     public int getResult() {
         return result;
     }
-    public int getCyclesCount() {
+    public long getCyclesCount() {
         return cyclesCount;
     }
     public static int getGlobalIndex(String userId) {return nextIndexByUser.getOrDefault(userId, 1);}
@@ -4,11 +4,11 @@ public class UserInfo {
     private final String name;
     private final int programUploadedCount;
     private final int functionUploadedCount;
-    private final int credits;
-    private final int creditsUsed;
+    private final long credits;
+    private final long creditsUsed;
     private final int runCount;
 
-    public UserInfo(String name, int programUploadedCount, int functionUploadedCount, int credits, int creditsUsed, int runCount) {
+    public UserInfo(String name, int programUploadedCount, int functionUploadedCount, long credits, long creditsUsed, int runCount) {
         this.name = name;
         this.programUploadedCount = programUploadedCount;
         this.functionUploadedCount = functionUploadedCount;
@@ -19,7 +19,7 @@ public class UserInfo {
     public String getName() { return name; }
     public int getProgramUploadedCount() { return programUploadedCount; }
     public int getFunctionUploadedCount() { return functionUploadedCount; }
-    public int getCredits() { return credits; }
-    public int getCreditsUsed() { return creditsUsed; }
+    public long getCredits() { return credits; }
+    public long getCreditsUsed() { return creditsUsed; }
     public int getRunCount() { return runCount; }
 }
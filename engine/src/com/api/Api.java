@@ -8,40 +8,57 @@ import com.commands.CommandFactory;
 import com.commands.CommandMetadata;
 import com.commands.ReverseFactory;
 import com.commands.FnArgs;
+import com.commands.Names;
 import com.dto.CommandSchemaDto;
 import com.dto.ProgramTreeDto;
 import com.dto.api.*;
 import com.program.MixedExpansionSession;
 import com.program.Program;
 import com.program.Architecture;
+import com.program.BatchExecution;
+import com.program.CancellationToken;
+import com.program.CheckpointedExecution;
+import com.program.CompiledProgram;
+import com.program.CreditPool;
+import com.program.DebugSession;
+import com.program.ExecutionScheduler;
+import com.program.FunctionCallCache;
 import com.program.FunctionRegistry;
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Unmarshaller;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
 
 public class Api {
     private Program curProgram;
-    private Program debugProgram;
+    // Whether curProgram is the program this user created and registered with createEmptyProgram
+    private boolean curProgramRegistered;
+    // Whether curProgram is a private working copy with edits the registry does not have yet (see publishEdits)
+    private boolean curProgramEdited;
+    private DebugSession debugSession;
     private List<Integer> debugInput;
     private int debugExpansionLevel;
     // Mixed tree view state (visual-only)
     private MixedExpansionSession mixedSession;
     private final String userId;
-    private int credits;
-    private int usedCredits;
-    private int chargedDebugCycles;
+    // Shared by every run of this user in progress, each of which charges it as it goes (see CreditPool)
+    private final CreditPool credits = new CreditPool(0);
+    private final java.util.concurrent.atomic.AtomicLong usedCredits = new java.util.concurrent.atomic.AtomicLong();
+    private long chargedDebugCycles;
     private int currentRunOverhead;
     private String currentRunArchitecture;
     private int programsRanCount;
+    // Tokens of this user's runs in progress, fired by cancelExecution
+    private final Set<CancellationToken> activeRuns = java.util.concurrent.ConcurrentHashMap.newKeySet();
     
     public Api(String userId){
         this.userId = userId;
-        this.usedCredits = 0;
         this.programsRanCount = 0;
     }
 
@@ -49,23 +66,24 @@ public class Api {
         return curProgram.getName();
     }
 
-    public int getCredits(){
-        return credits;
+    public long getCredits(){
+        return credits.available();
     }
 
-    public int getUsedCredits(){
-        return usedCredits;
+    public long getUsedCredits(){
+        return usedCredits.get();
     }
 
     public int getProgramsRanCount(){
         return programsRanCount;
     }
 
-    public void addCredits(int amount){
-        credits += amount;
+    public void addCredits(long amount){
+        credits.add(amount);
     }
 
     public void loadSProgram(InputStream xmlStream) throws JAXBException {
+        publishEdits();
         JAXBContext ctx = JAXBContext.newInstance(SProgram.class);
         Unmarshaller um = ctx.createUnmarshaller();
         SProgram sp = ((SProgram) um.unmarshal(xmlStream));
@@ -73,34 +91,47 @@ public class Api {
         com.program.FunctionRegistry.registerProgramBundle(this.userId, sp);
     }
     public void createEmptyProgram(String name){
+        publishEdits();
         curProgram = Program.createProgram(name, Collections.emptyList());
         FnArgs.registerProgram(this.userId, curProgram);
+        curProgramRegistered = true;
     }
 
 
     public ProgramResult executeProgram(List<Integer> input, int expansionLevel, String architecture){
+        return executeProgram(input, expansionLevel, architecture, 0);
+    }
+
+    /*
+        As executeProgram, stopping the run once timeoutMillis have passed (0: no limit) or cancelExecution is
+        called. A stopped run halts with CANCELLED and its partial state, and pays for the cycles it ran.
+     */
+    public ProgramResult executeProgram(List<Integer> input, int expansionLevel, String architecture, long timeoutMillis){
+        return executeProgram(input, expansionLevel, architecture, timeoutMillis, false);
+    }
+
+    /*
+        As executeProgram; with resultOnly the run uses the optimized form of the program, which reports the same
+        result, inputs and cycles (and so costs the same) but leaves out work variables the result does not depend on.
+     */
+    public ProgramResult executeProgram(List<Integer> input, int expansionLevel, String architecture, long timeoutMillis, boolean resultOnly){
+        publishEdits();
         Program p = curProgram;
-        if(expansionLevel > 0){
-            p = curProgram.expand(expansionLevel);
-        }
+        // Runs at the requested level through the compiled expansion; the expanded command list is never built
+        CompiledProgram compiled = p.getCompiled(expansionLevel);
         // Architecture validation
-        ensureArchitectureAllowed(p, architecture);
+        ensureArchitectureAllowed(compiled.getMaxArchitecture(), architecture);
         int overhead = getArchitectureOverhead(architecture);
-        // Early credit gates
-        if (credits < overhead){
-            throw new IllegalStateException("Insufficient credits for architecture overhead");
+        // Early credit gates; a short run is over once its cost is known
+        ProgramResult trial = ensureAffordable(expansionLevel, input, overhead);
+        chargeOverhead(overhead);
+        ProgramResult res;
+        if (trial != null && credits.tryCharge(trial.getCycles())){
+            usedCredits.addAndGet(trial.getCycles());
+            res = trial;
+        } else {
+            res = runScheduled(p, expansionLevel, input, timeoutMillis, resultOnly);
         }
-        double avg = FunctionRegistry.getAverageCost(p.getName());
-        if (avg + overhead > credits){
-            throw new IllegalStateException("Insufficient credits: average run cost plus overhead exceeds available credits");
-        }
-        // Charge overhead and execute with remaining credits as budget
-        credits -= overhead;
-        usedCredits += overhead;
-        ProgramResult res = p.executeWithBudget(input, credits);
-        // Charge cycles consumed
-        credits -= res.getCycles();
-        usedCredits += res.getCycles();
         // Save statistics and global averages (cycles only, not overhead)
         boolean isFunction = FunctionRegistry.isFunction(p.getName());
         Statistic.saveRunDetails(userId, p.getName(), isFunction, expansionLevel, architecture, input, res.getResult(), res.getCycles(), res.getVariableToValue());
@@ -109,6 +140,167 @@ public class Api {
         return res;
     }
 
+    // Executes with the remaining credits, reserved for the run, as budget (no undo journal for plain runs); the
+    // shared scheduler time-slices long runs so they do not hold up everyone else's
+    private ProgramResult runScheduled(Program p, int expansionLevel, List<Integer> input, long timeoutMillis, boolean resultOnly){
+        CancellationToken token = timeoutMillis > 0 ? CancellationToken.withTimeout(Duration.ofMillis(timeoutMillis)) : new CancellationToken();
+        activeRuns.add(token);
+        long budget = credits.reserve(Long.MAX_VALUE);
+        long spent = 0;
+        try {
+            ProgramResult res = ExecutionScheduler.shared().execute(userId, p, expansionLevel, input, budget, token, resultOnly);
+            spent = res.getCycles();
+            return res;
+        } finally {
+            activeRuns.remove(token);
+            settle(budget, spent);
+        }
+    }
+
+    /*
+        Cycles a run of the current program at expansionLevel on input would take (input null: bounds for every input),
+        worked out without running it to the end; see Program.estimateCost.
+     */
+    public CostEstimate estimateCost(List<Integer> input, int expansionLevel){
+        return curProgram.estimateCost(expansionLevel, input, Long.MAX_VALUE);
+    }
+
+    /*
+        Rejects a run whose least possible cost (see Program.estimateCost) plus overhead exceeds the user's credits.
+        When the trial run behind the estimate finished, returns its result (see Program.estimateCostByTrial).
+     */
+    private ProgramResult ensureAffordable(int expansionLevel, List<Integer> input, int overhead){
+        long available = credits.available();
+        if (available < overhead){
+            throw new IllegalStateException("Insufficient credits for architecture overhead");
+        }
+        Program.CostTrial trial = curProgram.estimateCostByTrial(expansionLevel, input, available - overhead);
+        if (trial.estimate().getMinCycles() > available - overhead){
+            throw new IllegalStateException("Insufficient credits: run cost plus overhead exceeds available credits");
+        }
+        return trial.finished();
+    }
+
+    // Takes overhead from the credits; another run of this user may have spent them since ensureAffordable
+    private void chargeOverhead(int overhead){
+        if (!credits.tryCharge(overhead)){
+            throw new IllegalStateException("Insufficient credits for architecture overhead");
+        }
+        usedCredits.addAndGet(overhead);
+    }
+
+    // Keeps the spent part of a reservation of budget credits and puts the rest back
+    private void settle(long budget, long spent){
+        credits.add(budget - spent);
+        usedCredits.addAndGet(spent);
+    }
+
+    // Stops every run of this user in progress (see executeProgram); returns whether there was any
+    public boolean cancelExecution(){
+        boolean any = false;
+        for (CancellationToken token : activeRuns){
+            token.cancel();
+            any = true;
+        }
+        return any;
+    }
+
+    /*
+        Runs the current program like executeProgram, but in slices of about checkpointInterval cycles; after every
+        slice the whole execution (variables, position, cycles and nested call frames) is written to checkpointFile,
+        so a run cut short by a restart can be continued with resumeExecution. Cycles are charged slice by slice and
+        the file is deleted once the run completes.
+     */
+    public ProgramResult executeWithCheckpoints(List<Integer> input, int expansionLevel, String architecture, long checkpointInterval, Path checkpointFile) throws IOException {
+        // A checkpoint names its program, so resuming needs the registry to have this version
+        publishEdits();
+        Program p = curProgram;
+        CompiledProgram compiled = p.getCompiled(expansionLevel);
+        ensureArchitectureAllowed(compiled.getMaxArchitecture(), architecture);
+        int overhead = getArchitectureOverhead(architecture);
+        ensureAffordable(expansionLevel, input, overhead);
+        chargeOverhead(overhead);
+        // The budget is set by runCheckpointed, from the credits it reserves
+        CheckpointedExecution run = CheckpointedExecution.start(p, expansionLevel, architecture, input, 0);
+        return runCheckpointed(run, checkpointInterval, checkpointFile);
+    }
+
+    /*
+        Continues an execution saved by executeWithCheckpoints, e.g. after a restart. The overhead was paid when
+        the run started; from here on the run may use the credits the user has now.
+     */
+    public ProgramResult resumeExecution(Path checkpointFile, long checkpointInterval) throws IOException {
+        CheckpointedExecution run = CheckpointedExecution.load(checkpointFile);
+        return runCheckpointed(run, checkpointInterval, checkpointFile);
+    }
+
+    private ProgramResult runCheckpointed(CheckpointedExecution run, long checkpointInterval, Path checkpointFile) throws IOException {
+        if (checkpointInterval <= 0){
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+        // The run may use every credit the user has now; they stay reserved for it until it stops
+        long start = run.getCycles();
+        long budget = credits.reserve(Long.MAX_VALUE);
+        run.setMaxCycles(start + budget);
+        CancellationToken token = new CancellationToken();
+        activeRuns.add(token);
+        try {
+            while (!run.isDone()){
+                run.run(checkpointInterval, token);
+                if (!run.isDone()){
+                    run.save(checkpointFile);
+                }
+            }
+        } finally {
+            activeRuns.remove(token);
+            settle(budget, run.getCycles() - start);
+        }
+        Files.deleteIfExists(checkpointFile);
+        ProgramResult res = run.getResult();
+        String name = run.getProgramName();
+        boolean isFunction = FunctionRegistry.isFunction(name);
+        Statistic.saveRunDetails(userId, name, isFunction, run.getExpansionLevel(), run.getArchitecture(), run.getInput(), res.getResult(), res.getCycles(), res.getVariableToValue());
+        FunctionRegistry.recordRunCost(name, res.getCycles());
+        programsRanCount += 1;
+        return res;
+    }
+
+    /*
+        Runs the current program over every input vector in parallel (see BatchExecution) and hands each result to
+        sink in input order as it arrives. Each run pays the architecture overhead plus its cycles from the user's
+        credits, and is recorded like a single execution. With lockstep, inputs of a program without nested calls run
+        as lanes of one lockstep execution per chunk (see LockstepExecution).
+     */
+    public void executeBatch(List<List<Integer>> inputs, int expansionLevel, String architecture, boolean lockstep, java.util.function.BiConsumer<Integer, ProgramResult> sink){
+        publishEdits();
+        Program p = curProgram;
+        CompiledProgram compiled = p.getCompiled(expansionLevel);
+        ensureArchitectureAllowed(compiled.getMaxArchitecture(), architecture);
+        int overhead = getArchitectureOverhead(architecture);
+        // Every input has to be affordable, so the gate uses the bounds that hold for all of them
+        ensureAffordable(expansionLevel, null, overhead);
+        boolean isFunction = FunctionRegistry.isFunction(p.getName());
+        // Runs charge the user's credits themselves, so single runs and debug sessions alongside spend from the same pool
+        BatchExecution batch = lockstep
+                ? BatchExecution.startLockstep(compiled, inputs, credits, overhead)
+                : BatchExecution.start(compiled, inputs, credits, overhead);
+        try (batch){
+            while (batch.hasNext()){
+                ProgramResult res = batch.next();
+                int index = batch.lastIndex();
+                if (batch.lastStarted()){
+                    Statistic.saveRunDetails(userId, p.getName(), isFunction, expansionLevel, architecture, inputs.get(index), res.getResult(), res.getCycles(), res.getVariableToValue());
+                    FunctionRegistry.recordRunCost(p.getName(), res.getCycles());
+                    programsRanCount += 1;
+                }
+                sink.accept(index, res);
+            }
+        } finally {
+            // What the batch spent is final once it is closed
+            usedCredits.addAndGet(batch.spent());
+        }
+    }
+
     public String getProgram(int expansionLevel){
         Program p = curProgram;
         if(expansionLevel > 0){
@@ -126,7 +318,9 @@ public class Api {
     }
 
     void setCurProgram(Program curProgram){
+        publishEdits();
         this.curProgram = curProgram;
+        this.curProgramRegistered = false;
     }
 
     public List<String> getInputVariableNames(){
@@ -224,7 +418,21 @@ public class Api {
                 ins.getSInstructionArguments() == null ? null : ins.getSInstructionArguments().getSInstructionArgument(),
                 index
         );
+        // Registered programs are shared read-only images: the first edit makes a private working copy, and later
+        // edits go to it; our own program is republished once, when it is next run or saved (see publishEdits)
+        if (curProgram.isShared()){
+            curProgram = new Program(curProgram);
+        }
         curProgram.addCommand(cmd);
+        curProgramEdited = curProgramRegistered;
+    }
+
+    // Registers the edits made to our own program since it was last published, so other users and callers see them
+    private void publishEdits(){
+        if (curProgramEdited){
+            FnArgs.registerProgram(this.userId, curProgram);
+            curProgramEdited = false;
+        }
     }
 
     public static List<String> getFunctionCommands(String functionName, int expansionLevel){
@@ -237,13 +445,16 @@ public class Api {
         if(curProgram == null){
             throw new IllegalStateException("No program is loaded.");
         }
+        publishEdits();
         Path folder = Paths.get(folderPath);
         Path file = ReverseFactory.saveProgramToXml(folder, curProgram);
         return file.toAbsolutePath().toString();
     }
 
     public void setCurProgram(String functionName){
+        publishEdits();
         curProgram = FnArgs.getProgramByName(functionName);
+        curProgramRegistered = false;
     }
 
     public static List<String> getStateFileNames(String path){
@@ -272,6 +483,8 @@ public class Api {
     public static void loadState(String path){ throw new UnsupportedOperationException("Full system save/load removed"); }
 
     public ProgramResult startDebugging(List<Integer> input, int expansionLevel, List<Integer> breakpoints, String architecture){
+        // Publishing also shares the working copy, so edits made while debugging go to a new copy
+        publishEdits();
         Program p = curProgram;
         if(expansionLevel > 0){
             p = curProgram.expand(expansionLevel);
@@ -279,32 +492,29 @@ public class Api {
         // Architecture validation and credit gates
         ensureArchitectureAllowed(p, architecture);
         int overhead = getArchitectureOverhead(architecture);
-        if (credits < overhead){
-            throw new IllegalStateException("Insufficient credits for architecture overhead");
-        }
-        double avg = FunctionRegistry.getAverageCost(p.getName());
-        if (avg + overhead > credits){
-            throw new IllegalStateException("Insufficient credits: average run cost plus overhead exceeds available credits");
-        }
-        // Charge overhead and start debug with budget
-        credits -= overhead;
-        usedCredits += overhead;
+        ensureAffordable(expansionLevel, input, overhead);
+        // Charge overhead and start debug with the remaining credits, reserved until it pauses, as budget
+        chargeOverhead(overhead);
         currentRunOverhead = overhead;
-        ProgramResult res = p.startDebugWithBudget(input, breakpoints, credits);
+        DebugSession session = new DebugSession(p);
+        long budget = credits.reserve(Long.MAX_VALUE);
+        long spent = 0;
+        ProgramResult res;
+        try {
+            res = session.startDebugWithBudget(input, breakpoints, budget);
+            spent = res.getCycles();
+        } finally {
+            settle(budget, spent);
+        }
         
         // Wrap result with sessionCycles (initial cycles = total cycles since starting from 0)
-        int sessionCycles = res.getCycles();
+        long sessionCycles = res.getCycles();
         HashMap<String, Integer> vars = new HashMap<>();
         for (ProgramResult.VariableToValue vtv : res.getVariableToValue()) {
             vars.put(vtv.variable(), vtv.value());
         }
         ProgramResult wrappedRes = new ProgramResult(res.getCycles(), sessionCycles, vars, res.getDebugIndex(), res.isDebug(), res.getHaltReason());
-        
-        // Debit cycles executed up to initial breakpoint/end
-        if (wrappedRes.getCycles() > 0){
-            credits -= wrappedRes.getCycles();
-            usedCredits += wrappedRes.getCycles();
-        }
+
         if(!wrappedRes.isDebug()){
             // finished immediately
             boolean isFunction = FunctionRegistry.isFunction(p.getName());
@@ -312,7 +522,7 @@ public class Api {
             FunctionRegistry.recordRunCost(p.getName(), wrappedRes.getCycles());
             programsRanCount += 1;
         } else {
-            debugProgram = p;
+            debugSession = session;
             debugInput = new ArrayList<>(input);
             debugExpansionLevel = expansionLevel;
             chargedDebugCycles = wrappedRes.getCycles();
@@ -322,15 +532,29 @@ public class Api {
         return wrappedRes;
     }
 
+    // Runs step on the paused session with the user's remaining credits, reserved for it, as budget; keeps the cycles it adds
+    private ProgramResult debugWithBudget(java.util.function.LongFunction<ProgramResult> step){
+        long budget = credits.reserve(Long.MAX_VALUE);
+        long spent = 0;
+        try {
+            ProgramResult res = step.apply(budget);
+            spent = Math.max(0, res.getCycles() - chargedDebugCycles);
+            return res;
+        } finally {
+            settle(budget, spent);
+        }
+    }
+
     public ProgramResult stepOver(){
-        Program p = debugProgram;
-        if (p == null){
+        DebugSession session = debugSession;
+        if (session == null){
             throw new IllegalStateException("Not in a debug session");
         }
-        ProgramResult res = p.stepOverWithBudget(credits);
-        // Debit only the newly executed cycles; if step exceeded budget, Program rolled back and cycles won't increase
-        int delta = res.getCycles() - chargedDebugCycles;
-        if (delta > 0) { credits -= delta; usedCredits += delta; }
+        Program p = session.getProgram();
+        // The session's limit is on its total cycles: what it has been charged so far plus what is left
+        ProgramResult res = debugWithBudget(budget -> session.stepOverWithBudget(chargedDebugCycles + budget));
+        // Only the newly executed cycles were debited; if step exceeded budget, Program rolled back and cycles won't increase
+        long delta = res.getCycles() - chargedDebugCycles;
         chargedDebugCycles = res.getCycles();
         
         // Wrap result with sessionCycles = delta
@@ -345,7 +569,7 @@ public class Api {
             Statistic.saveRunDetails(userId, p.getName(), isFunction, debugExpansionLevel, currentRunArchitecture, debugInput, wrappedRes.getResult(), wrappedRes.getCycles(), wrappedRes.getVariableToValue());
             FunctionRegistry.recordRunCost(p.getName(), wrappedRes.getCycles());
             programsRanCount += 1;
-            debugProgram = null;
+            debugSession = null;
             debugInput = null;
             debugExpansionLevel = 0;
             currentRunOverhead = 0;
@@ -357,18 +581,19 @@ public class Api {
     }
 
     public ProgramResult stepBack(){
-        Program p = debugProgram;
-        if (p == null){
+        DebugSession session = debugSession;
+        if (session == null){
             throw new IllegalStateException("Not in a debug session");
         }
-        int previousCycles = chargedDebugCycles;
-        ProgramResult res = p.stepBack();
+        Program p = session.getProgram();
+        long previousCycles = chargedDebugCycles;
+        ProgramResult res = session.stepBack();
         // Calculate delta (cycles decreased, refund credits for stepping back)
-        int delta = res.getCycles() - previousCycles;
+        long delta = res.getCycles() - previousCycles;
         // REFUND credits for stepping back (negative delta means cycles decreased)
         if (delta < 0) {
-            credits -= delta;
-            usedCredits -= delta;
+            credits.add(-delta);
+            usedCredits.addAndGet(delta);
         }
         chargedDebugCycles = res.getCycles();
         
@@ -383,13 +608,13 @@ public class Api {
     }
 
     public ProgramResult continueDebug(){
-        Program p = debugProgram;
-        if (p == null){
+        DebugSession session = debugSession;
+        if (session == null){
             throw new IllegalStateException("Not in a debug session");
         }
-        ProgramResult res = p.continueDebugWithBudget(credits);
-        int delta = res.getCycles() - chargedDebugCycles;
-        if (delta > 0) { credits -= delta; usedCredits += delta; }
+        Program p = session.getProgram();
+        ProgramResult res = debugWithBudget(budget -> session.continueDebugWithBudget(chargedDebugCycles + budget));
+        long delta = res.getCycles() - chargedDebugCycles;
         chargedDebugCycles = res.getCycles();
         
         // Wrap result with sessionCycles = delta
@@ -404,7 +629,7 @@ public class Api {
             Statistic.saveRunDetails(userId, p.getName(), isFunction, debugExpansionLevel, currentRunArchitecture, debugInput, wrappedRes.getResult(), wrappedRes.getCycles(), wrappedRes.getVariableToValue());
             FunctionRegistry.recordRunCost(p.getName(), wrappedRes.getCycles());
             programsRanCount += 1;
-            debugProgram = null;
+            debugSession = null;
             debugInput = null;
             debugExpansionLevel = 0;
             currentRunOverhead = 0;
@@ -415,25 +640,26 @@ public class Api {
         return wrappedRes;
     }
 
-    public int stopDebug(){
-        int totalCost = 0;
+    public long stopDebug(){
+        long totalCost = 0;
         // If there is an ongoing debug session, snapshot its current state as a completed run
-        if (debugProgram != null){
+        if (debugSession != null){
             // Calculate total cost (overhead + cycles already charged)
             totalCost = currentRunOverhead + chargedDebugCycles;
             
             try {
-                ProgramResult snapshot = debugProgram.snapshotDebugAsFinished();
-                boolean isFunction = FunctionRegistry.isFunction(debugProgram.getName());
-                Statistic.saveRunDetails(userId, debugProgram.getName(), isFunction, debugExpansionLevel, currentRunArchitecture, debugInput, snapshot.getResult(), snapshot.getCycles(), snapshot.getVariableToValue());
+                ProgramResult snapshot = debugSession.snapshotDebugAsFinished();
+                String name = debugSession.getProgram().getName();
+                boolean isFunction = FunctionRegistry.isFunction(name);
+                Statistic.saveRunDetails(userId, name, isFunction, debugExpansionLevel, currentRunArchitecture, debugInput, snapshot.getResult(), snapshot.getCycles(), snapshot.getVariableToValue());
             } catch (Exception ignored) {
                 // If snapshot fails, still proceed to stop debugging
             }
-            debugProgram.stopDebug();
+            debugSession.stopDebug();
             programsRanCount += 1;
         }
 
-        debugProgram = null;
+        debugSession = null;
         debugInput = null;
         debugExpansionLevel = 0;
         chargedDebugCycles = 0;
@@ -444,15 +670,20 @@ public class Api {
     }
 
     public void setBreakpoint(int index){
-        debugProgram.setBreakpoint(index);
+        debugSession.setBreakpoint(index);
     }
 
     public void removeBreakpoint(int index){
-        debugProgram.removeBreakpoint(index);
+        debugSession.removeBreakpoint(index);
     }
 
     public boolean isDebugging(){
-        return debugProgram != null;
+        return debugSession != null;
+    }
+
+    public long getDebugMemoryUsage(){
+        DebugSession session = debugSession;
+        return session == null ? 0 : session.getDebugMemoryUsage();
     }
 
     // ===== Credits and architecture helpers =====
@@ -467,7 +698,10 @@ public class Api {
     }
 
     private void ensureArchitectureAllowed(Program p, String chosen){
-        String required = p.getMaxArchitecture();
+        ensureArchitectureAllowed(p.getMaxArchitecture(), chosen);
+    }
+
+    private void ensureArchitectureAllowed(String required, String chosen){
         if (architectureRank(chosen) < architectureRank(required)){
             throw new IllegalArgumentException("Chosen architecture is lower than program's minimum: required=" + required + ", chosen=" + chosen);
         }
@@ -497,11 +731,7 @@ public class Api {
         }
 
         List<String> labels = new ArrayList<>(p.getLabels());
-        labels.sort((a, b) -> {
-            int na = Integer.parseInt(a.substring(1));
-            int nb = Integer.parseInt(b.substring(1));
-            return Integer.compare(na, nb);
-        });
+        labels.sort(Names::compare);
         return labels;
     }
 
@@ -511,13 +741,7 @@ public class Api {
             p = curProgram.expand(expansionLevel);
         }
         List<String> variables = new ArrayList<>(p.getPresentVariables());
-        variables.sort((a, b) -> {
-            int cmpPrefix = Character.compare(a.charAt(0), b.charAt(0));
-            if (cmpPrefix != 0) return cmpPrefix;
-            int na = Integer.parseInt(a.substring(1));
-            int nb = Integer.parseInt(b.substring(1));
-            return Integer.compare(na, nb);
-        });
+        variables.sort(Names::compare);
         return variables;
     }
 
@@ -565,6 +789,10 @@ public class Api {
         return FunctionRegistry.getAllFunctionsInChain(name);
     }
 
+    public static List<FunctionCacheStats> getFunctionCacheStatistics(){
+        return FunctionCallCache.statistics();
+    }
+
     public static List<String> getProgramsUsing(String functionName){
         return FunctionRegistry.getProgramsUsing(functionName);
     }
@@ -589,20 +817,21 @@ public class Api {
                 userId,
                 FunctionRegistry.getProgramUploadedCount(userId),
                 FunctionRegistry.getFunctionUploadedCount(userId),
-                credits,
-                usedCredits,
+                credits.available(),
+                usedCredits.get(),
                 getUserStatistics(userId).size()
         );
     }
 
     public Map.Entry<Boolean, String> canRun(int expansionLevel, String architecture){
-        //part 1, verifies average cost against available credits
+        //part 1, verifies the least cost of any run against available credits
         Program p = curProgram;
         if(expansionLevel > 0){
             p = curProgram.expand(expansionLevel);
         }
-        double neededCredits = getProgramAverageCost(p.getName()) + getArchitectureOverhead(architecture);
-        if (neededCredits > credits){
+        long available = credits.available();
+        CostEstimate cost = curProgram.estimateCost(expansionLevel, null, available);
+        if (cost.getMinCycles() > available - getArchitectureOverhead(architecture)){
             return new AbstractMap.SimpleEntry<>(false, "Insufficient credits");
         }
 
@@ -1,5 +1,6 @@
 package com.commands;
 
+import com.program.FunctionHandle;
 import com.program.Program;
 
 import java.util.List;
@@ -28,16 +29,22 @@ public final class ArgExpr {
     public static final class ArgCall {
         private final String name;
         private final List<Object> args; // elements: String or ArgCall
+        private final FunctionHandle callee;
 
         public ArgCall(String name, List<Object> args) {
             this.name = name;
             this.args = args;
+            this.callee = FunctionHandle.of(name);
         }
 
         public String name() {
             return name;
         }
 
+        public FunctionHandle callee() {
+            return callee;
+        }
+
         public List<Object> args() {
             return args;
         }
@@ -47,7 +54,7 @@ public final class ArgExpr {
          * Depth is 1 + max( depth(underlying program), depth(nested args) ).
          */
         public int expansionDepth(){
-            Program nested = FnArgs.getProgramByName(name);
+            Program nested = callee.program();
             int programDepth = nested.getMaxExpansionLevel();
             int nestedArgsDepth = ArgExpr.computeArgsDepth(args);
             return 1 + Math.max(programDepth, nestedArgsDepth);
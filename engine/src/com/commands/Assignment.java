@@ -3,8 +3,9 @@ package com.commands;
 import com.XMLHandlerV2.SInstruction;
 import com.XMLHandlerV2.SInstructionArgument;
 import com.XMLHandlerV2.SInstructionArguments;
+import com.program.CompiledProgram;
+import com.program.ProgramCompiler;
 import com.program.ProgramState;
-import com.program.SingleStepChanges;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -25,13 +26,18 @@ class Assignment extends BaseCommand {
     public void execute(ProgramState programState) {
         Variable v1 = programState.variables.get(variableName);
         Variable v2 = programState.variables.get(otherVariableName);
-        SingleStepChanges.SingleVariableChange variableChange = new SingleStepChanges.SingleVariableChange(v1.getName(), v1.getValue(), v2.getValue());
-        SingleStepChanges.IndexChange indexChange = new SingleStepChanges.IndexChange(programState.currentCommandIndex, programState.currentCommandIndex+ 1);
-        SingleStepChanges.CyclesChange cyclesChange = new SingleStepChanges.CyclesChange(programState.cyclesCount, programState.cyclesCount + cycles);
+        int oldValue = v1.getValue();
+        int oldIndex = programState.currentCommandIndex;
+        long oldCycles = programState.cyclesCount;
         programState.cyclesCount += cycles;
         v1.setValue(v2.getValue());
         programState.currentCommandIndex++;
-        programState.singleStepChanges.push(new SingleStepChanges(variableChange, indexChange, cyclesChange));
+        programState.recordStep(variableName, oldValue, oldIndex, oldCycles);
+    }
+
+    @Override
+    public void compile(ProgramCompiler compiler) {
+        compiler.emit(CompiledProgram.OP_ASSIGNMENT, compiler.slot(variableName), compiler.slot(otherVariableName), CompiledProgram.NO_TARGET, cycles);
     }
 
     @Override
@@ -51,10 +57,10 @@ class Assignment extends BaseCommand {
 
     @Override
     public List<BaseCommand> expand(AtomicInteger nextAvailableVariable, AtomicInteger nextAvailableLabel, AtomicInteger realIndex) {
-        String L1 = "L" + nextAvailableLabel.getAndIncrement();
-        String L2 = "L" + nextAvailableLabel.getAndIncrement();
-        String L3 = "L" + nextAvailableLabel.getAndIncrement();
-        String z1 = "z" + nextAvailableVariable.getAndIncrement();
+        String L1 = Names.label(nextAvailableLabel.getAndIncrement());
+        String L2 = Names.label(nextAvailableLabel.getAndIncrement());
+        String L3 = Names.label(nextAvailableLabel.getAndIncrement());
+        String z1 = Names.workVariable(nextAvailableVariable.getAndIncrement());
         List<BaseCommand> commands = new ArrayList<>();
         commands.add(new ZeroVariable(variableName, label, realIndex.getAndIncrement(), this));
         commands.add(new JumpNotZero(otherVariableName, L1, NO_LABEL, realIndex.getAndIncrement(), this));
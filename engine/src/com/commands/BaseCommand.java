@@ -1,5 +1,6 @@
 package com.commands;
 
+import com.program.ProgramCompiler;
 import com.program.ProgramState;
 import com.XMLHandlerV2.SInstruction;
 
@@ -10,6 +11,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class BaseCommand implements Serializable {
     public abstract void execute(ProgramState programState);
+    // Emits this command's opcode into the slot-indexed execution form
+    public abstract void compile(ProgramCompiler compiler);
     @Override
     abstract public String toString();
     public String toDisplayString(){
@@ -52,7 +55,7 @@ public abstract class BaseCommand implements Serializable {
     }
 
     protected void verifyLabel(String label) {
-        if (!label.equals(NO_LABEL) && !label.equals(EXIT_LABEL) && !label.matches("L[1-9]\\d?")) {
+        if (!label.equals(NO_LABEL) && !label.equals(EXIT_LABEL) && Names.labelNumber(label) == 0) {
             throw new IllegalArgumentException("Invalid label format");
         }
     }
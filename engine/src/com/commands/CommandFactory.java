@@ -1,7 +1,7 @@
 package com.commands;
 import com.XMLHandlerV2.SInstruction;
 import com.XMLHandlerV2.SInstructionArgument;
-import com.program.Program;
+import com.program.FunctionHandle;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -120,7 +120,7 @@ public class CommandFactory {
                             null
                     );
             case "QUOTE" -> {
-                    Program targetProgram = getProgramFromArg(argMap);
+                    FunctionHandle targetProgram = getCalleeFromArg(argMap);
                     int arity = FnArgs.getFunctionArity(argMap.get("functionName"));
                     java.util.List<Object> parsed = FnArgs.parseWithArity(argMap.get("functionArguments"), arity);
                     yield new Quotation(
@@ -134,7 +134,7 @@ public class CommandFactory {
                 }
 
             case "JUMP_EQUAL_FUNCTION" -> {
-                    Program targetProgram = getProgramFromArg(argMap);
+                    FunctionHandle targetProgram = getCalleeFromArg(argMap);
                     int arity = FnArgs.getFunctionArity(argMap.get("functionName"));
                     java.util.List<Object> parsed = FnArgs.parseWithArity(argMap.get("functionArguments"), arity);
                     yield new JumpEqualFunction(
@@ -152,10 +152,13 @@ public class CommandFactory {
         };
     }
 
-    private static Program getProgramFromArg(Map<String, String> argMap) {
+    // Resolved once here, so a missing function fails the load rather than the run
+    private static FunctionHandle getCalleeFromArg(Map<String, String> argMap) {
         String functionName = argMap.get("functionName");
         if (functionName == null) throw new IllegalArgumentException("Missing function name");
-        return FnArgs.getProgramByName(functionName);
+        FunctionHandle callee = FunctionHandle.of(functionName);
+        callee.program();
+        return callee;
     }
 
     
@@ -1,7 +1,8 @@
 package com.commands;
 
+import com.program.CompiledProgram;
+import com.program.ProgramCompiler;
 import com.program.ProgramState;
-import com.program.SingleStepChanges;
 import com.XMLHandlerV2.SInstruction;
 import com.XMLHandlerV2.SInstructionArgument;
 import com.XMLHandlerV2.SInstructionArguments;
@@ -23,13 +24,18 @@ class ConstantAssignment extends BaseCommand {
     @Override
     public void execute(ProgramState programState) {
         Variable v = programState.variables.get(variableName);
-        SingleStepChanges.SingleVariableChange variableChange = new SingleStepChanges.SingleVariableChange(v.getName(), v.getValue(), value);
-        SingleStepChanges.IndexChange indexChange = new SingleStepChanges.IndexChange(programState.currentCommandIndex, programState.currentCommandIndex + 1);
-        SingleStepChanges.CyclesChange cyclesChange = new SingleStepChanges.CyclesChange(programState.cyclesCount, programState.cyclesCount + cycles);
+        int oldValue = v.getValue();
+        int oldIndex = programState.currentCommandIndex;
+        long oldCycles = programState.cyclesCount;
         programState.cyclesCount += cycles;
         v.setValue(value);
         programState.currentCommandIndex++;
-        programState.singleStepChanges.push(new SingleStepChanges(variableChange, indexChange, cyclesChange));
+        programState.recordStep(variableName, oldValue, oldIndex, oldCycles);
+    }
+
+    @Override
+    public void compile(ProgramCompiler compiler) {
+        compiler.emit(CompiledProgram.OP_CONSTANT_ASSIGNMENT, compiler.slot(variableName), value, CompiledProgram.NO_TARGET, cycles);
     }
 
     @Override
@@ -1,7 +1,8 @@
 package com.commands;
 
+import com.program.CompiledProgram;
+import com.program.ProgramCompiler;
 import com.program.ProgramState;
-import com.program.SingleStepChanges;
 import com.XMLHandlerV2.SInstruction;
 
 import java.util.ArrayList;
@@ -19,14 +20,18 @@ class Decrease extends BaseCommand {
     @Override
     public void execute(ProgramState programState) {
         Variable v = programState.variables.get(variableName);
-        int newValue = v.getValue() == 0 ? 0 : v.getValue() - 1;
-        SingleStepChanges.SingleVariableChange variableChange = new SingleStepChanges.SingleVariableChange(v.getName(), v.getValue(), newValue);
-        SingleStepChanges.IndexChange indexChange = new SingleStepChanges.IndexChange(programState.currentCommandIndex, programState.currentCommandIndex + 1);
-        SingleStepChanges.CyclesChange cyclesChange = new SingleStepChanges.CyclesChange(programState.cyclesCount, programState.cyclesCount + cycles);
+        int oldValue = v.getValue();
+        int oldIndex = programState.currentCommandIndex;
+        long oldCycles = programState.cyclesCount;
         programState.cyclesCount += cycles;
-        v.setValue(newValue);
+        v.setValue(oldValue == 0 ? 0 : oldValue - 1);
         programState.currentCommandIndex++;
-        programState.singleStepChanges.push(new SingleStepChanges(variableChange, indexChange, cyclesChange));
+        programState.recordStep(variableName, oldValue, oldIndex, oldCycles);
+    }
+
+    @Override
+    public void compile(ProgramCompiler compiler) {
+        compiler.emit(CompiledProgram.OP_DECREASE, compiler.slot(variableName), 0, CompiledProgram.NO_TARGET, cycles);
     }
 
     @Override
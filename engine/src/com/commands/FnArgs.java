@@ -4,7 +4,6 @@ import com.XMLHandlerV2.SFunctions;
 import com.program.FunctionRegistry;
 import com.program.Program;
 import com.program.ProgramState;
-import com.dto.api.ProgramResult;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -169,9 +168,7 @@ public final class FnArgs {
         for (Object sub : call.args()) {
             inner.add(evalArg(state, sub));
         }
-        Program nested = getProgramByName(call.name());
-        ProgramResult r = nested.executeWithBudget(inner, Integer.MAX_VALUE);
-        return r.getResult();
+        return call.callee().program().call(inner, state.remainingCycles()).result();
     }
 
     /**
@@ -1,7 +1,8 @@
 package com.commands;
 
+import com.program.CompiledProgram;
+import com.program.ProgramCompiler;
 import com.program.ProgramState;
-import com.program.SingleStepChanges;
 import com.XMLHandlerV2.SInstruction;
 import com.XMLHandlerV2.SInstructionArgument;
 import com.XMLHandlerV2.SInstructionArguments;
@@ -25,12 +26,16 @@ class GotoLabel extends BaseCommand {
             return;
         }
         int targetIndex = programState.labelToIndex.get(targetLabel);
-        SingleStepChanges.SingleVariableChange variableChange = new SingleStepChanges.SingleVariableChange("y", programState.variables.get("y").getValue(), programState.variables.get("y").getValue());
-        SingleStepChanges.IndexChange indexChange = new SingleStepChanges.IndexChange(programState.currentCommandIndex, targetIndex);
-        SingleStepChanges.CyclesChange cyclesChange = new SingleStepChanges.CyclesChange(programState.cyclesCount, programState.cyclesCount + cycles);
+        int oldIndex = programState.currentCommandIndex;
+        long oldCycles = programState.cyclesCount;
         programState.cyclesCount += cycles;
         programState.currentCommandIndex = targetIndex;
-        programState.singleStepChanges.push(new SingleStepChanges(variableChange, indexChange, cyclesChange));
+        programState.recordStep(null, 0, oldIndex, oldCycles);
+    }
+
+    @Override
+    public void compile(ProgramCompiler compiler) {
+        compiler.emit(CompiledProgram.OP_GOTO_LABEL, 0, 0, compiler.target(targetLabel), cycles);
     }
 
     @Override
@@ -70,7 +75,7 @@ class GotoLabel extends BaseCommand {
 
     @Override
     public List<BaseCommand> expand(AtomicInteger nextAvailableVariable, AtomicInteger nextAvailableLabel, AtomicInteger realIndex) {
-        String nextVar = "z" + nextAvailableVariable.getAndIncrement();
+        String nextVar = Names.workVariable(nextAvailableVariable.getAndIncrement());
         List<BaseCommand> commands = new ArrayList<>();
         commands.add(new Increase(nextVar, label, realIndex.getAndIncrement(), this));
         commands.add(new JumpNotZero(nextVar, targetLabel, NO_LABEL, realIndex.getAndIncrement(), this));
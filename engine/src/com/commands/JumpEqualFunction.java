@@ -1,10 +1,11 @@
 package com.commands;
 
 import com.XMLHandlerV2.SInstruction;
-import com.dto.api.ProgramResult;
-import com.program.Program;
+import com.program.FunctionCallCache;
+import com.program.FunctionHandle;
+import com.program.CompiledProgram;
+import com.program.ProgramCompiler;
 import com.program.ProgramState;
-import com.program.SingleStepChanges;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -16,16 +17,16 @@ class JumpEqualFunction extends BaseCommand{
 
     String variableName;
     String targetLabel;
-    Program p;
+    FunctionHandle callee;
     // Each element is either String (variable name) or ArgExpr.ArgCall (nested function call)
     List<Object> input;
 
     // Unified constructor: accepts either List<String> or List<ArgExpr.ArgCall> or a mixed List<?>
-    JumpEqualFunction(String variableName, String targetLabel, Program p, List<?> input, String label, int index, BaseCommand creator) {
+    JumpEqualFunction(String variableName, String targetLabel, FunctionHandle callee, List<?> input, String label, int index, BaseCommand creator) {
         super(label, index, creator);
         this.variableName = variableName;
         this.targetLabel = targetLabel;
-        this.p = p;
+        this.callee = callee;
         // Normalize to List<Object> while validating element types
         List<Object> normalized = new ArrayList<>(input == null ? 0 : input.size());
         if (input != null) {
@@ -44,9 +45,9 @@ class JumpEqualFunction extends BaseCommand{
     @Override
     public void execute(ProgramState programState) {
         List<Integer> evaluated = FnArgs.evaluateArgs(programState, input);
-        ProgramResult res = p.executeWithBudget(evaluated, Integer.MAX_VALUE);
+        FunctionCallCache.Result res = callee.program().call(evaluated, programState.remainingCycles());
         int targetIndex;
-        if(programState.variables.get(variableName).getValue() == res.getResult()){
+        if(programState.variables.get(variableName).getValue() == res.result()){
             if (targetLabel.equals(EXIT_LABEL)){
                 programState.done = true;
                 return;
@@ -56,12 +57,16 @@ class JumpEqualFunction extends BaseCommand{
         else{
             targetIndex = programState.currentCommandIndex + 1;
         }
-        SingleStepChanges.SingleVariableChange variableChange = new SingleStepChanges.SingleVariableChange("y", programState.variables.get("y").getValue(), programState.variables.get("y").getValue());
-        SingleStepChanges.IndexChange indexChange = new SingleStepChanges.IndexChange(programState.currentCommandIndex, targetIndex);
-        SingleStepChanges.CyclesChange cyclesChange = new SingleStepChanges.CyclesChange(programState.cyclesCount, programState.cyclesCount + cycles);
+        int oldIndex = programState.currentCommandIndex;
+        long oldCycles = programState.cyclesCount;
         programState.cyclesCount += cycles;
         programState.currentCommandIndex = targetIndex;
-        programState.singleStepChanges.push(new SingleStepChanges(variableChange, indexChange, cyclesChange));
+        programState.recordStep(null, 0, oldIndex, oldCycles);
+    }
+
+    @Override
+    public void compile(ProgramCompiler compiler) {
+        compiler.emitCall(CompiledProgram.OP_JUMP_EQUAL_FUNCTION, compiler.slot(variableName), callee, input, compiler.target(targetLabel), cycles);
     }
 
     @Override
@@ -72,7 +77,7 @@ class JumpEqualFunction extends BaseCommand{
     @Override
     protected String toStringBase() {
         List<String> parts = FnArgs.renderArgList(input);
-        return String.format("#%d (S) [ %s ] IF %s = %s(", index + 1, displayLabel(), variableName, p.getName()) +
+        return String.format("#%d (S) [ %s ] IF %s = %s(", index + 1, displayLabel(), variableName, callee.name()) +
                 String.join(",", parts) + ")" + String.format(" GOTO %s (X + %d) | %s", targetLabel, cycles, getArchitecture());
     }
 
@@ -87,8 +92,8 @@ class JumpEqualFunction extends BaseCommand{
     @Override
     public List<BaseCommand> expand(AtomicInteger nextAvailableVariable, AtomicInteger nextAvailableLabel, AtomicInteger realIndex) {
         List<BaseCommand> commands = new ArrayList<>();
-        String z1 = "z" + nextAvailableVariable.getAndIncrement();
-        commands.add(new Quotation(z1, p, input, label, realIndex.getAndIncrement(), this));
+        String z1 = Names.workVariable(nextAvailableVariable.getAndIncrement());
+        commands.add(new Quotation(z1, callee, input, label, realIndex.getAndIncrement(), this));
         commands.add(new JumpEqualVariable(variableName, z1, targetLabel, NO_LABEL, realIndex.getAndIncrement(), this));
         return commands;
     }
@@ -96,11 +101,11 @@ class JumpEqualFunction extends BaseCommand{
     @Override
     public int getExpansionLevel() {
         // This command expands in one step into:
-        //   Quotation(z1, p, input, ...), JumpEqualVariable(variableName, z1, ...)
+        //   Quotation(z1, callee, input, ...), JumpEqualVariable(variableName, z1, ...)
         // The JumpEqualVariable has fixed expansion depth 3.
         // The Quotation depth depends on the quoted program and nested argument calls.
-        // Therefore overall depth = 1 + max( quotationDepth(input, p), 3 ).
-        int quotationDepth = 1 + Math.max(p.getMaxExpansionLevel(), ArgExpr.computeArgsDepth(input));
+        // Therefore overall depth = 1 + max( quotationDepth(input, callee), 3 ).
+        int quotationDepth = 1 + Math.max(callee.program().getMaxExpansionLevel(), ArgExpr.computeArgsDepth(input));
         return 1 + Math.max(quotationDepth, 3);
     }
 
@@ -114,7 +119,7 @@ class JumpEqualFunction extends BaseCommand{
         String variable = variables.get(0);
         Deque<String> mapped = new ArrayDeque<>(variables.subList(1, variables.size()));
         List<Object> newInput = FnArgs.replaceVarsInArgs(this.input, mapped);
-        return new JumpEqualFunction(variable, labels.get(0), p, newInput, labels.get(1), index, creator);
+        return new JumpEqualFunction(variable, labels.get(0), callee, newInput, labels.get(1), index, creator);
     }
 
     @Override
@@ -145,7 +150,7 @@ class JumpEqualFunction extends BaseCommand{
     
     @Override
     public java.util.List<String> getCalledFunctionNames() {
-        if (p == null) {
+        if (callee == null) {
             return java.util.Collections.emptyList();
         }
         
@@ -153,9 +158,9 @@ class JumpEqualFunction extends BaseCommand{
         java.util.Set<String> visited = new java.util.HashSet<>();
         
         // Add the main function name
-        if (!visited.contains(p.getName())) {
-            visited.add(p.getName());
-            result.add(p.getName());
+        if (!visited.contains(callee.name())) {
+            visited.add(callee.name());
+            result.add(callee.name());
         }
         
         // Extract nested function calls from the input arguments
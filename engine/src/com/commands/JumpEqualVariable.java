@@ -1,7 +1,8 @@
 package com.commands;
 
+import com.program.CompiledProgram;
+import com.program.ProgramCompiler;
 import com.program.ProgramState;
-import com.program.SingleStepChanges;
 import com.XMLHandlerV2.SInstruction;
 import com.XMLHandlerV2.SInstructionArgument;
 import com.XMLHandlerV2.SInstructionArguments;
@@ -38,12 +39,16 @@ class JumpEqualVariable extends BaseCommand {
         else{
             targetIndex = programState.currentCommandIndex + 1;
         }
-        SingleStepChanges.SingleVariableChange variableChange = new SingleStepChanges.SingleVariableChange("y", programState.variables.get("y").getValue(), programState.variables.get("y").getValue());
-        SingleStepChanges.IndexChange indexChange = new SingleStepChanges.IndexChange(programState.currentCommandIndex, targetIndex);
-        SingleStepChanges.CyclesChange cyclesChange = new SingleStepChanges.CyclesChange(programState.cyclesCount, programState.cyclesCount + cycles);
+        int oldIndex = programState.currentCommandIndex;
+        long oldCycles = programState.cyclesCount;
         programState.cyclesCount += cycles;
         programState.currentCommandIndex = targetIndex;
-        programState.singleStepChanges.push(new SingleStepChanges(variableChange, indexChange, cyclesChange));
+        programState.recordStep(null, 0, oldIndex, oldCycles);
+    }
+
+    @Override
+    public void compile(ProgramCompiler compiler) {
+        compiler.emit(CompiledProgram.OP_JUMP_EQUAL_VARIABLE, compiler.slot(variableName), compiler.slot(otherVariableName), compiler.target(targetLabel), cycles);
     }
 
     @Override
@@ -87,11 +92,11 @@ class JumpEqualVariable extends BaseCommand {
     @Override
     public List<BaseCommand> expand(AtomicInteger nextAvailableVariable, AtomicInteger nextAvailableLabel, AtomicInteger realIndex) {
         List<BaseCommand> commands = new ArrayList<>();
-        String L1 = "L"+ nextAvailableLabel.getAndIncrement();
-        String L2 = "L"+ nextAvailableLabel.getAndIncrement();
-        String L3 = "L"+ nextAvailableLabel.getAndIncrement();
-        String z1 = "z"+ nextAvailableVariable.getAndIncrement();
-        String z2 = "z"+ nextAvailableVariable.getAndIncrement();
+        String L1 = Names.label(nextAvailableLabel.getAndIncrement());
+        String L2 = Names.label(nextAvailableLabel.getAndIncrement());
+        String L3 = Names.label(nextAvailableLabel.getAndIncrement());
+        String z1 = Names.workVariable(nextAvailableVariable.getAndIncrement());
+        String z2 = Names.workVariable(nextAvailableVariable.getAndIncrement());
 
         commands.add(new Assignment(z1, variableName, label, realIndex.getAndIncrement(),this));
         commands.add(new Assignment(z2, otherVariableName, NO_LABEL, realIndex.getAndIncrement(),this));
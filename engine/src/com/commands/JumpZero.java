@@ -1,7 +1,8 @@
 package com.commands;
 
+import com.program.CompiledProgram;
+import com.program.ProgramCompiler;
 import com.program.ProgramState;
-import com.program.SingleStepChanges;
 import com.XMLHandlerV2.SInstruction;
 import com.XMLHandlerV2.SInstructionArgument;
 import com.XMLHandlerV2.SInstructionArguments;
@@ -35,12 +36,16 @@ class JumpZero extends BaseCommand {
         else{
             targetIndex = programState.currentCommandIndex + 1;
         }
-        SingleStepChanges.SingleVariableChange variableChange = new SingleStepChanges.SingleVariableChange("y", programState.variables.get("y").getValue(), programState.variables.get("y").getValue());
-        SingleStepChanges.IndexChange indexChange = new SingleStepChanges.IndexChange(programState.currentCommandIndex, targetIndex);
-        SingleStepChanges.CyclesChange cyclesChange = new SingleStepChanges.CyclesChange(programState.cyclesCount, programState.cyclesCount + cycles);
+        int oldIndex = programState.currentCommandIndex;
+        long oldCycles = programState.cyclesCount;
         programState.cyclesCount += cycles;
         programState.currentCommandIndex = targetIndex;
-        programState.singleStepChanges.push(new SingleStepChanges(variableChange, indexChange, cyclesChange));
+        programState.recordStep(null, 0, oldIndex, oldCycles);
+    }
+
+    @Override
+    public void compile(ProgramCompiler compiler) {
+        compiler.emit(CompiledProgram.OP_JUMP_ZERO, compiler.slot(variableName), 0, compiler.target(targetLabel), cycles);
     }
 
     @Override
@@ -83,7 +88,7 @@ class JumpZero extends BaseCommand {
     @Override
     public List<BaseCommand> expand(AtomicInteger nextAvailableVariable, AtomicInteger nextAvailableLabel, AtomicInteger realIndex) {
         List<BaseCommand> commands = new ArrayList<>();
-        String L1 = "L"+ nextAvailableLabel.getAndIncrement();
+        String L1 = Names.label(nextAvailableLabel.getAndIncrement());
         commands.add(new JumpNotZero(variableName, L1, label, realIndex.getAndIncrement(), this));
         commands.add(new GotoLabel(targetLabel, NO_LABEL, realIndex.getAndIncrement(), this));
         commands.add(new Neutral(variableName, L1, realIndex.getAndIncrement(), this));
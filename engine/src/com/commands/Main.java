@@ -2,6 +2,7 @@ package com.commands;
 
 import com.api.Api;
 import com.dto.api.ProgramResult;
+import com.program.FunctionHandle;
 import com.program.Program;
 
 import java.util.ArrayList;
@@ -39,7 +40,7 @@ public class Main {
         inputForAddition.add("x2");
 
         // Build a program that performs: y <- (q, (q, y))
-        JumpEqualFunction jef = new JumpEqualFunction("x3", BaseCommand.EXIT_LABEL, addition, inputForAddition, BaseCommand.NO_LABEL, 0, null);
+        JumpEqualFunction jef = new JumpEqualFunction("x3", BaseCommand.EXIT_LABEL, FunctionHandle.of(addition), inputForAddition, BaseCommand.NO_LABEL, 0, null);
         Increase incY1 = new Increase("y", BaseCommand.NO_LABEL, 1,null);
         Program p = new Program("p", List.of(jef, incY1));
         System.out.println(p);
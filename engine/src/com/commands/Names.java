@@ -0,0 +1,150 @@
+package com.commands;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Integer identities of the names commands use: the output y, inputs x1, x2, ..., work variables z1, z2, ...,
+ * labels L1, L2, ... and EXIT. An identity packs the kind with the number, so code can compare, order and count
+ * names without touching their text; names are parsed by hand (no regex) and any number of them is allowed.
+ * The string forms are interned per kind, so expanding a program to tens of thousands of labels creates each
+ * "L12345" once per process rather than once per command.
+ */
+public final class Names {
+    public static final int Y = 0;
+    public static final int INPUT = 1;
+    public static final int WORK = 2;
+    public static final int LABEL = 3;
+    public static final int EXIT = 4;
+    // Identity of anything that is not a canonical name (e.g. "L01", "x", "foo")
+    public static final int NONE = -1;
+
+    private static final int KIND_BITS = 3;
+    private static final char[] PREFIXES = {'y', 'x', 'z', 'L'};
+    // Position of each kind in a listing (see compare): inputs come before y
+    private static final int[] LISTING_ORDER = {1, 0, 2, 3, 4};
+    // Numbers past this are rendered on each use rather than kept
+    private static final int MAX_INTERNED = 1 << 17;
+
+    // Interned string forms per kind (index n - 1 holds number n); grown on demand and replaced wholesale, so readers
+    // need no lock
+    private static final AtomicReferenceArray<String[]> INTERNED = new AtomicReferenceArray<>(new String[][] {
+            new String[0], new String[0], new String[0], new String[0]});
+
+    private Names() {}
+
+    // Identity of name, or NONE when name is not canonical
+    public static int id(String name) {
+        if (name == null || name.isEmpty()) {
+            return NONE;
+        }
+        if (name.equals("y")) {
+            return Y;
+        }
+        if (name.equals(BaseCommand.EXIT_LABEL)) {
+            return EXIT;
+        }
+        int kind = switch (name.charAt(0)) {
+            case 'x' -> INPUT;
+            case 'z' -> WORK;
+            case 'L' -> LABEL;
+            default -> NONE;
+        };
+        int n = number(name);
+        return kind == NONE || n <= 0 ? NONE : id(kind, n);
+    }
+
+    private static int id(int kind, int number) {
+        return number << KIND_BITS | kind;
+    }
+
+    public static int kind(int id) {
+        return id < 0 ? NONE : id & ((1 << KIND_BITS) - 1);
+    }
+
+    public static int number(int id) {
+        return id < 0 ? 0 : id >>> KIND_BITS;
+    }
+
+    // Number of label "Lk", or 0 when label is not one
+    public static int labelNumber(String label) {
+        return label.length() > 1 && label.charAt(0) == 'L' ? number(label) : 0;
+    }
+
+    // Number of work variable "zk", or 0 when name is not one
+    public static int workNumber(String name) {
+        return name.length() > 1 && name.charAt(0) == 'z' ? number(name) : 0;
+    }
+
+    // Number of input "xk", or 0 when name is not one
+    public static int inputNumber(String name) {
+        return name.length() > 1 && name.charAt(0) == 'x' ? number(name) : 0;
+    }
+
+    public static String label(int k) {
+        return name(LABEL, k);
+    }
+
+    public static String workVariable(int k) {
+        return name(WORK, k);
+    }
+
+    public static String inputVariable(int k) {
+        return name(INPUT, k);
+    }
+
+    /*
+        Orders names as programs list them: inputs, y, work variables, labels and EXIT, each kind by number (so z2
+        comes before z10); names that are not canonical come last, by their text.
+     */
+    public static int compare(String a, String b) {
+        int idA = id(a);
+        int idB = id(b);
+        if (idA == NONE || idB == NONE) {
+            return idA != idB ? Boolean.compare(idA == NONE, idB == NONE) : a.compareTo(b);
+        }
+        int byKind = Integer.compare(LISTING_ORDER[kind(idA)], LISTING_ORDER[kind(idB)]);
+        return byKind != 0 ? byKind : Integer.compare(number(idA), number(idB));
+    }
+
+    private static String name(int kind, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Name numbers start at 1");
+        }
+        if (k > MAX_INTERNED) {
+            return PREFIXES[kind] + Integer.toString(k);
+        }
+        String[] names = INTERNED.get(kind);
+        if (k > names.length) {
+            synchronized (INTERNED) {
+                names = INTERNED.get(kind);
+                if (k > names.length) {
+                    String[] grown = Arrays.copyOf(names, Math.max(k, names.length * 2));
+                    for (int i = names.length; i < grown.length; i++) {
+                        grown[i] = PREFIXES[kind] + Integer.toString(i + 1);
+                    }
+                    INTERNED.set(kind, grown);
+                    names = grown;
+                }
+            }
+        }
+        return names[k - 1];
+    }
+
+    // The positive number after the one-letter prefix of name, without leading zeros; 0 when there is none
+    private static int number(String name) {
+        int length = name.length();
+        if (length < 2 || length > 11 || name.charAt(1) == '0') {
+            return 0;
+        }
+        long n = 0;
+        for (int i = 1; i < length; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n > Integer.MAX_VALUE >>> KIND_BITS ? 0 : (int) n;
+    }
+}
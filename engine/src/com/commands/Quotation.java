@@ -1,23 +1,24 @@
 package com.commands;
 
 import com.XMLHandlerV2.SInstruction;
-import com.dto.api.ProgramResult;
-import com.program.Program;
+import com.program.FunctionCallCache;
+import com.program.FunctionHandle;
+import com.program.CompiledProgram;
+import com.program.ProgramCompiler;
 import com.program.ProgramState;
-import com.program.SingleStepChanges;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 class Quotation extends BaseCommand{
-    Program p;
+    FunctionHandle callee;
     String variableName;
     // Each element is either String (variable name) or ArgExpr.ArgCall (nested function call)
     List<Object> input;
 
-    protected Quotation(String variableName, Program p, List<?> input, String label, int index, BaseCommand creator) {
+    protected Quotation(String variableName, FunctionHandle callee, List<?> input, String label, int index, BaseCommand creator) {
         super(label, index, creator);
-        this.p = p;
+        this.callee = callee;
         this.variableName = variableName;
         // Normalize to List<Object> while validating element types
         List<Object> normalized = new ArrayList<>(input == null ? 0 : input.size());
@@ -31,19 +32,26 @@ class Quotation extends BaseCommand{
             }
         }
         this.input = normalized;
+        cycles = 5;
     }
 
     @Override
     public void execute(ProgramState programState) {
         List<Integer> evaluated = FnArgs.evaluateArgs(programState, input);
-        ProgramResult res = p.executeWithBudget(evaluated, Integer.MAX_VALUE);
-        SingleStepChanges.SingleVariableChange variableChange = new SingleStepChanges.SingleVariableChange(variableName, programState.variables.get(variableName).getValue(), res.getResult());
-        SingleStepChanges.IndexChange indexChange = new SingleStepChanges.IndexChange(programState.currentCommandIndex, programState.currentCommandIndex + 1);
-        SingleStepChanges.CyclesChange cyclesChange = new SingleStepChanges.CyclesChange(programState.cyclesCount, programState.cyclesCount + res.getCycles() + 5);
-        programState.variables.get(variableName).setValue(res.getResult());
-        programState.cyclesCount += res.getCycles() + 5;
+        FunctionCallCache.Result res = callee.program().call(evaluated, programState.remainingCycles());
+        Variable v = programState.variables.get(variableName);
+        int oldValue = v.getValue();
+        int oldIndex = programState.currentCommandIndex;
+        long oldCycles = programState.cyclesCount;
+        v.setValue(res.result());
+        programState.cyclesCount += res.cycles() + cycles;
         programState.currentCommandIndex++;
-        programState.singleStepChanges.push(new SingleStepChanges(variableChange, indexChange, cyclesChange));
+        programState.recordStep(variableName, oldValue, oldIndex, oldCycles);
+    }
+
+    @Override
+    public void compile(ProgramCompiler compiler) {
+        compiler.emitCall(CompiledProgram.OP_QUOTE, compiler.slot(variableName), callee, input, CompiledProgram.NO_TARGET, cycles);
     }
 
     @Override
@@ -54,7 +62,7 @@ class Quotation extends BaseCommand{
     @Override
     protected String toStringBase() {
         List<String> parts = FnArgs.renderArgList(input);
-        return String.format("#%d (S) [ %s ] %s <- (%s,", index + 1, displayLabel(), variableName, p.getName()) +
+        return String.format("#%d (S) [ %s ] %s <- (%s,", index + 1, displayLabel(), variableName, callee.name()) +
                 String.join(",", parts) + ")" + " (X + 5) | " + getArchitecture();
     }
 
@@ -63,7 +71,7 @@ class Quotation extends BaseCommand{
         String v = variables.get(0);
         Deque<String> mapped = new ArrayDeque<>(variables.subList(1, variables.size()));
         List<Object> newInput = FnArgs.replaceVarsInArgs(this.input, mapped);
-        return new Quotation(v, p, newInput, labels.get(0), index, creator);
+        return new Quotation(v, callee, newInput, labels.get(0), index, creator);
     }
 
     @Override
@@ -100,13 +108,13 @@ class Quotation extends BaseCommand{
         List<BaseCommand> commands = new ArrayList<>();
         HashMap<String, String> oldToNewVariables = getOldToNewVariables(nextAvailableVariable);
         HashMap<String, String> oldToNewLabels = getOldToNewLabels(nextAvailableLabel);
-        String lEnd = "L" + nextAvailableLabel.getAndIncrement();
+        String lEnd = Names.label(nextAvailableLabel.getAndIncrement());
         oldToNewLabels.put(BaseCommand.EXIT_LABEL, lEnd);
 
         commands.add(new Neutral("y", label, realIndex.getAndIncrement(), this));
 
         // 1) Compute preamble: for each input arg, prepare the corresponding fresh inner input variable
-        List<String> innerInputs = p.getInputVariables();
+        List<String> innerInputs = callee.program().getInputVariables();
         for (int i = 0; i < input.size(); i++) {
             String innerVar = innerInputs.get(i);                    // e.g., x1, x2
             String mappedInner = oldToNewVariables.get(innerVar);    // fresh zK for inner x_i
@@ -116,14 +124,13 @@ class Quotation extends BaseCommand{
             }
             else {
                 ArgExpr.ArgCall call = (ArgExpr.ArgCall) arg;
-                Program nested = FnArgs.getProgramByName(call.name());
-                commands.add(new Quotation(mappedInner, nested, call.args(), BaseCommand.NO_LABEL, realIndex.getAndIncrement(), this));
+                commands.add(new Quotation(mappedInner, call.callee(), call.args(), BaseCommand.NO_LABEL, realIndex.getAndIncrement(), this));
             }
 
         }
 
         // 2) Inline the quoted program with variable and label remapping
-        for (BaseCommand command : p.getCommands()){
+        for (BaseCommand command : callee.program().getCommands()){
             List<String> variables = new ArrayList<>(command.getPresentVariables());
             variables.replaceAll(oldToNewVariables::get);
             List<String> labels = new ArrayList<>(command.getLabelsForCopy());
@@ -139,13 +146,13 @@ class Quotation extends BaseCommand{
     }
 
     private HashMap<String, String> getOldToNewVariables(AtomicInteger nextAvailableVariable) {
-        HashSet<String> pVariables = p.getPresentVariables();
+        HashSet<String> pVariables = callee.program().getPresentVariables();
         HashMap<String, String> oldToNewVariables = new HashMap<>();
-        String y = "z" + nextAvailableVariable.getAndIncrement();
+        String y = Names.workVariable(nextAvailableVariable.getAndIncrement());
         oldToNewVariables.put("y", y);
         for(String s : pVariables){
             if(!oldToNewVariables.containsKey(s)){
-                oldToNewVariables.put(s, "z" + nextAvailableVariable.getAndIncrement());
+                oldToNewVariables.put(s, Names.workVariable(nextAvailableVariable.getAndIncrement()));
             }
         }
 
@@ -153,11 +160,11 @@ class Quotation extends BaseCommand{
     }
 
     private HashMap<String, String> getOldToNewLabels(AtomicInteger nextAvailableLabel) {
-        List<String> pLabels = p.getLabels();
+        List<String> pLabels = callee.program().getLabels();
         HashMap<String, String> oldToNewLabels = new HashMap<>();
         for(String s : pLabels){
             if(!s.equals(BaseCommand.EXIT_LABEL) && !oldToNewLabels.containsKey(s)) {
-                oldToNewLabels.put(s, "L" + nextAvailableLabel.getAndIncrement());
+                oldToNewLabels.put(s, Names.label(nextAvailableLabel.getAndIncrement()));
             }
         }
         oldToNewLabels.put(BaseCommand.NO_LABEL, BaseCommand.NO_LABEL);
@@ -172,7 +179,7 @@ class Quotation extends BaseCommand{
         // - the inlined quoted program,
         // - and a final assignment.
         // The correct level is therefore 1 + max( depth(quoted program), depth(nested arg calls) ).
-        int programDepth = p.getMaxExpansionLevel();
+        int programDepth = callee.program().getMaxExpansionLevel();
         int argsDepth = ArgExpr.computeArgsDepth(input);
         return 1 + Math.max(programDepth, argsDepth);
     }
@@ -189,7 +196,7 @@ class Quotation extends BaseCommand{
     
     @Override
     public java.util.List<String> getCalledFunctionNames() {
-        if (p == null) {
+        if (callee == null) {
             return java.util.Collections.emptyList();
         }
         
@@ -197,9 +204,9 @@ class Quotation extends BaseCommand{
         java.util.Set<String> visited = new java.util.HashSet<>();
         
         // Add the main function name
-        if (!visited.contains(p.getName())) {
-            visited.add(p.getName());
-            result.add(p.getName());
+        if (!visited.contains(callee.name())) {
+            visited.add(callee.name());
+            result.add(callee.name());
         }
         
         // Extract nested function calls from the input arguments
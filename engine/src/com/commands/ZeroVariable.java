@@ -1,7 +1,8 @@
 package com.commands;
 
+import com.program.CompiledProgram;
+import com.program.ProgramCompiler;
 import com.program.ProgramState;
-import com.program.SingleStepChanges;
 import com.XMLHandlerV2.SInstruction;
 
 import java.util.ArrayList;
@@ -18,13 +19,18 @@ class ZeroVariable extends BaseCommand {
     @Override
     public void execute(ProgramState programState) {
         Variable v = programState.variables.get(variableName);
-        SingleStepChanges.SingleVariableChange variableChange = new SingleStepChanges.SingleVariableChange(v.getName(), v.getValue(), 0);
-        SingleStepChanges.IndexChange indexChange = new SingleStepChanges.IndexChange(programState.currentCommandIndex, programState.currentCommandIndex + 1);
-        SingleStepChanges.CyclesChange cyclesChange = new SingleStepChanges.CyclesChange(programState.cyclesCount, programState.cyclesCount + cycles);
+        int oldValue = v.getValue();
+        int oldIndex = programState.currentCommandIndex;
+        long oldCycles = programState.cyclesCount;
         v.setValue(0);
         programState.cyclesCount += cycles;
         programState.currentCommandIndex++;
-        programState.singleStepChanges.push(new SingleStepChanges(variableChange, indexChange, cyclesChange));
+        programState.recordStep(variableName, oldValue, oldIndex, oldCycles);
+    }
+
+    @Override
+    public void compile(ProgramCompiler compiler) {
+        compiler.emit(CompiledProgram.OP_ZERO_VARIABLE, compiler.slot(variableName), 0, CompiledProgram.NO_TARGET, cycles);
     }
 
     @Override
@@ -67,7 +73,7 @@ class ZeroVariable extends BaseCommand {
     @Override
     public List<BaseCommand> expand(AtomicInteger nextAvailableVariable, AtomicInteger nextAvailableLabel, AtomicInteger realIndex) {
         List<BaseCommand> commands = new ArrayList<>();
-        String L1 = "L" + nextAvailableLabel.getAndIncrement();
+        String L1 = Names.label(nextAvailableLabel.getAndIncrement());
         commands.add(new Neutral(variableName, label, realIndex.getAndIncrement(),this));
         commands.add(new Decrease(variableName, L1, realIndex.getAndIncrement(), this));
         commands.add(new JumpNotZero(variableName, L1, NO_LABEL, realIndex.getAndIncrement(), this));
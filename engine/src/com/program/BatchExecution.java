@@ -0,0 +1,309 @@
+package com.program;
+
+import com.dto.api.ProgramResult;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs one compiled program over many input vectors in parallel on a shared fork-join pool.
+ * Inputs are cut into chunks and only a bounded window of chunks is in flight, so a generated range of any size
+ * needs memory for the window only. Results come back in input order as they complete.
+ * Every run is charged atomically against the user's CreditPool: overhead up front, and a budget reserved before it
+ * starts, of which what it does not use goes back to the pool. The first reservation is the most the run can cost
+ * when that is known (see CostAnalyzer) and FIRST_RESERVATION otherwise; a run that outgrows its reservation is run
+ * again with four times as much, so runs in parallel share the pool instead of each being given all of it. A run
+ * whose reservation was cut short by the others' is run again while they may put credits back; once the pool
+ * itself has no more, it halts with INSUFFICIENT_CREDITS as a sequential run would.
+ * Once the pool cannot cover the overhead, remaining runs are not started and report INSUFFICIENT_CREDITS with no
+ * cycles.
+ * Close the batch when not reading it to the end: outstanding chunks stop before their next run and are awaited,
+ * so the pool is final when close returns.
+ */
+public final class BatchExecution implements Iterator<ProgramResult>, AutoCloseable {
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static final int CHUNK_SIZE = 64;
+    // Chunks in flight per worker, enough to keep every core busy while the consumer drains results in order
+    private static final int WINDOW_PER_WORKER = 4;
+    // Budget first reserved for a run whose cost has no known upper bound
+    private static final long FIRST_RESERVATION = 1 << 16;
+
+    private record Run(ProgramResult result, boolean started) {}
+
+    private final CompiledProgram compiled;
+    private final List<List<Integer>> inputs;
+    private final CreditPool credits;
+    private final int overheadPerRun;
+    private final boolean lockstep;
+    private final long firstReservation;
+    // Credits taken from the pool by this batch's runs: overheads and the cycles they used
+    private final AtomicLong spent = new AtomicLong();
+    // Runs of this batch holding a reservation; while there are others, a run cut short by them is run again
+    private final AtomicInteger holding = new AtomicInteger();
+    private final int window = POOL.getParallelism() * WINDOW_PER_WORKER;
+    private final ArrayDeque<ForkJoinTask<Run[]>> inFlight = new ArrayDeque<>();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private int nextChunk = 0;
+    private Run[] current = null;
+    private int currentPos = 0;
+    private int delivered = 0;
+
+    private BatchExecution(CompiledProgram compiled, List<List<Integer>> inputs, CreditPool credits, int overheadPerRun, boolean lockstep) {
+        this.compiled = compiled;
+        this.inputs = inputs;
+        this.credits = credits;
+        this.overheadPerRun = overheadPerRun;
+        this.lockstep = lockstep;
+        CostAnalyzer.Bounds bounds = compiled.costBounds();
+        this.firstReservation = bounds.max() != CostAnalyzer.UNBOUNDED ? bounds.max() : Math.max(bounds.min(), FIRST_RESERVATION);
+        fill();
+    }
+
+    /**
+     * Starts running compiled over inputs. Results are read in input order through the returned iterator.
+     */
+    public static BatchExecution start(CompiledProgram compiled, List<List<Integer>> inputs, CreditPool credits, int overheadPerRun) {
+        return new BatchExecution(compiled, inputs, credits, overheadPerRun, false);
+    }
+
+    /**
+     * As start, but each chunk runs its inputs in lockstep (see LockstepExecution) when the program has no nested
+     * calls. Worth it for small Architecture I/II programs whose loops do not summarize; otherwise runs are scalar.
+     */
+    public static BatchExecution startLockstep(CompiledProgram compiled, List<List<Integer>> inputs, CreditPool credits, int overheadPerRun) {
+        return new BatchExecution(compiled, inputs, credits, overheadPerRun, LockstepExecution.supports(compiled));
+    }
+
+    /**
+     * Every input vector with from.get(i) <= x(i+1) <= to.get(i), the last position varying fastest.
+     * Vectors are computed on access, so the list takes no memory per element.
+     */
+    public static List<List<Integer>> inputGrid(List<Integer> from, List<Integer> to) {
+        if (from.size() != to.size()) {
+            throw new IllegalArgumentException("Range bounds must have the same length");
+        }
+        int width = from.size();
+        long total = 1;
+        for (int i = 0; i < width; i++) {
+            if (from.get(i) < 0 || to.get(i) < from.get(i)) {
+                throw new IllegalArgumentException("Invalid range for x" + (i + 1) + ": " + from.get(i) + ".." + to.get(i));
+            }
+            total *= (long) to.get(i) - from.get(i) + 1;
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Input range is too large");
+            }
+        }
+        int size = (int) total;
+        return new AbstractList<>() {
+            @Override
+            public List<Integer> get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException(index);
+                }
+                Integer[] vector = new Integer[width];
+                for (int i = width - 1; i >= 0; i--) {
+                    int span = to.get(i) - from.get(i) + 1;
+                    vector[i] = from.get(i) + index % span;
+                    index /= span;
+                }
+                return List.of(vector);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public boolean hasNext() {
+        return delivered < inputs.size() && !cancelled.get();
+    }
+
+    @Override
+    public ProgramResult next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (current == null || currentPos == current.length) {
+            current = inFlight.removeFirst().join();
+            currentPos = 0;
+            fill();
+        }
+        delivered++;
+        return current[currentPos++].result();
+    }
+
+    // Index in inputs of the result returned by the last call to next
+    public int lastIndex() {
+        return delivered - 1;
+    }
+
+    // Whether the run returned by the last call to next was started (false: the credits could not cover its overhead)
+    public boolean lastStarted() {
+        return current[currentPos - 1].started();
+    }
+
+    // Credits the runs so far took from the pool, overheads included; final once the batch is closed
+    public long spent() {
+        return spent.get();
+    }
+
+    @Override
+    public void close() {
+        // Chunks check the flag before every run, so the ones not started yet finish at once
+        cancelled.set(true);
+        for (ForkJoinTask<Run[]> task : inFlight) {
+            task.quietlyJoin();
+        }
+        inFlight.clear();
+    }
+
+    private void fill() {
+        int chunks = (inputs.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        while (inFlight.size() < window && nextChunk < chunks) {
+            int from = nextChunk * CHUNK_SIZE;
+            int to = Math.min(from + CHUNK_SIZE, inputs.size());
+            inFlight.addLast(POOL.submit(() -> runChunk(from, to)));
+            nextChunk++;
+        }
+    }
+
+    private Run[] runChunk(int from, int to) {
+        Run[] out = new Run[to - from];
+        if (lockstep) {
+            runLockstep(from, to, out);
+            return out;
+        }
+        for (int i = from; i < to && !cancelled.get(); i++) {
+            out[i - from] = runOne(inputs.get(i));
+        }
+        return out;
+    }
+
+    private Run runOne(List<Integer> input) {
+        if (!chargeOverhead()) {
+            return notStarted(input);
+        }
+        return runReserved(input, firstReservation);
+    }
+
+    private boolean chargeOverhead() {
+        if (!credits.tryCharge(overheadPerRun)) {
+            return false;
+        }
+        spent.addAndGet(overheadPerRun);
+        return true;
+    }
+
+    // Runs input within a budget reserved from the pool, until it finishes or stops for want of credits as a sequential run would
+    private Run runReserved(List<Integer> input, long want) {
+        while (true) {
+            long budget = reserve(want);
+            ProgramResult res = compiled.executeWithBudget(input, budget);
+            if (!mustRerun(res, budget, want)) {
+                return settle(res, budget);
+            }
+            release(budget);
+            if (budget == want) {
+                want = grow(want);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    private long reserve(long want) {
+        holding.incrementAndGet();
+        return credits.reserve(want);
+    }
+
+    /*
+        Whether res, stopped for want of credits, has to run again: it outgrew a reservation of want, which can grow,
+        or its reservation was cut to what the pool had left while other runs of the batch held credits they may put
+        back, or credits have been put back since.
+     */
+    private boolean mustRerun(ProgramResult res, long budget, long want) {
+        if (res.getHaltReason() != ProgramResult.HaltReason.INSUFFICIENT_CREDITS) {
+            return false;
+        }
+        if (budget == want) {
+            return want != Long.MAX_VALUE;
+        }
+        return holding.get() > 1 || credits.available() > 0;
+    }
+
+    private static long grow(long want) {
+        return want > Long.MAX_VALUE / 4 ? Long.MAX_VALUE : Math.max(1, want * 4);
+    }
+
+    // Keeps the cycles res used out of its reservation of budget and puts the rest back
+    private Run settle(ProgramResult res, long budget) {
+        spent.addAndGet(res.getCycles());
+        release(budget - res.getCycles());
+        return new Run(res, true);
+    }
+
+    private void release(long unused) {
+        credits.add(unused);
+        holding.decrementAndGet();
+    }
+
+    // Runs the chunk's started inputs as lanes of one LockstepExecution, each within its own reservation
+    private void runLockstep(int from, int to, Run[] out) {
+        if (cancelled.get()) {
+            return;
+        }
+        List<List<Integer>> started = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            if (chargeOverhead()) {
+                started.add(inputs.get(i));
+            } else {
+                out[i - from] = notStarted(inputs.get(i));
+            }
+        }
+        long[] budgets = new long[started.size()];
+        for (int lane = 0; lane < budgets.length; lane++) {
+            budgets[lane] = reserve(firstReservation);
+        }
+        ProgramResult[] results = LockstepExecution.run(compiled, started, budgets);
+        // Lanes stopped for want of credits put their reservations back first, then carry on alone as scalar runs
+        int lane = 0;
+        for (int i = from; i < to; i++) {
+            if (out[i - from] == null) {
+                ProgramResult res = results[lane];
+                long budget = budgets[lane++];
+                if (res.getHaltReason() == ProgramResult.HaltReason.INSUFFICIENT_CREDITS) {
+                    release(budget);
+                } else {
+                    out[i - from] = settle(res, budget);
+                }
+            }
+        }
+        lane = 0;
+        for (int i = from; i < to; i++) {
+            if (out[i - from] == null) {
+                long budget = budgets[lane++];
+                out[i - from] = runReserved(inputs.get(i), budget == firstReservation ? grow(firstReservation) : firstReservation);
+            } else if (out[i - from].started()) {
+                lane++;
+            }
+        }
+    }
+
+    private Run notStarted(List<Integer> input) {
+        int[] vars = new int[compiled.slotCount()];
+        compiled.loadInput(input, vars);
+        return new Run(new ProgramResult(0, compiled.variableToValue(vars, input), 0, false, ProgramResult.HaltReason.INSUFFICIENT_CREDITS), false);
+    }
+}
@@ -0,0 +1,12 @@
+package com.program;
+
+/*
+    Thrown by FunctionCallCache when a nested call needs more cycles than the calling run has left.
+    Raised before the calling instruction changes any state, so the run loops catch it and halt on that
+    instruction with INSUFFICIENT_CREDITS. Carries no stack trace: it is control flow, not an error.
+ */
+final class BudgetExceededException extends RuntimeException {
+    BudgetExceededException() {
+        super("Nested call exceeded the remaining budget", null, false, false);
+    }
+}
@@ -0,0 +1,406 @@
+package com.program;
+
+import com.dto.api.ProgramResult;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/*
+    Explicit call stack for the compiled engine.
+    QUOTE / JUMP_EQUAL_FUNCTION and nested function arguments do not recurse into executeWithBudget: the calling
+    frame evaluates its call site's postfix plan, and every callee that is not answered by FunctionCallCache gets a
+    frame of its own on a heap-allocated stack. Call depth is therefore bounded by memory, not by the Java thread
+    stack, and one loop sees every frame of the call tree, so budget checks apply uniformly across it.
+    A callee that runs out of its budget (the caller's remaining cycles) halts every frame below it on its calling
+    instruction, unchanged, exactly as the recursive engine did.
+    Frames, their variable arrays and JitSupport are kept per thread and reused by later calls, so a nested call
+    that misses the cache costs an array fill plus the argument copy. Callees that have been tiered up to JitCode
+    run directly; their own nested calls re-enter the stack above the current frames.
+    A checkpointed execution (see CheckpointedExecution) runs its frames here in slices: each frame may also pause
+    once it passes its pauseAt cycle count, which leaves the whole stack resumable, and the frames are detached
+    from the pool in between. Tiered code runs such frames too, framed: it stops where the interpreter would pause
+    and leaves its calls to the frame, so a callee can pause part way as well.
+    A run started with a CancellationToken polls it every CHECK_INTERVAL steps of each frame (see CompiledProgram.run),
+    or loop iterations of bytecode, and halts with every frame as it stands.
+ */
+final class CallStack {
+    static final int RUNNING = 0;
+    static final int FINISHED = 1;
+    static final int EXCEEDED = 2;
+    static final int PAUSED = 3;
+    static final int CANCELLED = 4;
+    // Steps a frame takes between polls of the run's CancellationToken
+    static final int CHECK_INTERVAL = 4096;
+
+    private static final ThreadLocal<CallStack> STACKS = ThreadLocal.withInitial(CallStack::new);
+
+    /*
+        One activation: a compiled program with its variables, position and budget, plus the call site it is
+        evaluating (if any). A frame without code only evaluates a call site for JitCode (see call).
+     */
+    static final class Frame {
+        CompiledProgram code;
+        int[] vars;
+        int pc;
+        long cycles;
+        long maxCycles;
+        // Soft limit for checkpointed slices: the frame pauses before a step that would pass it (never in plain runs)
+        long pauseAt = Long.MAX_VALUE;
+        // The run's token (null when it cannot be cancelled) and the steps left until it is polled
+        CancellationToken token;
+        int untilCheck;
+        // Bytecode this frame's code runs as (null: the interpreter), see tier
+        JitCode jit;
+        LoopSummarizer loops;
+        // Call site in progress: position in its plan, operand stack, and the budget every call in it gets
+        CompiledProgram.CallSite site;
+        int planPos;
+        int[] operands = new int[8];
+        int sp;
+        long budget;
+        // Nested call waiting for the frame above, and the cycles of the last completed call
+        Program pendingCallee;
+        List<Integer> pendingArgs;
+        long lastCallCycles;
+        int result;
+        // Variable storage and JitCode services owned by this frame, reused by whatever runs in it next
+        private int[] storage = new int[0];
+        private JitSupport support;
+
+        void beginCall(CompiledProgram.CallSite site, long budget) {
+            this.site = site;
+            this.planPos = 0;
+            this.sp = 0;
+            this.budget = budget;
+        }
+
+        void pushOperand(int value) {
+            if (sp == operands.length) {
+                operands = Arrays.copyOf(operands, sp * 2);
+            }
+            operands[sp++] = value;
+        }
+
+        private JitSupport support(CompiledProgram code) {
+            if (support == null || support.program() != code) {
+                support = new JitSupport(code);
+            } else {
+                support.reset();
+            }
+            support.setToken(token);
+            return support;
+        }
+
+        // Runs this frame's own code as jit (if not null) from its current instruction on, framed
+        void tier(JitCode jit) {
+            this.jit = jit;
+            if (jit != null) {
+                support(code).setFramed(true);
+            }
+        }
+
+        JitSupport framedSupport() {
+            return support;
+        }
+
+        // A copy of this frame's state that no longer shares anything with the pool
+        Frame detach() {
+            Frame copy = new Frame();
+            copy.code = code;
+            copy.vars = Arrays.copyOf(vars, code.slotCount());
+            copy.pc = pc;
+            copy.cycles = cycles;
+            copy.maxCycles = maxCycles;
+            copy.loops = loops;
+            copy.site = site;
+            copy.planPos = planPos;
+            copy.operands = Arrays.copyOf(operands, Math.max(sp, 1));
+            copy.sp = sp;
+            copy.budget = budget;
+            copy.pendingCallee = pendingCallee;
+            copy.pendingArgs = pendingArgs;
+            copy.lastCallCycles = lastCallCycles;
+            return copy;
+        }
+
+        private void restore(Frame saved) {
+            vars = storage(saved.code.slotCount());
+            System.arraycopy(saved.vars, 0, vars, 0, saved.vars.length);
+            pc = saved.pc;
+            cycles = saved.cycles;
+            loops = saved.loops;
+            site = saved.site;
+            planPos = saved.planPos;
+            sp = 0;
+            for (int i = 0; i < saved.sp; i++) {
+                pushOperand(saved.operands[i]);
+            }
+            budget = saved.budget;
+            pendingCallee = saved.pendingCallee;
+            pendingArgs = saved.pendingArgs;
+            lastCallCycles = saved.lastCallCycles;
+        }
+
+        private int[] storage(int slots) {
+            if (storage.length < slots) {
+                storage = new int[Math.max(slots, storage.length * 2)];
+            } else {
+                Arrays.fill(storage, 0, slots, 0);
+            }
+            return storage;
+        }
+    }
+
+    private Frame[] frames = new Frame[16];
+    private int depth = -1;
+    // Token of the run on this thread, handed to every frame it pushes
+    private CancellationToken token;
+
+    private CallStack() {}
+
+    /*
+        Runs a top-level program whose input is already loaded into vars, as jit when not null. With a token the
+        run (nested calls included) stops once it says so, halting with CANCELLED on the program's current instruction.
+     */
+    static ProgramResult run(CompiledProgram code, JitCode jit, int[] vars, List<Integer> input, long maxCycles, CancellationToken token) {
+        CallStack stack = STACKS.get();
+        int base = stack.depth + 1;
+        CancellationToken outer = stack.token;
+        try {
+            stack.token = token;
+            Frame f = stack.push(code, vars, maxCycles);
+            f.tier(jit);
+            int status = stack.start(base);
+            return new ProgramResult(f.cycles, code.variableToValue(vars, input), f.pc, false, haltReason(status));
+        } finally {
+            stack.depth = base - 1;
+            stack.token = outer;
+        }
+    }
+
+    static ProgramResult.HaltReason haltReason(int status) {
+        return switch (status) {
+            case EXCEEDED -> ProgramResult.HaltReason.INSUFFICIENT_CREDITS;
+            case CANCELLED -> ProgramResult.HaltReason.CANCELLED;
+            default -> ProgramResult.HaltReason.FINISHED;
+        };
+    }
+
+    /*
+        Runs a nested call of code on args with at most budget cycles, in pooled frame storage (used by
+        FunctionCallCache). Returns null when the call cannot finish within budget.
+     */
+    static FunctionCallCache.Result invoke(CompiledProgram code, List<Integer> args, long budget) {
+        CallStack stack = STACKS.get();
+        int base = stack.depth + 1;
+        try {
+            JitCode jit = budget <= Integer.MAX_VALUE ? code.tierUp() : null;
+            Frame f = stack.pushCall(code, args, budget);
+            if (jit != null) {
+                return code.runJit(jit, f.vars, budget, f.support(code));
+            }
+            int status = stack.run(base);
+            if (status == CANCELLED) {
+                throw new CancellationException("Execution cancelled");
+            }
+            return status == EXCEEDED ? null : new FunctionCallCache.Result(f.vars[0], f.cycles);
+        } finally {
+            stack.depth = base - 1;
+        }
+    }
+
+    /*
+        Evaluates one call site against vars with at most budget cycles for each call in it (used by JitCode).
+        Throws BudgetExceededException when a call cannot finish within budget, and CancellationException once the
+        run's token fires.
+     */
+    static FunctionCallCache.Result call(CompiledProgram.CallSite site, int[] vars, int budget) {
+        CallStack stack = STACKS.get();
+        int base = stack.depth + 1;
+        try {
+            Frame f = stack.push(null, vars, budget);
+            f.beginCall(site, budget);
+            int status = stack.run(base);
+            if (status == EXCEEDED) {
+                throw new BudgetExceededException();
+            }
+            if (status == CANCELLED) {
+                throw new CancellationException("Execution cancelled");
+            }
+            return new FunctionCallCache.Result(f.result, f.lastCallCycles);
+        } finally {
+            stack.depth = base - 1;
+        }
+    }
+
+    /*
+        Continues the detached frames of a checkpointed execution (bottom frame first) for about slice more cycles
+        per frame, and replaces them with their new state. Returns PAUSED, or the bottom frame's final status.
+        Every slice counts as a run of each frame's code towards tiering it up.
+     */
+    static int resume(List<Frame> saved, long slice, CancellationToken token) {
+        CallStack stack = STACKS.get();
+        int base = stack.depth + 1;
+        CancellationToken outer = stack.token;
+        try {
+            stack.token = token;
+            for (Frame s : saved) {
+                Frame f = stack.push(s.code, null, s.maxCycles);
+                f.restore(s);
+                // Saturates below Long.MAX_VALUE, which marks a frame that never pauses
+                f.pauseAt = s.cycles > Long.MAX_VALUE - 1 - slice ? Long.MAX_VALUE - 1 : s.cycles + slice;
+                f.tier(s.maxCycles <= Integer.MAX_VALUE ? s.code.tierUp() : null);
+            }
+            int status = stack.start(base);
+            saved.clear();
+            for (int i = base; i <= stack.depth; i++) {
+                saved.add(stack.frames[i].detach());
+            }
+            return status;
+        } finally {
+            stack.depth = base - 1;
+            stack.token = outer;
+        }
+    }
+
+    private Frame push(CompiledProgram code, int[] vars, long maxCycles) {
+        depth++;
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        Frame f = frames[depth];
+        if (f == null) {
+            f = new Frame();
+            frames[depth] = f;
+        }
+        f.code = code;
+        f.vars = vars;
+        f.pc = 0;
+        f.cycles = 0;
+        f.maxCycles = maxCycles;
+        f.pauseAt = Long.MAX_VALUE;
+        f.token = token;
+        f.untilCheck = CHECK_INTERVAL;
+        f.jit = null;
+        f.loops = null;
+        f.site = null;
+        return f;
+    }
+
+    // Pushes a frame for code with args copied into the frame's pooled storage
+    private Frame pushCall(CompiledProgram code, List<Integer> args, long budget) {
+        Frame f = push(code, null, budget);
+        f.vars = f.storage(code.slotCount());
+        code.loadInput(args, f.vars);
+        return f;
+    }
+
+    // As run, but a token that has already fired stops the frames before their first step
+    private int start(int base) {
+        return token != null && token.shouldStop() ? CANCELLED : run(base);
+    }
+
+    // Runs until the frame at base finishes, runs out of budget, pauses or is cancelled, and returns which
+    private int run(int base) {
+        int status = RUNNING;
+        while (true) {
+            Frame f = frames[depth];
+            if (status == RUNNING) {
+                status = f.site != null ? evaluate(f) : f.code.run(f);
+                continue;
+            }
+            if (status == PAUSED || status == CANCELLED) {
+                // Every frame stays as it is, waiting on the one above
+                return status;
+            }
+            if (depth == base) {
+                return status;
+            }
+            // Hand the finished callee back to its caller
+            depth--;
+            Frame caller = frames[depth];
+            if (status == EXCEEDED) {
+                // The caller halts on its calling instruction, which has not changed anything yet
+                caller.site = null;
+                continue;
+            }
+            FunctionCallCache.Result r = new FunctionCallCache.Result(f.vars[0], f.cycles);
+            FunctionCallCache.store(caller.pendingCallee, caller.pendingArgs, r);
+            caller.pendingCallee = null;
+            caller.pendingArgs = null;
+            caller.pushOperand(r.result());
+            caller.lastCallCycles = r.cycles();
+            status = RUNNING;
+        }
+    }
+
+    /*
+        Continues f's call site plan. Returns RUNNING after pushing a callee frame or completing the instruction,
+        or the frame's final status.
+     */
+    private int evaluate(Frame f) {
+        CompiledProgram.CallSite site = f.site;
+        int[] plan = site.plan();
+        while (f.planPos < plan.length) {
+            int op = plan[f.planPos];
+            if (op >= 0) {
+                f.pushOperand(f.vars[op]);
+                f.planPos++;
+                continue;
+            }
+            Program callee = site.functions()[-op - 1].program();
+            int arity = plan[f.planPos + 1];
+            f.planPos += 2;
+            f.sp -= arity;
+            Integer[] values = new Integer[arity];
+            for (int i = 0; i < arity; i++) {
+                values[i] = f.operands[f.sp + i];
+            }
+            List<Integer> args = Arrays.asList(values);
+            FunctionCallCache.Result r = FunctionCallCache.lookup(callee, args);
+            if (r == null) {
+                CompiledProgram code = site.codeFor(-op - 1, callee, args);
+                boolean sliced = f.pauseAt != Long.MAX_VALUE;
+                JitCode jit = f.budget <= Integer.MAX_VALUE ? code.tierUp() : null;
+                Frame next = pushCall(code, args, f.budget);
+                if (sliced) {
+                    // The callee gets what is left of the caller's slice, and runs in its frame so it can pause
+                    next.pauseAt = Math.max(f.pauseAt - f.cycles, 0);
+                    next.tier(jit);
+                }
+                if (jit == null || sliced) {
+                    f.pendingCallee = callee;
+                    f.pendingArgs = args;
+                    return RUNNING;
+                }
+                // Bytecode runs the whole callee here; its own calls use the frames above next
+                try {
+                    r = code.runJit(jit, next.vars, f.budget, next.support(code));
+                } catch (CancellationException e) {
+                    // The caller stays on its call, as when the callee's frame is cancelled
+                    depth--;
+                    return CANCELLED;
+                }
+                depth--;
+                if (r == null) {
+                    f.site = null;
+                    return EXCEEDED;
+                }
+                FunctionCallCache.store(callee, args, r);
+            } else if (r.cycles() > f.budget) {
+                f.site = null;
+                return EXCEEDED;
+            }
+            f.pushOperand(r.result());
+            f.lastCallCycles = r.cycles();
+        }
+        f.site = null;
+        int result = f.operands[--f.sp];
+        if (f.code == null) {
+            f.result = result;
+            return FINISHED;
+        }
+        return f.code.resume(f, result, f.lastCallCycles);
+    }
+}
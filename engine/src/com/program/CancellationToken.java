@@ -0,0 +1,56 @@
+package com.program;
+
+import java.time.Duration;
+
+/**
+ * Stops a run from outside: once cancel is called, or once its wall-clock deadline has passed.
+ * The engine polls it every few thousand steps and at every slice of a scheduled or checkpointed run, so a run
+ * stops within microseconds and halts with CANCELLED, keeping the state it had reached.
+ */
+public final class CancellationToken {
+    private final boolean hasDeadline;
+    private final long deadline; // System.nanoTime() value
+    private volatile boolean cancelled;
+    // Polls left before the token fires by itself (-1: no limit); only the run's own thread polls it
+    private int pollsLeft = -1;
+
+    public CancellationToken() {
+        this.hasDeadline = false;
+        this.deadline = 0;
+    }
+
+    private CancellationToken(long deadline) {
+        this.hasDeadline = true;
+        this.deadline = deadline;
+    }
+
+    // A token that stops its run once timeout has passed from now (or earlier, through cancel)
+    public static CancellationToken withTimeout(Duration timeout) {
+        return new CancellationToken(System.nanoTime() + timeout.toNanos());
+    }
+
+    /*
+        A token that fires on its polls-th poll, which bounds the work of a run to about polls * CallStack.CHECK_INTERVAL
+        steps, or loop iterations of bytecode (the first poll comes before the first step). Used by CostAnalyzer.
+     */
+    static CancellationToken afterPolls(int polls) {
+        CancellationToken token = new CancellationToken();
+        token.pollsLeft = polls;
+        return token;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean shouldStop() {
+        if (pollsLeft >= 0 && --pollsLeft <= 0) {
+            cancelled = true;
+        }
+        return cancelled || (hasDeadline && System.nanoTime() - deadline >= 0);
+    }
+}
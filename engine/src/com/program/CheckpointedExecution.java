@@ -0,0 +1,259 @@
+package com.program;
+
+import com.dto.api.ProgramResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A long execution of a program that can be stopped and continued later, also in another process.
+ * It runs in slices (see CallStack.resume); between slices its whole state (variables, positions, cycles and the
+ * nested call frames in progress) can be written to a compact binary file with save and read back with load.
+ * Slicing never changes the outcome: the result is the one executeWithBudget gives for the same budget.
+ * A loaded execution is matched against the programs registered now; a program whose compiled code changed
+ * since the save is rejected.
+ */
+public final class CheckpointedExecution {
+    private static final int MAGIC = 0x53454350;
+    private static final int VERSION = 1;
+    // Smallest slice handed to the frames (each frame takes at least one step per slice whatever its size)
+    private static final long MIN_SLICE = 16;
+
+    private final String programName;
+    private final int expansionLevel;
+    private final String architecture;
+    private final List<Integer> input;
+    // Bottom frame (the program itself) first
+    private final List<CallStack.Frame> frames;
+    private int status;
+
+    private CheckpointedExecution(String programName, int expansionLevel, String architecture, List<Integer> input,
+                                  List<CallStack.Frame> frames, int status) {
+        this.programName = programName;
+        this.expansionLevel = expansionLevel;
+        this.architecture = architecture;
+        this.input = input;
+        this.frames = frames;
+        this.status = status;
+    }
+
+    /**
+     * A new execution of program at expansionLevel on input with at most maxCycles cycles. Nothing runs until run.
+     */
+    public static CheckpointedExecution start(Program program, int expansionLevel, String architecture, List<Integer> input, long maxCycles) {
+        return start(program.getName(), program.getCompiled(expansionLevel), expansionLevel, architecture, input, maxCycles);
+    }
+
+    // As start, running code (the program's compiled form at expansionLevel, or its optimized form)
+    static CheckpointedExecution start(String programName, CompiledProgram code, int expansionLevel, String architecture, List<Integer> input, long maxCycles) {
+        CallStack.Frame f = new CallStack.Frame();
+        f.code = code;
+        f.vars = new int[code.slotCount()];
+        code.loadInput(input, f.vars);
+        f.maxCycles = maxCycles;
+        List<CallStack.Frame> frames = new ArrayList<>();
+        frames.add(f);
+        return new CheckpointedExecution(programName, expansionLevel, architecture, List.copyOf(input), frames, CallStack.RUNNING);
+    }
+
+    /**
+     * Runs for about slice more cycles per frame, or until the execution finishes or runs out of budget.
+     */
+    public void run(long slice) {
+        run(slice, null);
+    }
+
+    /**
+     * As run, also ending the execution with CANCELLED (in the state it has reached) once token fires.
+     */
+    public void run(long slice, CancellationToken token) {
+        if (isDone()) {
+            return;
+        }
+        status = CallStack.resume(frames, Math.max(slice, MIN_SLICE), token);
+    }
+
+    public boolean isDone() {
+        return status == CallStack.FINISHED || status == CallStack.EXCEEDED || status == CallStack.CANCELLED;
+    }
+
+    // Cycles charged to the program so far (nested calls in progress count once they return)
+    public long getCycles() {
+        return frames.get(0).cycles;
+    }
+
+    // Changes the program's budget, e.g. to what the user can pay for when the execution is resumed
+    public void setMaxCycles(long maxCycles) {
+        frames.get(0).maxCycles = maxCycles;
+    }
+
+    public ProgramResult getResult() {
+        if (!isDone()) {
+            throw new IllegalStateException("Execution has not finished");
+        }
+        CallStack.Frame f = frames.get(0);
+        return new ProgramResult(f.cycles, f.code.variableToValue(f.vars, input), f.pc, false, CallStack.haltReason(status));
+    }
+
+    public String getProgramName() {
+        return programName;
+    }
+
+    public int getExpansionLevel() {
+        return expansionLevel;
+    }
+
+    public String getArchitecture() {
+        return architecture;
+    }
+
+    public List<Integer> getInput() {
+        return input;
+    }
+
+    /**
+     * Writes the execution to file. The file is replaced in one step, so a crash while saving leaves the
+     * previous checkpoint in place.
+     */
+    public void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(programName);
+            out.writeInt(expansionLevel);
+            out.writeUTF(architecture == null ? "" : architecture);
+            writeInts(out, input.stream().mapToInt(Integer::intValue).toArray(), input.size());
+            out.writeByte(status);
+            out.writeInt(frames.size());
+            for (CallStack.Frame f : frames) {
+                out.writeInt(fingerprint(f.code));
+                out.writeInt(f.pc);
+                out.writeLong(f.cycles);
+                out.writeLong(f.maxCycles);
+                writeInts(out, f.vars, f.code.slotCount());
+                out.writeBoolean(f.site != null);
+                if (f.site != null) {
+                    out.writeInt(f.planPos);
+                    out.writeLong(f.budget);
+                    out.writeLong(f.lastCallCycles);
+                    writeInts(out, f.operands, f.sp);
+                    out.writeBoolean(f.pendingArgs != null);
+                    if (f.pendingArgs != null) {
+                        writeInts(out, f.pendingArgs.stream().mapToInt(Integer::intValue).toArray(), f.pendingArgs.size());
+                    }
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads an execution written by save. Its program and every function with a call in progress must be
+     * registered with the same definitions as when it was saved.
+     */
+    public static CheckpointedExecution load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a checkpoint file: " + file);
+            }
+            String programName = in.readUTF();
+            int expansionLevel = in.readInt();
+            String architecture = in.readUTF();
+            List<Integer> input = boxed(readInts(in));
+            int status = in.readByte();
+            int count = in.readInt();
+            Program program = FunctionRegistry.getProgramByName(programName);
+            if (program == null) {
+                throw new IllegalArgumentException("Program not found: " + programName);
+            }
+            List<CallStack.Frame> frames = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                CompiledProgram code;
+                int saved = in.readInt();
+                if (i > 0) {
+                    // The frame below is waiting on this call: its plan names the callee
+                    CallStack.Frame caller = frames.get(i - 1);
+                    if (caller.site == null || caller.planPos < 2 || caller.pendingArgs == null) {
+                        throw new IOException("Corrupt checkpoint file: " + file);
+                    }
+                    int function = -caller.site.plan()[caller.planPos - 2] - 1;
+                    program = caller.site.functions()[function].program();
+                    caller.pendingCallee = program;
+                    // The call ran the variant for its constant arguments, unless there were too many variants
+                    code = caller.site.codeFor(function, program, caller.pendingArgs);
+                    if (saved != fingerprint(code)) {
+                        code = program.getCompiled();
+                    }
+                } else {
+                    code = program.getCompiled(expansionLevel);
+                }
+                if (saved != fingerprint(code)) {
+                    throw new IllegalStateException("Program " + program.getName() + " changed since the checkpoint was saved");
+                }
+                CallStack.Frame f = new CallStack.Frame();
+                f.code = code;
+                f.pc = in.readInt();
+                f.cycles = in.readLong();
+                f.maxCycles = in.readLong();
+                f.vars = readInts(in);
+                if (f.vars.length != code.slotCount()) {
+                    throw new IOException("Corrupt checkpoint file: " + file);
+                }
+                if (in.readBoolean()) {
+                    f.site = code.callSites[code.callIndex[f.pc]];
+                    f.planPos = in.readInt();
+                    f.budget = in.readLong();
+                    f.lastCallCycles = in.readLong();
+                    int[] operands = readInts(in);
+                    f.operands = Arrays.copyOf(operands, Math.max(operands.length, 1));
+                    f.sp = operands.length;
+                    if (in.readBoolean()) {
+                        f.pendingArgs = boxed(readInts(in));
+                    }
+                }
+                frames.add(f);
+            }
+            return new CheckpointedExecution(programName, expansionLevel, architecture.isEmpty() ? null : architecture, input, frames, status);
+        }
+    }
+
+    // Identifies the compiled code a frame ran, so a checkpoint is never resumed on a different definition
+    private static int fingerprint(CompiledProgram code) {
+        return Objects.hash(Arrays.hashCode(code.opcodes), Arrays.hashCode(code.operandA), Arrays.hashCode(code.operandB),
+                Arrays.hashCode(code.targets), code.slotCount());
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt checkpoint file");
+        }
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static List<Integer> boxed(int[] values) {
+        return Arrays.stream(values).boxed().toList();
+    }
+}
@@ -0,0 +1,474 @@
+package com.program;
+
+import com.commands.Names;
+import com.dto.api.ProgramResult;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Slot-indexed execution form of a Program, built once by ProgramCompiler.
+ * Variables live in an int[] indexed by slot and jumps carry pre-resolved instruction indices,
+ * so the hot loop does no string hashing. Semantics (values, cycles, halt index, budget rollback)
+ * match the command-by-command interpreter exactly.
+ */
+public final class CompiledProgram {
+    // ---- Opcodes ----
+    public static final int OP_NEUTRAL = 0;
+    public static final int OP_INCREASE = 1;
+    public static final int OP_DECREASE = 2;
+    public static final int OP_JUMP_NOT_ZERO = 3;
+    public static final int OP_ZERO_VARIABLE = 4;
+    public static final int OP_GOTO_LABEL = 5;
+    public static final int OP_ASSIGNMENT = 6;
+    public static final int OP_CONSTANT_ASSIGNMENT = 7;
+    public static final int OP_JUMP_ZERO = 8;
+    public static final int OP_JUMP_EQUAL_CONSTANT = 9;
+    public static final int OP_JUMP_EQUAL_VARIABLE = 10;
+    public static final int OP_QUOTE = 11;
+    public static final int OP_JUMP_EQUAL_FUNCTION = 12;
+
+    // ---- Jump target sentinels ----
+    public static final int NO_TARGET = -1;
+    public static final int EXIT = -2;
+    static final int UNRESOLVED = -3;
+
+    /*
+        Callee and arguments of a QUOTE / JUMP_EQUAL_FUNCTION instruction in postfix order, as CallStack evaluates them.
+        plan[i] >= 0 pushes vars[plan[i]]; plan[i] < 0 calls functions[-plan[i] - 1] on the top plan[i + 1] values.
+        The last call in the plan is the callee itself.
+        constantArgs[k] marks the arguments of the call to functions[k] that are the same in every run (nested calls
+        of constant-only arguments, e.g. CONST7), or is null when it has none.
+     */
+    record CallSite(FunctionHandle callee, int[] plan, FunctionHandle[] functions, boolean[][] constantArgs) {
+
+        // Code to run for the call to functions[function] with args: callee's code specialized for the constant arguments
+        CompiledProgram codeFor(int function, Program callee, List<Integer> args) {
+            CompiledProgram code = callee.getCompiled();
+            boolean[] constant = constantArgs[function];
+            if (constant == null) {
+                return code;
+            }
+            Integer[] known = new Integer[args.size()];
+            for (int i = 0; i < known.length; i++) {
+                known[i] = constant[i] ? args.get(i) : null;
+            }
+            return code.specialized(Arrays.asList(known));
+        }
+    }
+
+    final int[] opcodes;
+    final int[] operandA;
+    final int[] operandB;
+    final int[] targets;
+    final int[] cycles;
+    final int[] callIndex;
+    final CallSite[] callSites;
+    final String[] slotNames;
+    final int[] inputSlots;
+    // Fused straight-line blocks, indexed by the block's first instruction (null/unused elsewhere).
+    // blockEffects holds (slot, add, floor) triples: the block sets vars[slot] = max(vars[slot] + add, floor).
+    final int[][] blockEffects;
+    final int[] blockEnd;
+    final int[] blockCycles;
+    // Targets of backward jumps, where LoopSummarizer may advance a loop by many iterations at once
+    final boolean[] loopHeaders;
+    private final String maxArchitecture;
+
+    // Runs after which the program is handed to JitCompiler (<= 0 disables tiering)
+    static volatile int jitThreshold = 1000;
+    private final AtomicInteger runs = new AtomicInteger();
+    private volatile boolean jitAttempted = false;
+    private volatile JitCode jit = null;
+    private volatile CompiledProgram optimized = null;
+    private volatile CostAnalyzer.Bounds costBounds = null;
+    // Variants for nested calls with known arguments (see ProgramOptimizer.specialize), keyed by the arguments with
+    // null for the unknown ones; bounded, as each call site adds at most one key
+    private static final int MAX_SPECIALIZATIONS = 64;
+    private final Map<List<Integer>, CompiledProgram> specializations = new ConcurrentHashMap<>();
+
+    CompiledProgram(int[] opcodes, int[] operandA, int[] operandB, int[] targets, int[] cycles, int[] callIndex,
+                    CallSite[] callSites, String[] slotNames, int[] inputSlots,
+                    int[][] blockEffects, int[] blockEnd, int[] blockCycles, boolean[] loopHeaders,
+                    String maxArchitecture) {
+        this.opcodes = opcodes;
+        this.operandA = operandA;
+        this.operandB = operandB;
+        this.targets = targets;
+        this.cycles = cycles;
+        this.callIndex = callIndex;
+        this.callSites = callSites;
+        this.slotNames = slotNames;
+        this.inputSlots = inputSlots;
+        this.blockEffects = blockEffects;
+        this.blockEnd = blockEnd;
+        this.blockCycles = blockCycles;
+        this.loopHeaders = loopHeaders;
+        this.maxArchitecture = maxArchitecture;
+    }
+
+    public int size() {
+        return opcodes.length;
+    }
+
+    public int slotCount() {
+        return slotNames.length;
+    }
+
+    // Highest architecture among the commands this was compiled from ("unknown" when empty), as Program.getMaxArchitecture
+    public String getMaxArchitecture() {
+        return maxArchitecture;
+    }
+
+    ProgramResult executeWithBudget(List<Integer> input, long maxCycles) {
+        return executeWithBudget(input, maxCycles, null);
+    }
+
+    // With a token, the run goes through CallStack so it can be stopped, its frames still running tiered code
+    ProgramResult executeWithBudget(List<Integer> input, long maxCycles, CancellationToken token) {
+        int[] vars = new int[slotNames.length];
+        loadInput(input, vars);
+        // Bytecode counts cycles in an int, so budgets beyond that stay on the interpreter
+        JitCode code = maxCycles <= Integer.MAX_VALUE ? tierUp() : null;
+        if (code != null && token == null) {
+            JitSupport support = new JitSupport(this);
+            long state;
+            try {
+                state = code.run(vars, 0, 0, (int) maxCycles, (int) maxCycles, support);
+            } catch (BudgetExceededException e) {
+                // vars were written back before the call
+                return outOfBudget(support.callCycles(), vars, input, support.callPc());
+            }
+            ProgramResult.HaltReason reason = JitSupport.haltExceeded(state)
+                    ? ProgramResult.HaltReason.INSUFFICIENT_CREDITS : ProgramResult.HaltReason.FINISHED;
+            return new ProgramResult(JitSupport.haltCycles(state), variableToValue(vars, input), JitSupport.haltPc(state), false, reason);
+        }
+        return CallStack.run(this, code, vars, input, maxCycles, token);
+    }
+
+    // Result-only form of this program (see ProgramOptimizer), built on first use
+    CompiledProgram optimized() {
+        CompiledProgram code = optimized;
+        if (code == null) {
+            synchronized (this) {
+                if (optimized == null) {
+                    optimized = ProgramOptimizer.optimize(this);
+                }
+                code = optimized;
+            }
+        }
+        return code;
+    }
+
+    // Input-independent cycle bounds (see CostAnalyzer), worked out on first use
+    CostAnalyzer.Bounds costBounds() {
+        CostAnalyzer.Bounds bounds = costBounds;
+        if (bounds == null) {
+            bounds = CostAnalyzer.bounds(this);
+            costBounds = bounds;
+        }
+        return bounds;
+    }
+
+    // This program specialized for calls whose arguments match known (null: varies), or this program itself once
+    // MAX_SPECIALIZATIONS variants exist
+    CompiledProgram specialized(List<Integer> known) {
+        CompiledProgram code = specializations.get(known);
+        if (code != null) {
+            return code;
+        }
+        if (specializations.size() >= MAX_SPECIALIZATIONS) {
+            return this;
+        }
+        return specializations.computeIfAbsent(known, k -> ProgramOptimizer.specialize(this, k));
+    }
+
+    // Copies the program input into the x1..xN slots of a zeroed vars array
+    void loadInput(List<Integer> input, int[] vars) {
+        for (int i = 0; i < input.size() && i < inputSlots.length; i++) {
+            if (inputSlots[i] >= 0) {
+                vars[inputSlots[i]] = input.get(i);
+            }
+        }
+    }
+
+    /*
+        Runs the bytecode version for a nested call made from CallStack.
+        Returns null when the call cannot finish within maxCycles, and throws CancellationException once the
+        run's token fires.
+     */
+    FunctionCallCache.Result runJit(JitCode code, int[] vars, long maxCycles, JitSupport support) {
+        long state;
+        try {
+            state = code.run(vars, 0, 0, (int) maxCycles, (int) maxCycles, support);
+        } catch (BudgetExceededException e) {
+            return null;
+        }
+        if (JitSupport.haltStatus(state) == JitSupport.CANCELLED) {
+            throw new CancellationException("Execution cancelled");
+        }
+        return JitSupport.haltExceeded(state) ? null : new FunctionCallCache.Result(vars[0], JitSupport.haltCycles(state));
+    }
+
+    /*
+        Runs frame f from f.pc until it finishes, runs out of budget, reaches a QUOTE / JUMP_EQUAL_FUNCTION, or
+        would pass f.pauseAt, or the run's token fires. In the call case the call site is handed to the frame and the instruction is completed
+        by resume once CallStack has evaluated it, so nested calls never recurse on the Java stack. A pause leaves
+        the frame exactly as a budget halt does, so running it again continues the same execution.
+        A frame given JitCode (see CallStack.Frame.tier) runs as bytecode, which stops in the same places.
+     */
+    int run(CallStack.Frame f) {
+        JitCode code = f.jit;
+        if (code == null || f.maxCycles > Integer.MAX_VALUE) {
+            return interpret(f);
+        }
+        int pc = f.pc;
+        long cyclesCount = f.cycles;
+        long state = code.run(f.vars, pc, (int) cyclesCount, (int) f.maxCycles, (int) Math.min(f.maxCycles, f.pauseAt), f.framedSupport());
+        f.pc = JitSupport.haltPc(state);
+        f.cycles = JitSupport.haltCycles(state);
+        switch (JitSupport.haltStatus(state)) {
+            case JitSupport.DONE -> {
+                return CallStack.FINISHED;
+            }
+            case JitSupport.CALL -> {
+                f.beginCall(callSites[callIndex[f.pc]], f.maxCycles - f.cycles);
+                return CallStack.RUNNING;
+            }
+            case JitSupport.CANCELLED -> {
+                return CallStack.CANCELLED;
+            }
+            default -> {
+                // Calls stop framed code before they are charged, so the step that did not fit costs cycles[pc]
+                if (f.cycles + cycles[f.pc] > f.maxCycles) {
+                    return CallStack.EXCEEDED;
+                }
+                // A frame always gets one step before pausing, which the interpreter takes
+                return f.pc == pc && f.cycles == cyclesCount ? interpret(f) : CallStack.PAUSED;
+            }
+        }
+    }
+
+    // As run, on the interpreter
+    private int interpret(CallStack.Frame f) {
+        final int size = opcodes.length;
+        final int[] vars = f.vars;
+        final long maxCycles = f.maxCycles;
+        final long limit = Math.min(maxCycles, f.pauseAt);
+        int pc = f.pc;
+        long cyclesCount = f.cycles;
+        boolean done = false;
+        LoopSummarizer loops = f.loops;
+        final CancellationToken token = f.token;
+        int untilCheck = f.untilCheck;
+        boolean stepped = false;
+        try {
+            while (!done && pc < size) {
+                if (--untilCheck == 0) {
+                    untilCheck = CallStack.CHECK_INTERVAL;
+                    if (token != null && token.shouldStop()) {
+                        return CallStack.CANCELLED;
+                    }
+                }
+                if (loopHeaders[pc]) {
+                    if (loops == null) {
+                        loops = new LoopSummarizer(this);
+                    }
+                    // Leaves pc at the header, so execution simply continues from there
+                    cyclesCount += loops.advance(pc, vars, limit - cyclesCount);
+                }
+                // Whole basic block in one go when it fits in the budget; otherwise fall through and step it
+                int[] effects = blockEffects[pc];
+                if (effects != null && cyclesCount + blockCycles[pc] <= limit && applyBlock(effects, vars)) {
+                    cyclesCount += blockCycles[pc];
+                    pc = blockEnd[pc];
+                    continue;
+                }
+                // Single-step undo record for the budget guard
+                int prevPc = pc;
+                long prevCycles = cyclesCount;
+                int undoSlot = -1;
+                int undoValue = 0;
+                int a = operandA[pc];
+                switch (opcodes[pc]) {
+                    case OP_NEUTRAL -> {
+                        cyclesCount += cycles[pc];
+                        pc++;
+                    }
+                    case OP_INCREASE -> {
+                        undoSlot = a;
+                        undoValue = vars[a];
+                        vars[a]++;
+                        cyclesCount += cycles[pc];
+                        pc++;
+                    }
+                    case OP_DECREASE -> {
+                        undoSlot = a;
+                        undoValue = vars[a];
+                        if (vars[a] != 0) vars[a]--;
+                        cyclesCount += cycles[pc];
+                        pc++;
+                    }
+                    case OP_ZERO_VARIABLE -> {
+                        undoSlot = a;
+                        undoValue = vars[a];
+                        vars[a] = 0;
+                        cyclesCount += cycles[pc];
+                        pc++;
+                    }
+                    case OP_ASSIGNMENT -> {
+                        undoSlot = a;
+                        undoValue = vars[a];
+                        vars[a] = vars[operandB[pc]];
+                        cyclesCount += cycles[pc];
+                        pc++;
+                    }
+                    case OP_CONSTANT_ASSIGNMENT -> {
+                        undoSlot = a;
+                        undoValue = vars[a];
+                        vars[a] = operandB[pc];
+                        cyclesCount += cycles[pc];
+                        pc++;
+                    }
+                    case OP_GOTO_LABEL -> {
+                        if (targets[pc] == EXIT) {
+                            done = true;
+                        } else {
+                            cyclesCount += cycles[pc];
+                            pc = resolved(pc);
+                        }
+                    }
+                    case OP_JUMP_NOT_ZERO, OP_JUMP_ZERO, OP_JUMP_EQUAL_CONSTANT, OP_JUMP_EQUAL_VARIABLE -> {
+                        boolean taken = switch (opcodes[pc]) {
+                            case OP_JUMP_NOT_ZERO -> vars[a] > 0;
+                            case OP_JUMP_ZERO -> vars[a] == 0;
+                            case OP_JUMP_EQUAL_CONSTANT -> vars[a] == operandB[pc];
+                            default -> vars[a] == vars[operandB[pc]];
+                        };
+                        if (taken && targets[pc] == EXIT) {
+                            done = true;
+                        } else {
+                            cyclesCount += cycles[pc];
+                            pc = taken ? resolved(pc) : pc + 1;
+                        }
+                    }
+                    case OP_QUOTE, OP_JUMP_EQUAL_FUNCTION -> {
+                        f.beginCall(callSites[callIndex[pc]], maxCycles - cyclesCount);
+                        return CallStack.RUNNING;
+                    }
+                    default -> throw new IllegalStateException("Unknown opcode: " + opcodes[pc]);
+                }
+                // A frame always gets one step before pausing, as a single step may cost more than a whole slice
+                if (cyclesCount > limit && (cyclesCount > maxCycles || stepped)) {
+                    boolean exceeded = cyclesCount > maxCycles;
+                    cyclesCount = prevCycles;
+                    pc = prevPc;
+                    if (undoSlot >= 0) {
+                        vars[undoSlot] = undoValue;
+                    }
+                    return exceeded ? CallStack.EXCEEDED : CallStack.PAUSED;
+                }
+                stepped = true;
+            }
+            return CallStack.FINISHED;
+        } finally {
+            f.pc = pc;
+            f.cycles = cyclesCount;
+            f.loops = loops;
+            f.untilCheck = untilCheck;
+        }
+    }
+
+    // Completes the QUOTE / JUMP_EQUAL_FUNCTION at f.pc with the callee's result and cycles
+    int resume(CallStack.Frame f, int result, long calleeCycles) {
+        int pc = f.pc;
+        int a = operandA[pc];
+        if (opcodes[pc] == OP_QUOTE) {
+            if (f.cycles + calleeCycles + cycles[pc] > f.maxCycles) {
+                return CallStack.EXCEEDED;
+            }
+            f.vars[a] = result;
+            f.cycles += calleeCycles + cycles[pc];
+            f.pc = pc + 1;
+            return CallStack.RUNNING;
+        }
+        boolean taken = f.vars[a] == result;
+        if (taken && targets[pc] == EXIT) {
+            return CallStack.FINISHED;
+        }
+        int next = taken ? resolved(pc) : pc + 1;
+        if (f.cycles + cycles[pc] > f.maxCycles) {
+            return CallStack.EXCEEDED;
+        }
+        f.cycles += cycles[pc];
+        f.pc = next;
+        return CallStack.RUNNING;
+    }
+
+    private ProgramResult outOfBudget(long cyclesCount, int[] vars, List<Integer> input, int pc) {
+        return new ProgramResult(cyclesCount, variableToValue(vars, input), pc, false, ProgramResult.HaltReason.INSUFFICIENT_CREDITS);
+    }
+
+    // Counts the run and returns the bytecode version once the program is hot (null until then, or if it cannot be compiled)
+    JitCode tierUp() {
+        JitCode code = jit;
+        if (code != null || jitAttempted) {
+            return code;
+        }
+        int threshold = jitThreshold;
+        if (threshold <= 0 || runs.incrementAndGet() < threshold) {
+            return null;
+        }
+        synchronized (this) {
+            if (!jitAttempted) {
+                jit = JitCompiler.compile(this);
+                jitAttempted = true;
+            }
+        }
+        return jit;
+    }
+
+    // The max(v + add, floor) form matches the step-by-step semantics only for non-negative values
+    private static boolean applyBlock(int[] effects, int[] vars) {
+        for (int i = 0; i < effects.length; i += 3) {
+            if (vars[effects[i]] < 0) {
+                return false;
+            }
+        }
+        for (int i = 0; i < effects.length; i += 3) {
+            int slot = effects[i];
+            vars[slot] = (int) Math.max((long) vars[slot] + effects[i + 1], effects[i + 2]);
+        }
+        return true;
+    }
+
+    private int resolved(int pc) {
+        int target = targets[pc];
+        if (target < 0) {
+            throw new IllegalArgumentException("Target Label is not in list");
+        }
+        return target;
+    }
+
+    // Same variable set as ProgramState: y, every provided input x1..xN, and every present variable (in an
+    // optimized form, the variables ProgramOptimizer eliminated have no name and are left out)
+    HashMap<String, Integer> variableToValue(int[] vars, List<Integer> input) {
+        HashMap<String, Integer> out = new HashMap<>();
+        for (int slot = 0; slot < slotNames.length; slot++) {
+            if (slotNames[slot] != null) {
+                out.put(slotNames[slot], vars[slot]);
+            }
+        }
+        for (int i = 0; i < input.size(); i++) {
+            if (i >= inputSlots.length || inputSlots[i] < 0) {
+                out.put(Names.inputVariable(i + 1), input.get(i));
+            }
+        }
+        return out;
+    }
+}
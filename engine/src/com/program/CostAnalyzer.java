@@ -0,0 +1,215 @@
+package com.program;
+
+import com.dto.api.CostEstimate;
+import com.dto.api.ProgramResult;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/*
+    Cycle bounds of a compiled program, worked out before it runs (see Program.estimateCost).
+    Without an input the bounds come from the code alone: the cheapest way from the first instruction to a halt
+    (a shortest path, taken jumps to EXIT being free and QUOTE adding its callee's own least cost), and, when no
+    loop is reachable, the dearest one (a longest path over the acyclic code). Both are cached per CompiledProgram.
+    With an input the run is simply tried within the caller's limit and a fixed effort: straight-line code and
+    counted loops (advanced in closed form by LoopSummarizer) finish, which gives the exact cost (and the run
+    itself, see Program.estimateCostByTrial); a run that
+    outgrows the limit needs more than the limit; and one that outgrows the effort keeps the static bounds, its
+    lower one raised to the cycles it had already used.
+ */
+final class CostAnalyzer {
+    // Reported when there is no upper bound (and as the least cost of a program that can never halt)
+    static final long UNBOUNDED = Long.MAX_VALUE;
+    // Polls of the effort token a trial run gets, about CallStack.CHECK_INTERVAL steps each after the first
+    private static final int EFFORT_POLLS = 5;
+
+    // Programs whose bounds are being worked out on this thread; a recursive call to one counts as free and unbounded
+    private static final ThreadLocal<Set<CompiledProgram>> IN_PROGRESS = ThreadLocal.withInitial(HashSet::new);
+
+    // min <= cycles of every run that halts <= max
+    record Bounds(long min, long max) {}
+
+    private CostAnalyzer() {}
+
+    // Bounds for a run of code on input (null: any input) that may use at most limit cycles
+    static CostEstimate estimate(CompiledProgram code, List<Integer> input, long limit) {
+        return trial(code, input, limit).estimate();
+    }
+
+    // As estimate, with the trial run's result when it finished within limit: that run is the run itself
+    static Program.CostTrial trial(CompiledProgram code, List<Integer> input, long limit) {
+        Bounds bounds = code.costBounds();
+        if (input == null) {
+            return new Program.CostTrial(estimate(bounds.min(), bounds.max()), null);
+        }
+        int[] vars = new int[code.slotCount()];
+        code.loadInput(input, vars);
+        ProgramResult res;
+        try {
+            res = CallStack.run(code, null, vars, input, limit, CancellationToken.afterPolls(EFFORT_POLLS));
+        } catch (CancellationException e) {
+            // A nested call answered through FunctionCallCache ran out of effort
+            return new Program.CostTrial(estimate(bounds.min(), bounds.max()), null);
+        }
+        return switch (res.getHaltReason()) {
+            case FINISHED -> new Program.CostTrial(estimate(res.getCycles(), res.getCycles()), res);
+            case INSUFFICIENT_CREDITS -> new Program.CostTrial(estimate(limit == UNBOUNDED ? limit : limit + 1, bounds.max()), null);
+            default -> new Program.CostTrial(estimate(Math.max(res.getCycles(), bounds.min()), bounds.max()), null);
+        };
+    }
+
+    private static CostEstimate estimate(long min, long max) {
+        return new CostEstimate(min, max == UNBOUNDED ? -1 : Math.max(min, max));
+    }
+
+    static Bounds bounds(CompiledProgram code) {
+        Set<CompiledProgram> inProgress = IN_PROGRESS.get();
+        if (!inProgress.add(code)) {
+            return new Bounds(0, UNBOUNDED);
+        }
+        try {
+            long[] calls = new long[code.size() * 2];
+            for (int pc = 0; pc < code.size(); pc++) {
+                if (code.opcodes[pc] == CompiledProgram.OP_QUOTE) {
+                    Program callee = code.callSites[code.callIndex[pc]].callee().program();
+                    // An unknown callee fails the run when it is reached, so it adds nothing
+                    Bounds b = callee == null ? new Bounds(0, 0) : callee.getCompiled().costBounds();
+                    calls[2 * pc] = b.min();
+                    calls[2 * pc + 1] = b.max();
+                }
+            }
+            return new Bounds(leastCost(code, calls), greatestCost(code, calls));
+        } finally {
+            inProgress.remove(code);
+        }
+    }
+
+    /*
+        The halt is node size; every instruction has edges to where it can go next with what getting there costs.
+        QUOTE charges its callee's cycles, JUMP_EQUAL_FUNCTION only its own; a taken jump to EXIT charges nothing.
+        Returns false for jumps to labels that do not exist, which fail the run.
+     */
+    private static boolean forEachEdge(CompiledProgram code, int pc, long callCost, EdgeSink sink) {
+        int size = code.size();
+        int op = code.opcodes[pc];
+        long cost = code.cycles[pc] + (op == CompiledProgram.OP_QUOTE ? callCost : 0);
+        boolean jumps = op == CompiledProgram.OP_GOTO_LABEL || op == CompiledProgram.OP_JUMP_NOT_ZERO
+                || op == CompiledProgram.OP_JUMP_ZERO || op == CompiledProgram.OP_JUMP_EQUAL_CONSTANT
+                || op == CompiledProgram.OP_JUMP_EQUAL_VARIABLE || op == CompiledProgram.OP_JUMP_EQUAL_FUNCTION;
+        if (op != CompiledProgram.OP_GOTO_LABEL) {
+            sink.edge(Math.min(pc + 1, size), cost);
+        }
+        if (jumps) {
+            int target = code.targets[pc];
+            if (target == CompiledProgram.EXIT) {
+                sink.edge(size, 0);
+            } else if (target >= 0) {
+                sink.edge(target, cost);
+            } else if (op == CompiledProgram.OP_GOTO_LABEL) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private interface EdgeSink {
+        void edge(int to, long cost);
+    }
+
+    // Shortest path from the first instruction to the halt (UNBOUNDED when there is none)
+    private static long leastCost(CompiledProgram code, long[] calls) {
+        int size = code.size();
+        long[] dist = new long[size + 1];
+        Arrays.fill(dist, UNBOUNDED);
+        dist[0] = 0;
+        PriorityQueue<long[]> queue = new PriorityQueue<>((p, q) -> Long.compare(p[0], q[0]));
+        queue.add(new long[] {0, 0});
+        while (!queue.isEmpty()) {
+            long[] next = queue.poll();
+            int pc = (int) next[1];
+            if (next[0] > dist[pc]) {
+                continue;
+            }
+            if (pc == size) {
+                return dist[pc];
+            }
+            long from = dist[pc];
+            forEachEdge(code, pc, calls[2 * pc], (to, cost) -> {
+                long d = saturatedAdd(from, cost);
+                if (d < dist[to]) {
+                    dist[to] = d;
+                    queue.add(new long[] {d, to});
+                }
+            });
+        }
+        return UNBOUNDED;
+    }
+
+    // Longest path from the first instruction to the halt, or UNBOUNDED when a loop or an unbounded call is reachable
+    private static long greatestCost(CompiledProgram code, long[] calls) {
+        int size = code.size();
+        if (size == 0) {
+            return 0;
+        }
+        // 0: not seen, 1: on the current path, 2: done
+        byte[] state = new byte[size + 1];
+        long[] longest = new long[size + 1];
+        int[] stack = new int[size + 1];
+        int[][] successors = new int[size][];
+        long[][] weights = new long[size][];
+        int depth = 0;
+        stack[0] = 0;
+        state[0] = 1;
+        state[size] = 2;
+        while (depth >= 0) {
+            int pc = stack[depth];
+            if (successors[pc] == null) {
+                if (code.opcodes[pc] == CompiledProgram.OP_QUOTE && calls[2 * pc + 1] == UNBOUNDED) {
+                    return UNBOUNDED;
+                }
+                int[] to = new int[2];
+                long[] cost = new long[2];
+                int[] count = {0};
+                boolean ok = forEachEdge(code, pc, calls[2 * pc + 1], (t, c) -> {
+                    to[count[0]] = t;
+                    cost[count[0]++] = c;
+                });
+                successors[pc] = ok ? Arrays.copyOf(to, count[0]) : new int[0];
+                weights[pc] = cost;
+            }
+            // Visit the first successor not done yet; a successor still on the path closes a loop
+            int pending = -1;
+            for (int t : successors[pc]) {
+                if (state[t] == 1) {
+                    return UNBOUNDED;
+                }
+                if (state[t] == 0) {
+                    pending = t;
+                    break;
+                }
+            }
+            if (pending >= 0) {
+                state[pending] = 1;
+                stack[++depth] = pending;
+                continue;
+            }
+            long best = 0;
+            for (int i = 0; i < successors[pc].length; i++) {
+                best = Math.max(best, saturatedAdd(weights[pc][i], longest[successors[pc][i]]));
+            }
+            longest[pc] = best;
+            state[pc] = 2;
+            depth--;
+        }
+        return longest[0];
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 || a == UNBOUNDED || b == UNBOUNDED ? UNBOUNDED : sum;
+    }
+}
@@ -0,0 +1,49 @@
+package com.program;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A user's credits, shared by every run of theirs in progress. Runs take what they may spend up front (tryCharge
+ * for a fixed price, reserve for a budget) and put back what they did not use, so runs of one user on several
+ * threads never spend the same credits twice and the balance never goes below zero.
+ */
+public final class CreditPool {
+    private final AtomicLong available;
+
+    public CreditPool(long credits) {
+        this.available = new AtomicLong(credits);
+    }
+
+    public long available() {
+        return available.get();
+    }
+
+    // Adds credits bought, or puts back the unused part of a reservation
+    public void add(long amount) {
+        available.addAndGet(amount);
+    }
+
+    // Takes amount if it is covered; otherwise takes nothing and returns false
+    public boolean tryCharge(long amount) {
+        while (true) {
+            long current = available.get();
+            if (current < amount) {
+                return false;
+            }
+            if (available.compareAndSet(current, current - amount)) {
+                return true;
+            }
+        }
+    }
+
+    // Takes up to amount (as much as there is when that is less) and returns what was taken
+    public long reserve(long amount) {
+        while (true) {
+            long current = available.get();
+            long taken = Math.max(0, Math.min(amount, current));
+            if (available.compareAndSet(current, current - taken)) {
+                return taken;
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.program;
+
+import com.commands.BaseCommand;
+import com.dto.api.ProgramResult;
+
+import java.util.List;
+
+/**
+ * Per-user debug context over a Program.
+ * The Program itself is a shared, read-only image (the registry hands the same instance to every user and run),
+ * so everything that changes while stepping - the ProgramState, its undo history and breakpoints - lives here.
+ */
+public final class DebugSession {
+    private final Program program;
+    boolean isMidDebug = false;
+    ProgramState debugState = null;
+
+    public DebugSession(Program program) {
+        this.program = program;
+    }
+
+    public Program getProgram() {
+        return program;
+    }
+
+    /*
+        maxCycles bounds the session's total cycles. The step that would pass it is undone (a nested call that
+        cannot finish within what is left stops before its command changes anything), and the session stays
+        paused on that command with INSUFFICIENT_CREDITS.
+     */
+    public ProgramResult startDebugWithBudget(List<Integer> input, List<Integer> breakpoints, long maxCycles){
+        // Initialize and run to first breakpoint (or end)
+        ProgramState programState = new ProgramState(input, program.stateTemplate(), program.commands, program.labelToIndex, ExecutionMode.DEBUG);
+        programState.maxCycles = maxCycles;
+        programState.initialBreakpoints(breakpoints);
+        return runToBreakpoint(programState);
+    }
+
+    public ProgramResult stepOverWithBudget(long maxCycles){
+        // Perform a single debug step
+        ProgramState programState = debugState;
+        programState.maxCycles = maxCycles;
+        if (!step(programState)){
+            return paused(programState, ProgramResult.HaltReason.INSUFFICIENT_CREDITS);
+        }
+        if (programState.done || programState.currentCommandIndex >= program.commands.size()){
+            return finished(programState);
+        }
+        return paused(programState, ProgramResult.HaltReason.STOPPED_MANUALLY);
+    }
+
+    public ProgramResult continueDebugWithBudget(long maxCycles){
+        //Always perform at least 1 step, and then continue debugging to next breakpoint or end
+        ProgramState programState = debugState;
+        programState.maxCycles = maxCycles;
+        if (!step(programState)){
+            return paused(programState, ProgramResult.HaltReason.INSUFFICIENT_CREDITS);
+        }
+        return runToBreakpoint(programState);
+    }
+
+    private ProgramResult runToBreakpoint(ProgramState programState) {
+        while(!programState.done && programState.currentCommandIndex < program.commands.size()){
+            if(programState.breakpoints[programState.currentCommandIndex]){
+                return paused(programState, ProgramResult.HaltReason.STOPPED_MANUALLY);
+            }
+            if (!step(programState)){
+                return paused(programState, ProgramResult.HaltReason.INSUFFICIENT_CREDITS);
+            }
+        }
+        return finished(programState);
+    }
+
+    // Executes the current command; false, with nothing changed, when it does not fit the budget
+    private boolean step(ProgramState programState){
+        BaseCommand command = program.commands.get(programState.currentCommandIndex);
+        try {
+            command.execute(programState);
+        } catch (BudgetExceededException e){
+            // Nested call ran out of budget before the command changed anything
+            return false;
+        }
+        if (programState.cyclesCount > programState.maxCycles){
+            programState.undoLastStep();
+            return false;
+        }
+        return true;
+    }
+
+    private ProgramResult paused(ProgramState programState, ProgramResult.HaltReason reason){
+        isMidDebug = true;
+        debugState = programState;
+        return new ProgramResult(programState.cyclesCount, Program.variableToValue(programState), programState.currentCommandIndex, true, reason);
+    }
+
+    private ProgramResult finished(ProgramState programState){
+        isMidDebug = false;
+        debugState = null;
+        return new ProgramResult(programState.cyclesCount, Program.variableToValue(programState), programState.currentCommandIndex, false, ProgramResult.HaltReason.FINISHED);
+    }
+
+    public void stopDebug(){
+        isMidDebug = false;
+        debugState = null;
+    }
+
+    // Package current debug state into a finished ProgramResult for statistics
+    public ProgramResult snapshotDebugAsFinished(){
+        if (debugState == null){
+            throw new IllegalStateException("No debug state to snapshot");
+        }
+        return new ProgramResult(debugState.cyclesCount, Program.variableToValue(debugState), debugState.currentCommandIndex, false);
+    }
+
+    public ProgramResult stepBack(){
+        ProgramState programState = debugState;
+        if (!programState.undoLastStep()){
+            throw new IllegalStateException("No steps to undo");
+        }
+        return new ProgramResult(programState.cyclesCount, Program.variableToValue(programState), programState.currentCommandIndex, true);
+    }
+
+    // Approximate heap used by the current debug session's undo history, 0 when not debugging
+    public long getDebugMemoryUsage(){
+        ProgramState programState = debugState;
+        return programState == null ? 0 : programState.getUndoMemoryUsage();
+    }
+
+    public void setBreakpoint(int index) {
+        if(debugState != null){
+            debugState.setBreakPoint(index);
+        }
+    }
+
+    public void removeBreakpoint(int index) {
+        if(debugState != null){
+            debugState.removeBreakPoint(index);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.program;
+
+/*
+    Selects how much undo history a run keeps.
+    RUN   - plain execution: no journal, only the single step needed by the budget guard is kept.
+            Nested function calls run on CallStack's explicit frame stack rather than the Java stack.
+    DEBUG - full step journal so a debug session can step back.
+ */
+public enum ExecutionMode {
+    RUN,
+    DEBUG
+}
@@ -0,0 +1,235 @@
+package com.program;
+
+import com.dto.api.ProgramResult;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs executions on a shared set of worker threads, a slice of cycles at a time, so a few enormous runs cannot
+ * hold every worker while short ones wait behind them.
+ * Each user has a queue of runs; users take turns in round-robin order, a user with weight w getting w slices per
+ * turn. A run's first slice is a plain executeWithBudget (tiered code included), which is all most runs need; a run
+ * still going after it starts over as a CheckpointedExecution, whose frames run tiered code as well, and yields after
+ * every further slice, going to the back of its user's queue. The repeated first slice is the only extra work, and
+ * results are exactly those of an uninterrupted run.
+ * A result-only run executes the program's optimized form (see ProgramOptimizer); if that stops before it finishes
+ * (out of budget or cancelled) the run starts over on the program as written, so the halt is reported, and charged,
+ * as usual. A cancelled run stops again at once there, with the original's variables and no cycles.
+ */
+public final class ExecutionScheduler {
+    // At most about 0.2 ms of stepping (branchy code that neither fuses nor summarizes), so a new run never waits
+    // longer than that for a worker
+    public static final long DEFAULT_SLICE_CYCLES = 20_000;
+
+    private static final ExecutionScheduler SHARED =
+            new ExecutionScheduler(Runtime.getRuntime().availableProcessors(), DEFAULT_SLICE_CYCLES);
+
+    private static final class Task {
+        final Program program;
+        final int expansionLevel;
+        final List<Integer> input;
+        final long maxCycles;
+        final CancellationToken token;
+        final CompletableFuture<ProgramResult> result = new CompletableFuture<>();
+        final CompiledProgram compiled;
+        // What runs: compiled, or its optimized form for a result-only run
+        CompiledProgram code;
+        CheckpointedExecution execution;
+
+        Task(Program program, int expansionLevel, List<Integer> input, long maxCycles, CancellationToken token, boolean resultOnly) {
+            this.program = program;
+            this.expansionLevel = expansionLevel;
+            this.input = input;
+            this.maxCycles = maxCycles;
+            this.token = token;
+            this.compiled = program.getCompiled(expansionLevel);
+            this.code = resultOnly ? compiled.optimized() : compiled;
+        }
+    }
+
+    // A user's waiting runs; the queue is in ready exactly while it has runs
+    private static final class UserQueue {
+        final String userId;
+        final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        // Slices left in the user's current turn
+        int turnsLeft;
+
+        UserQueue(String userId) {
+            this.userId = userId;
+        }
+    }
+
+    private final long sliceCycles;
+    private final Object lock = new Object();
+    private final Map<String, UserQueue> queues = new HashMap<>();
+    private final ArrayDeque<UserQueue> ready = new ArrayDeque<>();
+    private final Map<String, Integer> weights = new ConcurrentHashMap<>();
+
+    public ExecutionScheduler(int workers, long sliceCycles) {
+        if (workers <= 0 || sliceCycles <= 0) {
+            throw new IllegalArgumentException("Workers and slice size must be positive");
+        }
+        this.sliceCycles = sliceCycles;
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::work, "execution-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    public static ExecutionScheduler shared() {
+        return SHARED;
+    }
+
+    // Slices userId gets per turn (1 unless set)
+    public void setWeight(String userId, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive");
+        }
+        weights.put(userId, weight);
+    }
+
+    /**
+     * Queues a run of program at expansionLevel on input with at most maxCycles cycles for userId.
+     * Once token (if not null) fires, the run ends with CANCELLED at its next slice or poll.
+     */
+    public CompletableFuture<ProgramResult> submit(String userId, Program program, int expansionLevel, List<Integer> input, long maxCycles, CancellationToken token) {
+        return submit(userId, program, expansionLevel, input, maxCycles, token, false);
+    }
+
+    /*
+        As submit; with resultOnly the run executes the optimized form, which reports the same y, inputs and cycles
+        but leaves out the work variables the result does not depend on.
+     */
+    public CompletableFuture<ProgramResult> submit(String userId, Program program, int expansionLevel, List<Integer> input, long maxCycles, CancellationToken token, boolean resultOnly) {
+        Task task = new Task(program, expansionLevel, List.copyOf(input), maxCycles, token, resultOnly);
+        synchronized (lock) {
+            UserQueue q = queues.computeIfAbsent(userId, UserQueue::new);
+            enqueue(q, task);
+        }
+        return task.result;
+    }
+
+    /**
+     * As submit, waiting for the result. Errors from the run are rethrown as they are.
+     */
+    public ProgramResult execute(String userId, Program program, int expansionLevel, List<Integer> input, long maxCycles, CancellationToken token) {
+        return execute(userId, program, expansionLevel, input, maxCycles, token, false);
+    }
+
+    public ProgramResult execute(String userId, Program program, int expansionLevel, List<Integer> input, long maxCycles, CancellationToken token, boolean resultOnly) {
+        try {
+            return submit(userId, program, expansionLevel, input, maxCycles, token, resultOnly).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void work() {
+        while (true) {
+            UserQueue q;
+            Task task;
+            synchronized (lock) {
+                while (ready.isEmpty()) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                q = ready.pollFirst();
+                task = q.tasks.pollFirst();
+                if (--q.turnsLeft <= 0) {
+                    q.turnsLeft = weight(q.userId);
+                }
+                if (!q.tasks.isEmpty()) {
+                    // The user's other runs stay available to the other workers
+                    place(q);
+                }
+            }
+            if (!step(task)) {
+                synchronized (lock) {
+                    enqueue(q, task);
+                }
+            }
+        }
+    }
+
+    // Must hold lock
+    private void enqueue(UserQueue q, Task task) {
+        if (q.turnsLeft <= 0) {
+            q.turnsLeft = weight(q.userId);
+        }
+        boolean wasIdle = q.tasks.isEmpty();
+        q.tasks.addLast(task);
+        if (wasIdle) {
+            place(q);
+        }
+    }
+
+    // Must hold lock. A user part way through its turn goes first, any other to the back
+    private void place(UserQueue q) {
+        if (q.turnsLeft < weight(q.userId)) {
+            ready.addFirst(q);
+        } else {
+            ready.addLast(q);
+        }
+        lock.notify();
+    }
+
+    // Runs one slice of task; returns whether the task is complete
+    private boolean step(Task task) {
+        try {
+            boolean stopped = task.token != null && task.token.shouldStop();
+            if (task.execution == null && !stopped) {
+                // The first slice is short enough not to poll the token
+                long budget = Math.min(task.maxCycles, sliceCycles);
+                ProgramResult res = task.code.executeWithBudget(task.input, budget);
+                if (res.getHaltReason() == ProgramResult.HaltReason.FINISHED || budget == task.maxCycles) {
+                    return complete(task, res);
+                }
+                // Too long for one slice: the next turn starts it over in resumable form
+                task.execution = start(task);
+                return false;
+            }
+            if (task.execution == null) {
+                task.execution = start(task);
+            }
+            task.execution.run(sliceCycles, task.token);
+            return task.execution.isDone() && complete(task, task.execution.getResult());
+        } catch (RuntimeException e) {
+            task.result.completeExceptionally(e);
+            return true;
+        }
+    }
+
+    private static CheckpointedExecution start(Task task) {
+        return CheckpointedExecution.start(task.program.getName(), task.code, task.expansionLevel, null, task.input, task.maxCycles);
+    }
+
+    // Hands res to the caller; returns false when the run has to start over on the program as written instead
+    private static boolean complete(Task task, ProgramResult res) {
+        if (res.getHaltReason() != ProgramResult.HaltReason.FINISHED && task.code != task.compiled) {
+            // The optimized form only matches the original for runs that finish: one stopped part way has left out
+            // eliminated variables and charged GOTO chains ahead
+            task.code = task.compiled;
+            task.execution = null;
+            return false;
+        }
+        task.result.complete(res);
+        return true;
+    }
+
+    private int weight(String userId) {
+        return weights.getOrDefault(userId, 1);
+    }
+}
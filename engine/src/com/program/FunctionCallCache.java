@@ -0,0 +1,168 @@
+package com.program;
+
+import com.dto.api.FunctionCacheStats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memoizes nested function calls (QUOTE, JUMP_EQUAL_FUNCTION and function arguments).
+ * Functions are pure, so a completed call's (result, cycles) depends only on the function and its argument
+ * vector. Each function gets its own size-bounded cache that drops the least recently used entries; the cached cycle
+ * count is charged on a hit, so accounting is unchanged. Calls that run out of budget are not cached. Entries are tied
+ * to the Program instance they were computed for, so re-registering a function under the same name starts a fresh cache.
+ * A hit takes no lock, so workers calling the same function in parallel do not queue on each other.
+ */
+public final class FunctionCallCache {
+
+    private FunctionCallCache() {}
+
+    public record Result(int result, long cycles) {}
+
+    private static final class FunctionCache {
+        final Program program;
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        // Advanced by each store; an entry remembers the tick it was last used at, which orders entries for eviction
+        final AtomicLong clock = new AtomicLong();
+        final ConcurrentHashMap<List<Integer>, Entry> entries = new ConcurrentHashMap<>();
+
+        FunctionCache(Program program) {
+            this.program = program;
+        }
+
+        Result get(List<Integer> args) {
+            Entry entry = entries.get(args);
+            if (entry == null) {
+                return null;
+            }
+            long now = clock.get();
+            // Written only when it changes, so a hot entry's cache line is not rewritten on every hit
+            if (entry.lastUsed != now) {
+                entry.lastUsed = now;
+            }
+            return entry.result;
+        }
+
+        void put(List<Integer> args, Result result, int capacity) {
+            entries.put(List.copyOf(args), new Entry(result, clock.incrementAndGet()));
+            if (entries.size() > capacity) {
+                evict(capacity);
+            }
+        }
+
+        // Drops the least recently used entries, an eighth of the capacity beyond the excess, so sweeps are rare
+        private synchronized void evict(int capacity) {
+            int size = entries.size();
+            if (size <= capacity) {
+                return;
+            }
+            long[] stamps = new long[size];
+            int n = 0;
+            for (Entry entry : entries.values()) {
+                if (n == stamps.length) {
+                    break;
+                }
+                stamps[n++] = entry.lastUsed;
+            }
+            Arrays.sort(stamps, 0, n);
+            int excess = Math.min(n, size - capacity + capacity / 8);
+            long cutoff = stamps[excess - 1];
+            entries.values().removeIf(entry -> entry.lastUsed <= cutoff);
+        }
+    }
+
+    private static final class Entry {
+        final Result result;
+        volatile long lastUsed;
+
+        Entry(Result result, long lastUsed) {
+            this.result = result;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    // ---- Configuration ----
+    private static volatile int capacity = 1024; // entries kept per function; 0 disables caching
+
+    private static final Map<String, FunctionCache> CACHES = new ConcurrentHashMap<>(); // functionName -> cache
+
+    public static void setCapacity(int entriesPerFunction) {
+        if (entriesPerFunction < 0) {
+            throw new IllegalArgumentException("Cache capacity must not be negative");
+        }
+        capacity = entriesPerFunction;
+        CACHES.clear();
+    }
+
+    public static void clear() {
+        CACHES.clear();
+    }
+
+    /*
+        Runs callee on args with at most budget cycles, or returns the remembered outcome of an identical call.
+        Throws BudgetExceededException when the call cannot finish within budget.
+     */
+    static Result call(Program callee, List<Integer> args, long budget) {
+        Result cached = lookup(callee, args);
+        if (cached != null) {
+            if (cached.cycles() > budget) {
+                throw new BudgetExceededException();
+            }
+            return cached;
+        }
+        // Computed outside the lock: the callee may itself call this function with other arguments
+        Result computed = run(callee, args, budget);
+        store(callee, args, computed);
+        return computed;
+    }
+
+    // The remembered outcome of callee(args), or null (counted as a miss) if the call has to be run
+    static Result lookup(Program callee, List<Integer> args) {
+        if (capacity == 0 || callee.getName() == null) {
+            return null;
+        }
+        FunctionCache cache = CACHES.get(callee.getName());
+        if (cache == null || cache.program != callee) {
+            cache = CACHES.compute(callee.getName(),
+                    (name, existing) -> existing != null && existing.program == callee ? existing : new FunctionCache(callee));
+        }
+        Result cached = cache.get(args);
+        (cached != null ? cache.hits : cache.misses).incrementAndGet();
+        return cached;
+    }
+
+    // Remembers a call that finished within its budget
+    static void store(Program callee, List<Integer> args, Result result) {
+        if (capacity == 0 || callee.getName() == null) {
+            return;
+        }
+        FunctionCache cache = CACHES.get(callee.getName());
+        if (cache == null || cache.program != callee) {
+            return;
+        }
+        cache.put(args, result, capacity);
+    }
+
+    private static Result run(Program callee, List<Integer> args, long budget) {
+        Result computed = CallStack.invoke(callee.getCompiled(), args, budget);
+        if (computed == null) {
+            throw new BudgetExceededException();
+        }
+        return computed;
+    }
+
+    public static List<FunctionCacheStats> statistics() {
+        List<FunctionCacheStats> out = new ArrayList<>();
+        for (Map.Entry<String, FunctionCache> e : CACHES.entrySet()) {
+            FunctionCache cache = e.getValue();
+            out.add(new FunctionCacheStats(e.getKey(), cache.hits.get(), cache.misses.get(), cache.entries.size()));
+        }
+        out.sort((a, b) -> a.getFunctionName().compareTo(b.getFunctionName()));
+        return out;
+    }
+}
@@ -0,0 +1,56 @@
+package com.program;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Link-time reference to a function (or program) called by QUOTE, JUMP_EQUAL_FUNCTION or a nested argument.
+ * The name is resolved through FunctionRegistry once and the resulting Program is kept until the registry's
+ * link generation changes (something was registered again), so a call on the hot path is one volatile read:
+ * no registry lock and no Program copy. There is one handle per name; lookups made inside an upload
+ * transaction are never kept, since they may see functions that are not committed yet.
+ */
+public final class FunctionHandle {
+    private static final Map<String, FunctionHandle> HANDLES = new ConcurrentHashMap<>(); // name -> handle
+
+    // Never relinked: handles created for a Program that is not in the registry
+    private static final long FIXED = -1;
+
+    private record Link(Program program, long generation) {}
+
+    private final String name;
+    private volatile Link link;
+
+    private FunctionHandle(String name, Link link) {
+        this.name = name;
+        this.link = link;
+    }
+
+    public static FunctionHandle of(String name) {
+        return HANDLES.computeIfAbsent(name, n -> new FunctionHandle(n, null));
+    }
+
+    // Handle bound to the given Program for good (programs assembled by hand, outside the registry)
+    public static FunctionHandle of(Program program) {
+        return new FunctionHandle(program.getName(), new Link(program, FIXED));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public Program program() {
+        Link l = link;
+        if (l != null && (l.generation() == FIXED || l.generation() == FunctionRegistry.linkGeneration())) {
+            return l.program();
+        }
+        if (FunctionRegistry.inTransaction()) {
+            return FunctionRegistry.getProgramByName(name);
+        }
+        // Generation is read before the lookup, so a registration racing with it forces another relink
+        long generation = FunctionRegistry.linkGeneration();
+        Program program = FunctionRegistry.getProgramByName(name);
+        link = new Link(program, generation);
+        return program;
+    }
+}
@@ -4,6 +4,7 @@ import com.XMLHandlerV2.SFunction;
 import com.XMLHandlerV2.SFunctions;
 import com.XMLHandlerV2.SInstruction;
 import com.XMLHandlerV2.SProgram;
+import com.commands.Names;
 
 import java.util.*;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -44,6 +45,19 @@ public final class FunctionRegistry {
     // Key: function name; Value: list of program/function names that use it
     private static final Map<String, List<String>> PROGRAMS_USING_FUNCTION = new HashMap<>();
 
+    // ---- Link generation ----
+    // Bumped (under the write lock) whenever a name may start resolving to a different Program; see FunctionHandle
+    private static volatile long linkGeneration = 0;
+    // Key: program/function name; Value: times it was registered again, bumped with linkGeneration (see LinkStamp)
+    private static final Map<String, Long> LINK_VERSIONS = new HashMap<>();
+
+    /**
+     * What a cache built from a program's callees depends on: the link generation it was checked at, and the link
+     * version of every name the program calls, directly or through the functions it calls. A new generation leaves
+     * the cache valid as long as none of those versions moved.
+     */
+    record LinkStamp(long generation, Map<String, Long> versions) {}
+
     // ---- Transactional build context (thread-local) ----
     private static final ThreadLocal<TxContext> TX = new ThreadLocal<>();
 
@@ -87,7 +101,9 @@ public final class FunctionRegistry {
                 int arity = calculateArity(instructions);
                 FUNCTION_ARITY.put(name, arity);
                 FUNCTION_SOURCE_PROGRAM_BY_NAME.put(name, programName);
+                LINK_VERSIONS.merge(name, 1L, Long::sum);
             }
+            linkGeneration++;
             
             // Phase C: eagerly compile all functions and track dependencies
             for (SFunction f : functions.getSFunction()) {
@@ -207,6 +223,7 @@ public final class FunctionRegistry {
                         FUNCTION_OWNER_BY_NAME.put(fname, userId);
                         FUNCTION_ARITY.put(fname, ctx.tempFunctionArityByName.getOrDefault(fname, 0));
                         FUNCTION_SOURCE_PROGRAM_BY_NAME.put(fname, sp.getName());
+                        LINK_VERSIONS.merge(fname, 1L, Long::sum);
                     }
                     // Put compiled cache
                     cache.putAll(ctx.tempCompiledFunctionsByName);
@@ -214,6 +231,8 @@ public final class FunctionRegistry {
 
                 // Commit program
                 PROGRAM_OWNER_BY_NAME.put(sp.getName(), userId);
+                LINK_VERSIONS.merge(sp.getName(), 1L, Long::sum);
+                linkGeneration++;
                 PROGRAMS_BY_USER.computeIfAbsent(userId, k -> new HashMap<>()).put(sp.getName(), ctx.tempProgram);
 
                 // Update usage tracking for committed items
@@ -243,7 +262,10 @@ public final class FunctionRegistry {
                 throw new IllegalStateException("Function name already registered by another user: " + functionName);
             }
             FUNCTION_OWNER_BY_NAME.put(functionName, userId);
-            FUNCTION_PROGRAM_CACHE_BY_USER.computeIfAbsent(userId, k -> new HashMap<>()).put(functionName, p);
+            FUNCTION_PROGRAM_CACHE_BY_USER.computeIfAbsent(userId, k -> new HashMap<>()).put(functionName, share(p));
+            LINK_VERSIONS.merge(functionName, 1L, Long::sum);
+            linkGeneration++;
+            updateUsageTracking(functionName, extractFunctionNamesFromProgram(p));
         } finally {
             write.unlock();
         }
@@ -259,7 +281,9 @@ public final class FunctionRegistry {
                 throw new IllegalStateException("Program name already registered by another user: " + name);
             }
             PROGRAM_OWNER_BY_NAME.put(name, userId);
-            PROGRAMS_BY_USER.computeIfAbsent(userId, k -> new HashMap<>()).put(name, p);
+            PROGRAMS_BY_USER.computeIfAbsent(userId, k -> new HashMap<>()).put(name, share(p));
+            LINK_VERSIONS.merge(name, 1L, Long::sum);
+            linkGeneration++;
             
             // Track function usage
             List<String> usedFunctions = extractFunctionNamesFromProgram(p);
@@ -282,19 +306,47 @@ public final class FunctionRegistry {
         }
     }
 
+    static long linkGeneration() {
+        return linkGeneration;
+    }
+
+    // The current LinkStamp of a program calling calledNames; the registry's usage tracking supplies the rest
+    static LinkStamp linkStamp(Collection<String> calledNames) {
+        var read = REGISTRY_LOCK.readLock();
+        read.lock();
+        try {
+            Map<String, Long> versions = new HashMap<>();
+            Deque<String> pending = new ArrayDeque<>(calledNames);
+            while (!pending.isEmpty()) {
+                String name = pending.pop();
+                if (versions.putIfAbsent(name, LINK_VERSIONS.getOrDefault(name, 0L)) == null) {
+                    pending.addAll(FUNCTIONS_USED_BY.getOrDefault(name, List.of()));
+                }
+            }
+            return new LinkStamp(linkGeneration, versions);
+        } finally {
+            read.unlock();
+        }
+    }
+
+    static boolean inTransaction() {
+        return TX.get() != null;
+    }
+
     // ---- Lookup APIs ----
+    // Returns the registered instance itself, not a copy: it is a shared read-only image (see Program.isShared)
     public static Program getProgramByName(String name) {
         // Check TX context first (during transactional build)
         TxContext tx = TX.get();
         if (tx != null) {
             // main program in TX
             if (name.equals(tx.programName) && tx.tempProgram != null) {
-                return new Program(tx.tempProgram);
+                return share(tx.tempProgram);
             }
             // compiled functions in TX
             Program compiled = tx.tempCompiledFunctionsByName.get(name);
             if (compiled != null) {
-                return new Program(compiled);
+                return share(compiled);
             }
             // If definition exists in TX but not compiled yet, compile on-demand within TX
             List<SInstruction> txDef = tx.tempFunctionDefsByName.get(name);
@@ -305,7 +357,7 @@ public final class FunctionRegistry {
                 try {
                     Program program = Program.createProgram(name, txDef);
                     tx.tempCompiledFunctionsByName.put(name, program);
-                    return new Program(program);
+                    return share(program);
                 } finally {
                     BUILDING.remove(name);
                 }
@@ -323,7 +375,7 @@ public final class FunctionRegistry {
                 if (p == null) {
                     throw new IllegalArgumentException("Program not found: " + name);
                 }
-                return new Program(p);
+                return share(p);
             }
             // Else, treat as function: try cached compiled program
             String funcOwner = FUNCTION_OWNER_BY_NAME.get(name);
@@ -332,7 +384,7 @@ public final class FunctionRegistry {
             }
             Map<String, Program> cache = FUNCTION_PROGRAM_CACHE_BY_USER.getOrDefault(funcOwner, Map.of());
             Program cached = cache.get(name);
-            if (cached != null) return new Program(cached);
+            if (cached != null) return share(cached);
         } finally {
             read.unlock();
         }
@@ -363,7 +415,7 @@ public final class FunctionRegistry {
                 List<String> usedFunctions = extractFunctionNamesFromProgram(program);
                 updateUsageTracking(name, usedFunctions);
                 
-                return new Program(program);
+                return share(program);
             } finally {
                 BUILDING.remove(name);
             }
@@ -372,6 +424,12 @@ public final class FunctionRegistry {
         }
     }
 
+    // Lookups hand out the registered instance itself, so it must never be edited in place from then on
+    private static Program share(Program p) {
+        p.markShared();
+        return p;
+    }
+
     public static int getFunctionArity(String name) {
         // TX override
         TxContext tx = TX.get();
@@ -604,12 +662,7 @@ public final class FunctionRegistry {
     }
 
     private static int extractXIndex(String variable) {
-        if (variable != null && variable.startsWith("x") && variable.length() > 1) {
-            try {
-                return Integer.parseInt(variable.substring(1));
-            } catch (NumberFormatException ignored) {}
-        }
-        return 0;
+        return variable == null ? 0 : Names.inputNumber(variable);
     }
 
     private static int calculateProgramArity(Program program) {
@@ -620,10 +673,12 @@ public final class FunctionRegistry {
         return maxXIndex;
     }
 
+    // Input references (x1, x2, ...) inside function argument strings
+    private static final java.util.regex.Pattern INPUT_REFERENCE = java.util.regex.Pattern.compile("\\bx(\\d+)\\b");
+
     private static int findMaxXIndexInString(String str) {
         int maxIndex = 0;
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("\\bx(\\d+)\\b");
-        java.util.regex.Matcher matcher = pattern.matcher(str);
+        java.util.regex.Matcher matcher = INPUT_REFERENCE.matcher(str);
         while (matcher.find()) {
             try {
                 int index = Integer.parseInt(matcher.group(1));
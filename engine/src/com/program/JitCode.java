@@ -0,0 +1,11 @@
+package com.program;
+
+/*
+    A CompiledProgram translated to JVM bytecode by JitCompiler.
+    run executes from instruction pc with cycles already charged and vars as the initial (and, on return, final)
+    variable values, and returns JitSupport.halt(pc, cycles, status) packed into a long. Steps are checked against
+    limit (at most maxCycles, e.g. the end of a slice), calls against maxCycles.
+ */
+interface JitCode {
+    long run(int[] vars, int pc, int cycles, int maxCycles, int limit, JitSupport support);
+}
@@ -0,0 +1,629 @@
+package com.program;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+    Translates a CompiledProgram into a JVM hidden class implementing JitCode.
+    Every variable slot lives in a JVM local, every instruction becomes a labelled block of bytecode and jumps
+    become gotos, so once HotSpot compiles it there is no dispatch loop left at all.
+    Semantics follow CompiledProgram.executeWithBudget exactly: a step that would exceed the budget is not applied
+    and the run halts on it, a taken jump to EXIT halts on the jump without charging it, a jump to a missing label
+    throws, and loop headers still go through LoopSummarizer.
+    A run may start at any instruction (a table switch on entry picks it), so a CallStack frame can run the code in
+    pieces: it stops before a step that would pass the slice's limit, at a loop header once the run's token fires,
+    and, when framed, at each call, which the frame then evaluates (see CompiledProgram.run).
+    The class file is version 49 so the verifier infers types itself and no stack map frames have to be written.
+ */
+final class JitCompiler {
+    // Keeps every branch offset within the signed 16-bit range of goto / if<cond>
+    private static final int MAX_CODE_LENGTH = 32000;
+
+    // Locals of run(int[] vars, int pc, int cycles, int maxCycles, int limit, JitSupport support)
+    private static final int L_VARS = 1;
+    private static final int L_PC = 2;
+    private static final int L_CYCLES = 3;
+    private static final int L_MAX = 4;
+    private static final int L_LIMIT = 5;
+    private static final int L_SUPPORT = 6;
+    private static final int L_RESULT = 7;
+    private static final int L_TOTAL = 8;
+    private static final int L_FIRST_SLOT = 9;
+
+    private static final String CLASS_NAME = "com/program/JitProgram";
+    private static final String SUPPORT = "com/program/JitSupport";
+
+    private final CompiledProgram program;
+    private final ConstantPool pool = new ConstantPool();
+    private final Bytes code = new Bytes();
+    private final List<Integer> labelPositions = new ArrayList<>();
+    private final List<int[]> branches = new ArrayList<>(); // {opcode position, label}
+    private final List<int[]> switchBranches = new ArrayList<>(); // {opcode position, offset position, label}
+    private final int[] instructionLabels;
+    private final int[] haltLabels;
+    private final int[] doneLabels;
+    private final int[] callLabels;
+    private final int[] cancelLabels;
+    private final int haltLabel;
+    private final int doneLabel;
+    private final int callLabel;
+    private final int cancelLabel;
+    private final int throwLabel;
+
+    private JitCompiler(CompiledProgram program) {
+        this.program = program;
+        instructionLabels = new int[program.size() + 1];
+        for (int pc = 0; pc <= program.size(); pc++) {
+            instructionLabels[pc] = newLabel();
+        }
+        haltLabels = new int[program.size()];
+        doneLabels = new int[program.size()];
+        callLabels = new int[program.size()];
+        cancelLabels = new int[program.size()];
+        Arrays.fill(haltLabels, -1);
+        Arrays.fill(doneLabels, -1);
+        Arrays.fill(callLabels, -1);
+        Arrays.fill(cancelLabels, -1);
+        haltLabel = newLabel();
+        doneLabel = newLabel();
+        callLabel = newLabel();
+        cancelLabel = newLabel();
+        throwLabel = newLabel();
+    }
+
+    // Returns null when the program is too large for a single method or the class cannot be defined
+    static JitCode compile(CompiledProgram program) {
+        byte[] bytes = new JitCompiler(program).classFile();
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (JitCode) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            // Not fatal: the program simply stays on the CompiledProgram loop
+            return null;
+        }
+    }
+
+    // ---- Method body ----
+
+    private void generateRun() {
+        reload();
+        if (program.size() > 0) {
+            // switch (pc): the instruction the run starts at; anything past the end finishes at once
+            iload(L_PC);
+            tableSwitch(instructionLabels[program.size()], Arrays.copyOf(instructionLabels, program.size()));
+        }
+        for (int pc = 0; pc < program.size(); pc++) {
+            place(instructionLabels[pc]);
+            if (program.loopHeaders[pc]) {
+                spill();
+                aload(L_SUPPORT);
+                push(pc);
+                aload(L_VARS);
+                iload(L_LIMIT);
+                iload(L_CYCLES);
+                code.u1(0x64); // isub
+                invoke(0xb6, SUPPORT, "loop", "(I[II)I");
+                istore(L_TOTAL);
+                iload(L_TOTAL);
+                // The summarizer has not touched vars when the token fired, so the run stops here as it stands
+                jump(0x9b, cancelLabel(pc)); // iflt
+                iload(L_TOTAL);
+                iload(L_CYCLES);
+                code.u1(0x60); // iadd
+                istore(L_CYCLES);
+                reload();
+            }
+            generateInstruction(pc);
+        }
+        place(instructionLabels[program.size()]);
+        push(program.size());
+        istore(L_PC);
+        jump(0xa7, doneLabel);
+
+        place(haltLabel);
+        exit(JitSupport.LIMIT);
+        place(doneLabel);
+        exit(JitSupport.DONE);
+        place(callLabel);
+        exit(JitSupport.CALL);
+        place(cancelLabel);
+        exit(JitSupport.CANCELLED);
+        place(throwLabel);
+        code.u1(0xbb); // new
+        code.u2(pool.classRef("java/lang/IllegalArgumentException"));
+        code.u1(0x59); // dup
+        code.u1(0x13); // ldc_w
+        code.u2(pool.string("Target Label is not in list"));
+        invoke(0xb7, "java/lang/IllegalArgumentException", "<init>", "(Ljava/lang/String;)V");
+        code.u1(0xbf); // athrow
+
+        // Per-instruction stubs recording where the run stopped
+        for (int pc = 0; pc < program.size(); pc++) {
+            stub(haltLabels[pc], pc, haltLabel);
+            stub(doneLabels[pc], pc, doneLabel);
+            stub(callLabels[pc], pc, callLabel);
+            stub(cancelLabels[pc], pc, cancelLabel);
+        }
+    }
+
+    private void stub(int label, int pc, int exitLabel) {
+        if (label >= 0) {
+            place(label);
+            push(pc);
+            istore(L_PC);
+            jump(0xa7, exitLabel);
+        }
+    }
+
+    private void generateInstruction(int pc) {
+        int a = L_FIRST_SLOT + program.operandA[pc];
+        int cost = program.cycles[pc];
+        switch (program.opcodes[pc]) {
+            case CompiledProgram.OP_NEUTRAL -> {
+                checkAndCharge(pc, cost);
+            }
+            case CompiledProgram.OP_INCREASE -> {
+                checkBudget(pc, cost);
+                iinc(a, 1);
+                charge(cost);
+            }
+            case CompiledProgram.OP_DECREASE -> {
+                checkBudget(pc, cost);
+                int skip = newLabel();
+                iload(a);
+                jump(0x99, skip); // ifeq
+                iinc(a, -1);
+                place(skip);
+                charge(cost);
+            }
+            case CompiledProgram.OP_ZERO_VARIABLE -> {
+                checkBudget(pc, cost);
+                push(0);
+                istore(a);
+                charge(cost);
+            }
+            case CompiledProgram.OP_ASSIGNMENT -> {
+                checkBudget(pc, cost);
+                iload(L_FIRST_SLOT + program.operandB[pc]);
+                istore(a);
+                charge(cost);
+            }
+            case CompiledProgram.OP_CONSTANT_ASSIGNMENT -> {
+                checkBudget(pc, cost);
+                push(program.operandB[pc]);
+                istore(a);
+                charge(cost);
+            }
+            case CompiledProgram.OP_GOTO_LABEL -> takenJump(pc, cost);
+            case CompiledProgram.OP_JUMP_NOT_ZERO, CompiledProgram.OP_JUMP_ZERO,
+                 CompiledProgram.OP_JUMP_EQUAL_CONSTANT, CompiledProgram.OP_JUMP_EQUAL_VARIABLE -> {
+                int taken = newLabel();
+                iload(a);
+                switch (program.opcodes[pc]) {
+                    case CompiledProgram.OP_JUMP_NOT_ZERO -> jump(0x9d, taken); // ifgt
+                    case CompiledProgram.OP_JUMP_ZERO -> jump(0x99, taken); // ifeq
+                    case CompiledProgram.OP_JUMP_EQUAL_CONSTANT -> {
+                        push(program.operandB[pc]);
+                        jump(0x9f, taken); // if_icmpeq
+                    }
+                    default -> {
+                        iload(L_FIRST_SLOT + program.operandB[pc]);
+                        jump(0x9f, taken);
+                    }
+                }
+                conditionalJump(pc, cost, taken);
+            }
+            case CompiledProgram.OP_QUOTE -> {
+                call(pc);
+                // The result is only stored if callee cycles + cost fit the budget, tested as
+                // callee cycles > (maxCycles - cycles) - cost so that nothing wraps near Integer.MAX_VALUE
+                aload(L_SUPPORT);
+                invoke(0xb6, SUPPORT, "lastCallCycles", "()I");
+                istore(L_TOTAL);
+                iload(L_TOTAL);
+                iload(L_MAX);
+                iload(L_CYCLES);
+                code.u1(0x64); // isub
+                push(cost);
+                code.u1(0x64); // isub
+                jump(0xa3, haltLabel(pc)); // if_icmpgt
+                iload(L_CYCLES);
+                iload(L_TOTAL);
+                code.u1(0x60); // iadd
+                push(cost);
+                code.u1(0x60); // iadd
+                istore(L_CYCLES);
+                iload(L_RESULT);
+                istore(a);
+            }
+            case CompiledProgram.OP_JUMP_EQUAL_FUNCTION -> {
+                call(pc);
+                int taken = newLabel();
+                iload(a);
+                iload(L_RESULT);
+                jump(0x9f, taken);
+                conditionalJump(pc, cost, taken);
+            }
+            default -> throw new IllegalStateException("Unknown opcode: " + program.opcodes[pc]);
+        }
+    }
+
+    // Not-taken path falls through to the next instruction, taken path is placed after it
+    private void conditionalJump(int pc, int cost, int takenLabel) {
+        checkAndCharge(pc, cost);
+        jump(0xa7, instructionLabels[pc + 1]);
+        place(takenLabel);
+        takenJump(pc, cost);
+    }
+
+    private void takenJump(int pc, int cost) {
+        int target = program.targets[pc];
+        if (target == CompiledProgram.EXIT) {
+            jump(0xa7, doneLabel(pc));
+        } else if (target < 0) {
+            jump(0xa7, throwLabel);
+        } else {
+            checkAndCharge(pc, cost);
+            jump(0xa7, instructionLabels[target]);
+        }
+    }
+
+    // A framed run stops on the call and leaves it to its frame; any other makes it here through CallStack.call
+    private void call(int pc) {
+        aload(L_SUPPORT);
+        invoke(0xb6, SUPPORT, "framed", "()Z");
+        jump(0x9a, callLabel(pc)); // ifne
+        spill();
+        aload(L_SUPPORT);
+        push(program.callIndex[pc]);
+        aload(L_VARS);
+        push(pc);
+        iload(L_CYCLES);
+        iload(L_MAX);
+        invoke(0xb6, SUPPORT, "call", "(I[IIII)I");
+        istore(L_RESULT);
+    }
+
+    private void checkAndCharge(int pc, int cost) {
+        checkBudget(pc, cost);
+        charge(cost);
+    }
+
+    // if (cost > limit - cycles) halt on pc; cycles never passes limit, so unlike cycles + cost this cannot wrap
+    private void checkBudget(int pc, int cost) {
+        push(cost);
+        iload(L_LIMIT);
+        iload(L_CYCLES);
+        code.u1(0x64); // isub
+        jump(0xa3, haltLabel(pc)); // if_icmpgt
+    }
+
+    private void charge(int cost) {
+        if (cost != 0) {
+            iinc(L_CYCLES, cost);
+        }
+    }
+
+    private void exit(int status) {
+        spill();
+        aload(L_SUPPORT);
+        iload(L_PC);
+        iload(L_CYCLES);
+        push(status);
+        invoke(0xb6, SUPPORT, "halt", "(III)J");
+        code.u1(0xad); // lreturn
+    }
+
+    private void spill() {
+        for (int slot = 0; slot < program.slotCount(); slot++) {
+            aload(L_VARS);
+            push(slot);
+            iload(L_FIRST_SLOT + slot);
+            code.u1(0x4f); // iastore
+        }
+    }
+
+    private void reload() {
+        for (int slot = 0; slot < program.slotCount(); slot++) {
+            aload(L_VARS);
+            push(slot);
+            code.u1(0x2e); // iaload
+            istore(L_FIRST_SLOT + slot);
+        }
+    }
+
+    private int haltLabel(int pc) {
+        if (haltLabels[pc] < 0) {
+            haltLabels[pc] = newLabel();
+        }
+        return haltLabels[pc];
+    }
+
+    private int doneLabel(int pc) {
+        if (doneLabels[pc] < 0) {
+            doneLabels[pc] = newLabel();
+        }
+        return doneLabels[pc];
+    }
+
+    private int callLabel(int pc) {
+        if (callLabels[pc] < 0) {
+            callLabels[pc] = newLabel();
+        }
+        return callLabels[pc];
+    }
+
+    private int cancelLabel(int pc) {
+        if (cancelLabels[pc] < 0) {
+            cancelLabels[pc] = newLabel();
+        }
+        return cancelLabels[pc];
+    }
+
+    // ---- Bytecode helpers ----
+
+    private int newLabel() {
+        labelPositions.add(-1);
+        return labelPositions.size() - 1;
+    }
+
+    private void place(int label) {
+        labelPositions.set(label, code.length);
+    }
+
+    private void jump(int opcode, int label) {
+        branches.add(new int[]{code.length, label});
+        code.u1(opcode);
+        code.u2(0);
+    }
+
+    // tableswitch over 0..labels.length - 1, its operands aligned to four bytes from the start of the code
+    private void tableSwitch(int defaultLabel, int[] labels) {
+        int at = code.length;
+        code.u1(0xaa);
+        while (code.length % 4 != 0) {
+            code.u1(0);
+        }
+        switchBranches.add(new int[]{at, code.length, defaultLabel});
+        code.u4(0);
+        code.u4(0);
+        code.u4(labels.length - 1);
+        for (int label : labels) {
+            switchBranches.add(new int[]{at, code.length, label});
+            code.u4(0);
+        }
+    }
+
+    private void iload(int local) {
+        local(0x15, 0x1a, local);
+    }
+
+    private void istore(int local) {
+        local(0x36, 0x3b, local);
+    }
+
+    private void aload(int local) {
+        local(0x19, 0x2a, local);
+    }
+
+    private void local(int opcode, int shortOpcode, int local) {
+        if (local <= 3) {
+            code.u1(shortOpcode + local);
+        } else if (local <= 255) {
+            code.u1(opcode);
+            code.u1(local);
+        } else {
+            code.u1(0xc4); // wide
+            code.u1(opcode);
+            code.u2(local);
+        }
+    }
+
+    private void iinc(int local, int delta) {
+        if (local <= 255 && delta >= -128 && delta <= 127) {
+            code.u1(0x84);
+            code.u1(local);
+            code.u1(delta);
+        } else {
+            code.u1(0xc4); // wide
+            code.u1(0x84);
+            code.u2(local);
+            code.u2(delta);
+        }
+    }
+
+    private void push(int value) {
+        if (value >= -1 && value <= 5) {
+            code.u1(0x03 + value); // iconst_<n>
+        } else if (value >= -128 && value <= 127) {
+            code.u1(0x10); // bipush
+            code.u1(value);
+        } else if (value >= -32768 && value <= 32767) {
+            code.u1(0x11); // sipush
+            code.u2(value);
+        } else {
+            code.u1(0x13); // ldc_w
+            code.u2(pool.integer(value));
+        }
+    }
+
+    private void invoke(int opcode, String owner, String name, String descriptor) {
+        code.u1(opcode);
+        code.u2(pool.methodRef(owner, name, descriptor));
+    }
+
+    // ---- Class file ----
+
+    private byte[] classFile() {
+        generateRun();
+        if (code.length > MAX_CODE_LENGTH) {
+            return null;
+        }
+        for (int[] branch : branches) {
+            code.patchU2(branch[0] + 1, labelPositions.get(branch[1]) - branch[0]);
+        }
+        for (int[] branch : switchBranches) {
+            code.patchU4(branch[1], labelPositions.get(branch[2]) - branch[0]);
+        }
+
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        int jitInterface = pool.classRef("com/program/JitCode");
+        int codeName = pool.utf8("Code");
+        int initName = pool.utf8("<init>");
+        int initDescriptor = pool.utf8("()V");
+        int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+        int runName = pool.utf8("run");
+        int runDescriptor = pool.utf8("([IIIIIL" + SUPPORT + ";)J");
+
+        Bytes out = new Bytes();
+        out.u4(0xCAFEBABE);
+        out.u2(0);
+        out.u2(49);
+        out.u2(pool.count);
+        out.append(pool.bytes);
+        out.u2(0x0031); // public final super
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(1);
+        out.u2(jitInterface);
+        out.u2(0); // fields
+        out.u2(2); // methods
+
+        // public <init>() { super(); }
+        Bytes init = new Bytes();
+        init.u1(0x2a); // aload_0
+        init.u1(0xb7); // invokespecial
+        init.u2(objectInit);
+        init.u1(0xb1); // return
+        method(out, initName, initDescriptor, codeName, 1, 1, init);
+
+        // public long run(int[] vars, int pc, int cycles, int maxCycles, int limit, JitSupport support)
+        method(out, runName, runDescriptor, codeName, 6, L_FIRST_SLOT + program.slotCount(), code);
+
+        out.u2(0); // class attributes
+        return Arrays.copyOf(out.data, out.length);
+    }
+
+    private static void method(Bytes out, int name, int descriptor, int codeName, int maxStack, int maxLocals, Bytes body) {
+        out.u2(0x0001); // public
+        out.u2(name);
+        out.u2(descriptor);
+        out.u2(1);
+        out.u2(codeName);
+        out.u4(12 + body.length);
+        out.u2(maxStack);
+        out.u2(maxLocals);
+        out.u4(body.length);
+        out.append(body);
+        out.u2(0); // exception table
+        out.u2(0); // code attributes
+    }
+
+    private static final class Bytes {
+        private byte[] data = new byte[1024];
+        private int length = 0;
+
+        void u1(int value) {
+            if (length == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >>> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        void append(Bytes other) {
+            for (int i = 0; i < other.length; i++) {
+                u1(other.data[i]);
+            }
+        }
+
+        void patchU2(int at, int value) {
+            data[at] = (byte) (value >>> 8);
+            data[at + 1] = (byte) value;
+        }
+
+        void patchU4(int at, int value) {
+            patchU2(at, value >>> 16);
+            patchU2(at + 2, value);
+        }
+    }
+
+    private static final class ConstantPool {
+        private final Bytes bytes = new Bytes();
+        private final HashMap<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            Integer index = entries.get("U" + value);
+            if (index != null) {
+                return index;
+            }
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            bytes.u1(1);
+            bytes.u2(encoded.length);
+            for (byte b : encoded) {
+                bytes.u1(b);
+            }
+            return register("U" + value);
+        }
+
+        int classRef(String internalName) {
+            return reference("C" + internalName, 7, utf8(internalName), -1);
+        }
+
+        int string(String value) {
+            return reference("S" + value, 8, utf8(value), -1);
+        }
+
+        int integer(int value) {
+            Integer index = entries.get("I" + value);
+            if (index != null) {
+                return index;
+            }
+            bytes.u1(3);
+            bytes.u4(value);
+            return register("I" + value);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int nameAndType = reference("N" + name + ":" + descriptor, 12, utf8(name), utf8(descriptor));
+            return reference("M" + owner + "." + name + ":" + descriptor, 10, classRef(owner), nameAndType);
+        }
+
+        private int reference(String key, int tag, int first, int second) {
+            Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            bytes.u1(tag);
+            bytes.u2(first);
+            if (second >= 0) {
+                bytes.u2(second);
+            }
+            return register(key);
+        }
+
+        private int register(String key) {
+            entries.put(key, count);
+            return count++;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.program;
+
+/*
+    Per-run services called back from generated JitCode: nested function calls, loop summarization, polling the
+    run's CancellationToken, and packing of the halt state. One instance per run at a time (CallStack reuses them),
+    never shared between threads.
+ */
+final class JitSupport {
+    // How a run of JitCode ended (see halt)
+    static final int DONE = 0;
+    // A step did not fit the limit it was given (the budget, or a slice's pause point within it)
+    static final int LIMIT = 1;
+    // Reached a QUOTE / JUMP_EQUAL_FUNCTION in a framed run, which leaves the call to the frame
+    static final int CALL = 2;
+    static final int CANCELLED = 3;
+
+    private final CompiledProgram program;
+    private LoopSummarizer loops = null;
+    private int lastCallCycles = 0;
+    // Instruction and cycle count of the call in progress, where the run halts if the call runs out of budget
+    private int callPc = 0;
+    private int callCycles = 0;
+    // The run's token (null when it cannot be cancelled), polled every CallStack.CHECK_INTERVAL loop iterations
+    private CancellationToken token = null;
+    private int untilCheck = CallStack.CHECK_INTERVAL;
+    // Set while the code runs a CallStack frame, where calls go back to the frame instead of being made here
+    private boolean framed = false;
+
+    JitSupport(CompiledProgram program) {
+        this.program = program;
+    }
+
+    CompiledProgram program() {
+        return program;
+    }
+
+    // Clears per-run state so the instance can serve another run of the same program
+    void reset() {
+        loops = null;
+        lastCallCycles = 0;
+        callPc = 0;
+        callCycles = 0;
+        token = null;
+        untilCheck = CallStack.CHECK_INTERVAL;
+        framed = false;
+    }
+
+    void setToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    void setFramed(boolean framed) {
+        this.framed = framed;
+    }
+
+    boolean framed() {
+        return framed;
+    }
+
+    /*
+        Runs the QUOTE / JUMP_EQUAL_FUNCTION callee at the given call site with what is left of the budget.
+        Throws CancellationException when the run's token stops the call.
+     */
+    int call(int callIndex, int[] vars, int pc, int cycles, int maxCycles) {
+        callPc = pc;
+        callCycles = cycles;
+        FunctionCallCache.Result res = CallStack.call(program.callSites[callIndex], vars, maxCycles - cycles);
+        lastCallCycles = (int) res.cycles();
+        return res.result();
+    }
+
+    int lastCallCycles() {
+        return lastCallCycles;
+    }
+
+    int callPc() {
+        return callPc;
+    }
+
+    int callCycles() {
+        return callCycles;
+    }
+
+    // Cycles charged by advancing the loop headed at pc (see LoopSummarizer.advance), or -1 once the token fires
+    int loop(int pc, int[] vars, int remainingCycles) {
+        if (token != null && --untilCheck == 0) {
+            untilCheck = CallStack.CHECK_INTERVAL;
+            if (token.shouldStop()) {
+                return -1;
+            }
+        }
+        if (loops == null) {
+            loops = new LoopSummarizer(program);
+        }
+        // Bytecode runs only with int budgets (see CompiledProgram.executeWithBudget), so the charge fits an int
+        return (int) loops.advance(pc, vars, remainingCycles);
+    }
+
+    long halt(int pc, int cycles, int status) {
+        return ((long) pc << 34) | ((long) status << 32) | (cycles & 0xffffffffL);
+    }
+
+    static int haltPc(long state) {
+        return (int) (state >>> 34);
+    }
+
+    static int haltStatus(long state) {
+        return (int) (state >>> 32) & 3;
+    }
+
+    static int haltCycles(long state) {
+        return (int) state;
+    }
+
+    static boolean haltExceeded(long state) {
+        return haltStatus(state) == LIMIT;
+    }
+}
@@ -0,0 +1,89 @@
+package com.program;
+
+import com.commands.BaseCommand;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Compiles a Program at expansion level N without materializing Program.expand(N).
+    Program.expand rewrites the whole command list once per level, drawing fresh variables and labels from two
+    counters in breadth-first order. Here each top-level command is expanded depth-first on its own and its
+    level-N commands are streamed straight into a ProgramCompiler, so only one root-to-leaf path of intermediate
+    commands is alive at a time and the result is the compact slot-indexed form.
+    To reproduce the exact fresh names (and therefore the exact variable set), every subtree starts with the
+    counter values the breadth-first expansion would have reached: a dry pass measures how many names each
+    top-level command consumes at each level, and inside a subtree every child starts where its preceding
+    siblings stopped.
+ */
+final class LevelCompiler {
+
+    private LevelCompiler() {}
+
+    static CompiledProgram compile(Program program, int level) {
+        List<BaseCommand> commands = program.commands;
+        int baseVariable = program.getMaxWorkVariable() + 1;
+        int baseLabel = program.getMaxLabel() + 1;
+
+        // Dry pass: names consumed per top-level command, [2k] variables and [2k+1] labels at expansion step k+1
+        int[] dryStarts = new int[2 * level];
+        for (int k = 0; k < level; k++) {
+            dryStarts[2 * k] = baseVariable;
+            dryStarts[2 * k + 1] = baseLabel;
+        }
+        int[][] used = new int[commands.size()][];
+        for (int i = 0; i < commands.size(); i++) {
+            used[i] = expand(commands.get(i), 0, level, dryStarts.clone(), null);
+        }
+
+        // Counters are never reset between levels, so step k+1 starts where step k ended
+        int[] cursor = new int[2 * level];
+        cursor[0] = baseVariable;
+        cursor[1] = baseLabel;
+        for (int k = 1; k < level; k++) {
+            cursor[2 * k] = cursor[2 * k - 2];
+            cursor[2 * k + 1] = cursor[2 * k - 1];
+            for (int[] u : used) {
+                cursor[2 * k] += u[2 * k - 2];
+                cursor[2 * k + 1] += u[2 * k - 1];
+            }
+        }
+
+        ProgramCompiler compiler = ProgramCompiler.streaming();
+        for (int i = 0; i < commands.size(); i++) {
+            expand(commands.get(i), 0, level, cursor.clone(), compiler);
+            for (int k = 0; k < 2 * level; k++) {
+                cursor[k] += used[i][k];
+            }
+        }
+        return compiler.build();
+    }
+
+    /*
+        Expands a command sitting at the given depth down to the target level, drawing names from starts
+        (per expansion step), and appends the resulting commands to compiler (null for a dry pass).
+        Returns the names consumed per expansion step by the whole subtree.
+     */
+    private static int[] expand(BaseCommand command, int depth, int level, int[] starts, ProgramCompiler compiler) {
+        int[] used = new int[2 * level];
+        if (depth == level) {
+            if (compiler != null) {
+                compiler.append(command);
+            }
+            return used;
+        }
+        AtomicInteger nextAvailableVariable = new AtomicInteger(starts[2 * depth]);
+        AtomicInteger nextAvailableLabel = new AtomicInteger(starts[2 * depth + 1]);
+        List<BaseCommand> children = command.expand(nextAvailableVariable, nextAvailableLabel, new AtomicInteger(0));
+        used[2 * depth] = nextAvailableVariable.get() - starts[2 * depth];
+        used[2 * depth + 1] = nextAvailableLabel.get() - starts[2 * depth + 1];
+        for (BaseCommand child : children) {
+            int[] childUsed = expand(child, depth + 1, level, starts.clone(), compiler);
+            for (int k = 2 * (depth + 1); k < 2 * level; k++) {
+                starts[k] += childUsed[k];
+                used[k] += childUsed[k];
+            }
+        }
+        return used;
+    }
+}
@@ -0,0 +1,233 @@
+package com.program;
+
+import com.dto.api.ProgramResult;
+
+import java.util.List;
+
+/*
+    Lockstep execution of one compiled program over many inputs at once.
+    Each lane keeps its own variable row (vars[lane][slot]), pc, cycle counter and budget.
+    A round picks the lowest pc among the live lanes and executes that instruction for every lane sitting on it
+    (the round's mask), one tight loop per instruction over the selected lanes; lanes that branch differently simply
+    end up on different pcs and are picked up by later rounds, and taking the lowest pc first lets them reconverge
+    after a loop. Fused blocks and loop summaries (one LoopSummarizer shared by all lanes) are applied per lane as in
+    the scalar engine. Lanes that finish or run out of budget are retired by swapping them behind the live ones, so the
+    live lanes stay dense.
+    Only programs without nested calls (no QUOTE / JUMP_EQUAL_FUNCTION) run here; results, cycles and halt indices
+    match CompiledProgram.executeWithBudget for each lane.
+ */
+final class LockstepExecution {
+    private static final int RUNNING = 0;
+    private static final int FINISHED = 1;
+    private static final int EXCEEDED = 2;
+
+    private final CompiledProgram code;
+    private final List<List<Integer>> inputs;
+    private final int[][] vars;
+    private final int[] pc;
+    private final long[] cycles;
+    private final long[] maxCycles;
+    private final int[] status;
+    private final int[] inputIndex; // lane -> position in inputs
+    private final LoopSummarizer loops;
+    private final int[] selected;
+    private final int[] fallback;
+    private final ProgramResult[] results;
+    private int live;
+
+    private LockstepExecution(CompiledProgram code, List<List<Integer>> inputs, long[] budgets) {
+        int lanes = inputs.size();
+        this.code = code;
+        this.inputs = inputs;
+        this.vars = new int[lanes][code.slotCount()];
+        this.loops = new LoopSummarizer(code);
+        this.pc = new int[lanes];
+        this.cycles = new long[lanes];
+        this.maxCycles = budgets.clone();
+        this.status = new int[lanes];
+        this.inputIndex = new int[lanes];
+        this.selected = new int[lanes];
+        this.fallback = new int[lanes];
+        this.results = new ProgramResult[lanes];
+        this.live = lanes;
+        for (int lane = 0; lane < lanes; lane++) {
+            inputIndex[lane] = lane;
+            List<Integer> input = inputs.get(lane);
+            for (int i = 0; i < input.size() && i < code.inputSlots.length; i++) {
+                if (code.inputSlots[i] >= 0) {
+                    vars[lane][code.inputSlots[i]] = input.get(i);
+                }
+            }
+        }
+    }
+
+    // Whether code can run here: every instruction is local to the program
+    static boolean supports(CompiledProgram code) {
+        for (int opcode : code.opcodes) {
+            if (opcode == CompiledProgram.OP_QUOTE || opcode == CompiledProgram.OP_JUMP_EQUAL_FUNCTION) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Runs every input with its own budget (budgets[i] for inputs.get(i)); results are in input order
+    static ProgramResult[] run(CompiledProgram code, List<List<Integer>> inputs, long[] budgets) {
+        if (!supports(code)) {
+            throw new IllegalArgumentException("Lockstep execution does not support nested function calls");
+        }
+        LockstepExecution run = new LockstepExecution(code, inputs, budgets);
+        run.retire();
+        while (run.live > 0) {
+            run.round();
+            run.retire();
+        }
+        return run.results;
+    }
+
+    private void round() {
+        int p = Integer.MAX_VALUE;
+        for (int lane = 0; lane < live; lane++) {
+            p = Math.min(p, pc[lane]);
+        }
+        int count = 0;
+        for (int lane = 0; lane < live; lane++) {
+            if (pc[lane] == p) {
+                selected[count++] = lane;
+            }
+        }
+        if (code.loopHeaders[p]) {
+            // Leaves every lane at the header, as in the scalar engine
+            for (int i = 0; i < count; i++) {
+                int lane = selected[i];
+                cycles[lane] += loops.advance(p, vars[lane], maxCycles[lane] - cycles[lane]);
+            }
+        }
+        int[] effects = code.blockEffects[p];
+        if (effects != null) {
+            count = block(p, effects, count);
+        }
+        if (count > 0) {
+            step(p, effects != null ? fallback : selected, count);
+        }
+    }
+
+    // Applies the fused block at p to the lanes that can take it whole; returns how many are left in fallback
+    private int block(int p, int[] effects, int count) {
+        int end = code.blockEnd[p];
+        int cost = code.blockCycles[p];
+        int left = 0;
+        for (int i = 0; i < count; i++) {
+            int lane = selected[i];
+            int[] v = vars[lane];
+            boolean fits = cycles[lane] + cost <= maxCycles[lane];
+            for (int e = 0; fits && e < effects.length; e += 3) {
+                fits = v[effects[e]] >= 0;
+            }
+            if (!fits) {
+                fallback[left++] = lane;
+                continue;
+            }
+            for (int e = 0; e < effects.length; e += 3) {
+                v[effects[e]] = (int) Math.max((long) v[effects[e]] + effects[e + 1], effects[e + 2]);
+            }
+            cycles[lane] += cost;
+            pc[lane] = end;
+        }
+        return left;
+    }
+
+    // Executes the single instruction at p for the given lanes
+    private void step(int p, int[] lanes, int count) {
+        int opcode = code.opcodes[p];
+        int cost = code.cycles[p];
+        int a = code.operandA[p];
+        int b = code.operandB[p];
+        int target = code.targets[p];
+        switch (opcode) {
+            case CompiledProgram.OP_NEUTRAL, CompiledProgram.OP_INCREASE, CompiledProgram.OP_DECREASE,
+                 CompiledProgram.OP_ZERO_VARIABLE, CompiledProgram.OP_ASSIGNMENT, CompiledProgram.OP_CONSTANT_ASSIGNMENT -> {
+                for (int i = 0; i < count; i++) {
+                    int lane = lanes[i];
+                    if (cycles[lane] + cost > maxCycles[lane]) {
+                        status[lane] = EXCEEDED;
+                        continue;
+                    }
+                    int[] v = vars[lane];
+                    switch (opcode) {
+                        case CompiledProgram.OP_INCREASE -> v[a]++;
+                        case CompiledProgram.OP_DECREASE -> {
+                            if (v[a] != 0) v[a]--;
+                        }
+                        case CompiledProgram.OP_ZERO_VARIABLE -> v[a] = 0;
+                        case CompiledProgram.OP_ASSIGNMENT -> v[a] = v[b];
+                        case CompiledProgram.OP_CONSTANT_ASSIGNMENT -> v[a] = b;
+                        default -> { }
+                    }
+                    cycles[lane] += cost;
+                    pc[lane] = p + 1;
+                }
+            }
+            case CompiledProgram.OP_GOTO_LABEL, CompiledProgram.OP_JUMP_NOT_ZERO, CompiledProgram.OP_JUMP_ZERO,
+                 CompiledProgram.OP_JUMP_EQUAL_CONSTANT, CompiledProgram.OP_JUMP_EQUAL_VARIABLE -> {
+                for (int i = 0; i < count; i++) {
+                    int lane = lanes[i];
+                    int[] v = vars[lane];
+                    boolean taken = switch (opcode) {
+                        case CompiledProgram.OP_GOTO_LABEL -> true;
+                        case CompiledProgram.OP_JUMP_NOT_ZERO -> v[a] > 0;
+                        case CompiledProgram.OP_JUMP_ZERO -> v[a] == 0;
+                        case CompiledProgram.OP_JUMP_EQUAL_CONSTANT -> v[a] == b;
+                        default -> v[a] == v[b];
+                    };
+                    if (taken && target == CompiledProgram.EXIT) {
+                        status[lane] = FINISHED;
+                        continue;
+                    }
+                    if (taken && target < 0) {
+                        throw new IllegalArgumentException("Target Label is not in list");
+                    }
+                    if (cycles[lane] + cost > maxCycles[lane]) {
+                        status[lane] = EXCEEDED;
+                        continue;
+                    }
+                    cycles[lane] += cost;
+                    pc[lane] = taken ? target : p + 1;
+                }
+            }
+            default -> throw new IllegalStateException("Unknown opcode: " + opcode);
+        }
+    }
+
+    // Records and removes every lane that has finished or run out of budget
+    private void retire() {
+        int size = code.size();
+        for (int lane = live - 1; lane >= 0; lane--) {
+            if (status[lane] == RUNNING && pc[lane] >= size) {
+                status[lane] = FINISHED;
+            }
+            if (status[lane] == RUNNING) {
+                continue;
+            }
+            List<Integer> input = inputs.get(inputIndex[lane]);
+            ProgramResult.HaltReason reason = status[lane] == EXCEEDED
+                    ? ProgramResult.HaltReason.INSUFFICIENT_CREDITS : ProgramResult.HaltReason.FINISHED;
+            results[inputIndex[lane]] = new ProgramResult(cycles[lane], code.variableToValue(vars[lane], input), pc[lane], false, reason);
+            swap(lane, --live);
+        }
+    }
+
+    private void swap(int i, int j) {
+        if (i == j) {
+            return;
+        }
+        int[] row = vars[i]; vars[i] = vars[j]; vars[j] = row;
+        long c;
+        c = cycles[i]; cycles[i] = cycles[j]; cycles[j] = c;
+        c = maxCycles[i]; maxCycles[i] = maxCycles[j]; maxCycles[j] = c;
+        int t;
+        t = pc[i]; pc[i] = pc[j]; pc[j] = t;
+        t = status[i]; status[i] = status[j]; status[j] = t;
+        t = inputIndex[i]; inputIndex[i] = inputIndex[j]; inputIndex[j] = t;
+    }
+}
@@ -0,0 +1,236 @@
+package com.program;
+
+import java.util.Arrays;
+
+/*
+    Loop summarization for the compiled engine.
+    At a loop header it records the path one iteration takes (INCREASE / DECREASE / NEUTRAL / ZERO_VARIABLE /
+    CONSTANT_ASSIGNMENT plus the JUMP_NOT_ZERO / JUMP_ZERO / GOTO_LABEL decisions) as a Trace.
+    Over non-negative values each of those commands is v -> max(v + add, floor), so k iterations of the path have
+    a closed form per variable and every guard on the path is monotone in k. The number of iterations that follow
+    the same path is then found by binary search and the loop is advanced by that many iterations at once,
+    charging exactly the cycles the step-by-step run would have charged.
+    One instance belongs to a single run (it caches traces per header), so it is never shared between threads.
+ */
+final class LoopSummarizer {
+    private static final int MAX_TRACE_LENGTH = 256;
+    // Headers that fail to summarize this many times in a row are left to the normal loop
+    private static final int MAX_MISSES = 16;
+    // Stand-ins for -infinity: "no floor" and "old value discarded" (any v + DISCARD is below every floor >= 0)
+    private static final long NO_FLOOR = Long.MIN_VALUE / 4;
+    private static final long DISCARD = -(1L << 32);
+
+    private static final int GUARD_NOT_ZERO = 0;
+    private static final int GUARD_ZERO = 1;
+
+    // One iteration of a loop: per-slot effect of the whole path, and the guards met along it
+    private record Trace(int[] slots, long[] add, long[] floor,
+                         int[] guardSlot, int[] guardKind, long[] guardAdd, long[] guardFloor,
+                         long[] guardIterAdd, long[] guardIterFloor, int cycles) {}
+
+    private final CompiledProgram program;
+    private final Trace[] traces;
+    private final int[] misses;
+
+    LoopSummarizer(CompiledProgram program) {
+        this.program = program;
+        this.traces = new Trace[program.size()];
+        this.misses = new int[program.size()];
+    }
+
+    /*
+        Advances the loop headed at pc by as many whole iterations as follow the same path and fit in the remaining
+        budget. Updates vars in place and returns the cycles charged (0 if nothing was done); pc stays at the header.
+     */
+    long advance(int pc, int[] vars, long remainingCycles) {
+        if (misses[pc] >= MAX_MISSES) {
+            return 0;
+        }
+        Trace trace = traces[pc];
+        long iterations = trace == null ? 0 : iterations(trace, vars, remainingCycles);
+        if (iterations == 0) {
+            trace = build(pc, vars);
+            traces[pc] = trace;
+            iterations = trace == null ? 0 : iterations(trace, vars, remainingCycles);
+        }
+        if (iterations < 2) {
+            misses[pc]++;
+            return 0;
+        }
+        misses[pc] = 0;
+        for (int i = 0; i < trace.slots().length; i++) {
+            int slot = trace.slots()[i];
+            vars[slot] = (int) power(vars[slot], trace.add()[i], trace.floor()[i], iterations);
+        }
+        return iterations * trace.cycles();
+    }
+
+    // Number of whole iterations (from the current state) that follow the trace's path and fit in the budget
+    private static long iterations(Trace trace, int[] vars, long remainingCycles) {
+        long cap = remainingCycles / trace.cycles();
+        if (cap <= 0) {
+            return 0;
+        }
+        for (int slot : trace.slots()) {
+            if (vars[slot] < 0) return 0;
+        }
+        for (int slot : trace.guardSlot()) {
+            if (vars[slot] < 0) return 0;
+        }
+        if (!holds(trace, vars, 0)) {
+            return 0;
+        }
+        if (holds(trace, vars, cap - 1)) {
+            return cap;
+        }
+        // holds(lo) && !holds(hi); the predicate is prefix-closed because every sequence involved is monotone
+        long lo = 0;
+        long hi = cap - 1;
+        while (hi - lo > 1) {
+            long mid = lo + (hi - lo) / 2;
+            if (holds(trace, vars, mid)) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return hi;
+    }
+
+    // Whether iteration k (0-based) takes the recorded path and keeps every value in int range
+    private static boolean holds(Trace trace, int[] vars, long k) {
+        for (int g = 0; g < trace.guardSlot().length; g++) {
+            long atHeader = power(vars[trace.guardSlot()[g]], trace.guardIterAdd()[g], trace.guardIterFloor()[g], k);
+            long value = Math.max(atHeader + trace.guardAdd()[g], trace.guardFloor()[g]);
+            boolean zero = value == 0;
+            if (zero != (trace.guardKind()[g] == GUARD_ZERO)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < trace.slots().length; i++) {
+            if (power(vars[trace.slots()[i]], trace.add()[i], trace.floor()[i], k + 1) > Integer.MAX_VALUE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // k-fold application of v -> max(v + add, floor) to v >= 0
+    private static long power(long v, long add, long floor, long k) {
+        if (k == 0) {
+            return v;
+        }
+        if (add >= 0) {
+            return Math.max(v + k * add, floor + (k - 1) * add);
+        }
+        // A negative add always comes with a floor >= 0 (DECREASE / ZERO_VARIABLE / CONSTANT_ASSIGNMENT),
+        // so stop counting once the value has gone below zero
+        long steps = Math.min(k, v / -add + 1);
+        return Math.max(v + steps * add, floor);
+    }
+
+    // Walks one iteration from the header using the current values to decide branches; null if the path is unsupported
+    private Trace build(int header, int[] vars) {
+        int slotCount = program.slotCount();
+        long[] add = new long[slotCount];
+        long[] floor = new long[slotCount];
+        Arrays.fill(floor, NO_FLOOR);
+        boolean[] touched = new boolean[slotCount];
+        int touchedCount = 0;
+        int[] guardSlot = new int[MAX_TRACE_LENGTH];
+        int[] guardKind = new int[MAX_TRACE_LENGTH];
+        long[] guardAdd = new long[MAX_TRACE_LENGTH];
+        long[] guardFloor = new long[MAX_TRACE_LENGTH];
+        int guards = 0;
+        int cycles = 0;
+        int pc = header;
+        int steps = 0;
+        do {
+            if (steps++ >= MAX_TRACE_LENGTH || pc < 0 || pc >= program.size()) {
+                return null;
+            }
+            int a = program.operandA[pc];
+            int op = program.opcodes[pc];
+            switch (op) {
+                case CompiledProgram.OP_NEUTRAL -> pc++;
+                case CompiledProgram.OP_INCREASE, CompiledProgram.OP_DECREASE,
+                     CompiledProgram.OP_ZERO_VARIABLE, CompiledProgram.OP_CONSTANT_ASSIGNMENT -> {
+                    if (vars[a] < 0 || (op == CompiledProgram.OP_CONSTANT_ASSIGNMENT && program.operandB[pc] < 0)) {
+                        return null;
+                    }
+                    long opAdd = switch (op) {
+                        case CompiledProgram.OP_INCREASE -> 1;
+                        case CompiledProgram.OP_DECREASE -> -1;
+                        default -> DISCARD;
+                    };
+                    long opFloor = switch (op) {
+                        case CompiledProgram.OP_INCREASE -> NO_FLOOR;
+                        case CompiledProgram.OP_CONSTANT_ASSIGNMENT -> program.operandB[pc];
+                        default -> 0;
+                    };
+                    // max(max(v + a1, b1) + a2, b2) = max(v + (a1 + a2), max(b1 + a2, b2))
+                    floor[a] = Math.max(Math.max(floor[a] + opAdd, opFloor), NO_FLOOR);
+                    add[a] = Math.max(add[a] + opAdd, DISCARD);
+                    if (!touched[a]) {
+                        touched[a] = true;
+                        touchedCount++;
+                    }
+                    pc++;
+                }
+                case CompiledProgram.OP_JUMP_NOT_ZERO, CompiledProgram.OP_JUMP_ZERO -> {
+                    if (vars[a] < 0) {
+                        return null;
+                    }
+                    boolean zero = Math.max(vars[a] + add[a], floor[a]) == 0;
+                    guardSlot[guards] = a;
+                    guardKind[guards] = zero ? GUARD_ZERO : GUARD_NOT_ZERO;
+                    guardAdd[guards] = add[a];
+                    guardFloor[guards] = floor[a];
+                    guards++;
+                    cycles += program.cycles[pc];
+                    boolean taken = (op == CompiledProgram.OP_JUMP_ZERO) == zero;
+                    if (taken) {
+                        pc = program.targets[pc];
+                    } else {
+                        pc++;
+                    }
+                    continue;
+                }
+                case CompiledProgram.OP_GOTO_LABEL -> {
+                    cycles += program.cycles[pc];
+                    pc = program.targets[pc];
+                    continue;
+                }
+                default -> {
+                    return null;
+                }
+            }
+            cycles += program.cycles[pc - 1];
+        } while (pc != header);
+        if (cycles <= 0) {
+            return null;
+        }
+        int[] slots = new int[touchedCount];
+        long[] iterAdd = new long[touchedCount];
+        long[] iterFloor = new long[touchedCount];
+        int i = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (touched[slot]) {
+                slots[i] = slot;
+                iterAdd[i] = add[slot];
+                iterFloor[i] = floor[slot];
+                i++;
+            }
+        }
+        long[] guardIterAdd = new long[guards];
+        long[] guardIterFloor = new long[guards];
+        for (int g = 0; g < guards; g++) {
+            guardIterAdd[g] = add[guardSlot[g]];
+            guardIterFloor[g] = floor[guardSlot[g]];
+        }
+        return new Trace(slots, iterAdd, iterFloor,
+                Arrays.copyOf(guardSlot, guards), Arrays.copyOf(guardKind, guards),
+                Arrays.copyOf(guardAdd, guards), Arrays.copyOf(guardFloor, guards),
+                guardIterAdd, guardIterFloor, cycles);
+    }
+}
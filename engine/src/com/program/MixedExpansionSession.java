@@ -1,6 +1,7 @@
 package com.program;
 
 import com.commands.BaseCommand;
+import com.commands.Names;
 import com.dto.CommandTreeNodeDto;
 import com.dto.ProgramTreeDto;
 
@@ -49,12 +50,12 @@ public class MixedExpansionSession {
             int maxWorkVar = 0;
             for (Node n : levelNodes){
                 String label = n.command.getLabel();
-                if (label != null && label.startsWith("L")){
-                    try { maxLabel = Math.max(maxLabel, Integer.parseInt(label.substring(1))); } catch (NumberFormatException ignored) {}
+                if (label != null){
+                    maxLabel = Math.max(maxLabel, Names.labelNumber(label));
                 }
                 for (String var : n.command.getPresentVariables()){
-                    if (var != null && var.startsWith("z")){
-                        try { maxWorkVar = Math.max(maxWorkVar, Integer.parseInt(var.substring(1))); } catch (NumberFormatException ignored) {}
+                    if (var != null){
+                        maxWorkVar = Math.max(maxWorkVar, Names.workNumber(var));
                     }
                 }
             }
@@ -1,15 +1,18 @@
 package com.program;
 
 import com.XMLHandlerV2.SInstruction;
+import com.dto.api.CostEstimate;
 import com.dto.api.ProgramResult;
 import com.dto.api.ProgramSummary;
 import com.commands.BaseCommand;
 import com.commands.CommandFactory;
+import com.commands.Names;
 import com.commands.Variable;
 import com.dto.CommandTreeNodeDto;
 import com.dto.ProgramTreeDto;
 
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -21,11 +24,25 @@ public class Program implements Serializable {
     HashMap<String, Integer> labelToIndex;
     List<String> inputVariables;
     List<String> labels;
-    boolean isMidDebug = false;
-    ProgramState debugState = null;
     ProgramSummary summary = null;
+    // Slot-indexed execution form, built lazily and dropped whenever the command list changes
+    private transient volatile CompiledProgram compiled = null;
+    // Compiled forms of expand(level) for level > 0, streamed by LevelCompiler; dropped with the command list.
+    // They inline callee bodies, so they are also dropped when a function this program calls is registered again
+    // (see checkLinks)
+    private transient volatile Map<Integer, CompiledProgram> compiledByLevel = null;
+    // Results of expand(level), each a read-only image shared by every caller; dropped with the command list, and
+    // with compiledByLevel, since they inline callee bodies. Held softly, so they give way under memory pressure
+    private transient volatile Map<Integer, SoftReference<Expansion>> expansions = null;
+    // Registry state compiledByLevel and expansions were last checked against; null until they are first used
+    private transient volatile FunctionRegistry.LinkStamp linkStamp = null;
+    // Variable layout for new ProgramStates, built lazily and dropped with the command list
+    private transient volatile ProgramState.Template stateTemplate = null;
     // Tracks in-place expansions for mixed tree view: each span replaces a single parent
     private final List<ExpansionSpan> expansionSpans = new ArrayList<>();
+    // Set once the registry hands this instance out; from then on it is a read-only image shared by every user
+    // and run (debugging goes through DebugSession), and edits have to be made on a copy
+    private transient volatile boolean shared = false;
 
     public Program(String name, List<com.commands.BaseCommand> commands){
         this.name = name;
@@ -47,25 +64,56 @@ public class Program implements Serializable {
     private void createSummary(List<com.commands.BaseCommand> commands){
         List<Integer> architectureCommandsCount = new ArrayList<>(List.of(0, 0, 0, 0));
         for(BaseCommand command : commands){
-            switch (command.getArchitecture()){
-                case "I" -> architectureCommandsCount.set(0, architectureCommandsCount.get(0) + 1);
-                case "II" -> architectureCommandsCount.set(1, architectureCommandsCount.get(1) + 1);
-                case "III" -> architectureCommandsCount.set(2, architectureCommandsCount.get(2) + 1);
-                case "IV" -> architectureCommandsCount.set(3, architectureCommandsCount.get(3) + 1);
-            }
+            countArchitecture(architectureCommandsCount, command);
+        }
+        summary = new ProgramSummary(architectureCommandsCount);
+    }
+
+    // The summary with command counted in; the commands already counted are not gone over again
+    private void addToSummary(BaseCommand command){
+        List<Integer> architectureCommandsCount = new ArrayList<>(4);
+        for (int i = 0; i < 4; i++){
+            architectureCommandsCount.add(summary.getArchitectureCommandsCount(i));
         }
+        countArchitecture(architectureCommandsCount, command);
         summary = new ProgramSummary(architectureCommandsCount);
     }
 
+    private static void countArchitecture(List<Integer> architectureCommandsCount, BaseCommand command){
+        switch (command.getArchitecture()){
+            case "I" -> architectureCommandsCount.set(0, architectureCommandsCount.get(0) + 1);
+            case "II" -> architectureCommandsCount.set(1, architectureCommandsCount.get(1) + 1);
+            case "III" -> architectureCommandsCount.set(2, architectureCommandsCount.get(2) + 1);
+            case "IV" -> architectureCommandsCount.set(3, architectureCommandsCount.get(3) + 1);
+        }
+    }
+
     public ProgramSummary getSummary(){
         return summary;
     }
 
+    public boolean isShared(){
+        return shared;
+    }
+
+    void markShared(){
+        shared = true;
+    }
+
+    private void ensureEditable(){
+        if (shared){
+            throw new IllegalStateException("Program " + name + " is shared and cannot be edited; edit a copy");
+        }
+    }
+
     public void addCommand(com.commands.BaseCommand command){
+        ensureEditable();
         commands.add(command);
-        // Keep derived structures and summary up to date after mutations
-        unpackCommands();
-        createSummary(commands);
+        // Keep derived structures and summary up to date after mutations; only the new command has to be indexed,
+        // so building a program one command at a time stays linear
+        dropDerivedForms();
+        indexCommand(commands.size() - 1);
+        addToSummary(command);
     }
 
     /*
@@ -77,201 +125,273 @@ public class Program implements Serializable {
 
     // Legacy execute/debug methods removed in favor of budget-only APIs
 
+    /*
+        Nested call of this function with at most budget cycles (the caller's remaining budget), memoized per
+        argument vector by FunctionCallCache. If it cannot finish within budget the calling run halts on the
+        calling instruction with INSUFFICIENT_CREDITS.
+     */
+    public FunctionCallCache.Result call(List<Integer> args, long budget){
+        return FunctionCallCache.call(this, args, budget);
+    }
+
     // ===== Budget-only execution APIs =====
-    public ProgramResult executeWithBudget(List<Integer> input, int maxCycles){
-        ProgramState programState = new ProgramState(input, presentVariables, commands, labelToIndex);
+    public ProgramResult executeWithBudget(List<Integer> input, long maxCycles){
+        return executeWithBudget(input, maxCycles, ExecutionMode.RUN);
+    }
+
+    // A RUN that halts with CANCELLED, keeping the state it reached, once token fires (nested calls included)
+    public ProgramResult executeWithBudget(List<Integer> input, long maxCycles, CancellationToken token){
+        return getCompiled().executeWithBudget(input, maxCycles, token);
+    }
+
+    /*
+        RUN keeps no undo journal: the compiled form only remembers the current step for the budget guard,
+        so memory is O(variables) regardless of how many cycles the run takes.
+        DEBUG runs the command interpreter with a full step journal.
+     */
+    public ProgramResult executeWithBudget(List<Integer> input, long maxCycles, ExecutionMode mode){
+        if (mode == ExecutionMode.RUN){
+            return getCompiled().executeWithBudget(input, maxCycles);
+        }
+        ProgramState programState = new ProgramState(input, stateTemplate(), commands, labelToIndex, mode);
+        programState.maxCycles = maxCycles;
         while (!programState.done && programState.currentCommandIndex < commands.size()){
             BaseCommand command = commands.get(programState.currentCommandIndex);
-            command.execute(programState);
+            try {
+                command.execute(programState);
+            } catch (BudgetExceededException e){
+                // Nested call ran out of budget before the command changed anything
+                return new ProgramResult(programState.cyclesCount, variableToValue(programState), programState.currentCommandIndex, false, com.dto.api.ProgramResult.HaltReason.INSUFFICIENT_CREDITS);
+            }
             if (programState.cyclesCount > maxCycles){
-                rollbackLastStep(programState);
+                programState.undoLastStep();
                 return new ProgramResult(programState.cyclesCount, variableToValue(programState), programState.currentCommandIndex, false, com.dto.api.ProgramResult.HaltReason.INSUFFICIENT_CREDITS);
             }
         }
         return new ProgramResult(programState.cyclesCount, variableToValue(programState), programState.currentCommandIndex, false, com.dto.api.ProgramResult.HaltReason.FINISHED);
     }
 
-    // Legacy startDebug removed; use startDebugWithBudget
-
-    public ProgramResult startDebugWithBudget(List<Integer> input, List<Integer> breakpoints, int maxCycles){
-        // Initialize and run to first breakpoint (or end)
-        ProgramState programState = new ProgramState(input, presentVariables, commands, labelToIndex);
-        programState.initialBreakpoints(breakpoints);
-        ProgramResult res = runToBreakpoint(programState);
-        // If exceeded budget, revert one step and report insufficient credits
-        if (debugState != null && debugState.cyclesCount > maxCycles){
-            rollbackLastStep(debugState);
-            return new ProgramResult(debugState.cyclesCount, variableToValue(debugState), debugState.currentCommandIndex, true, com.dto.api.ProgramResult.HaltReason.INSUFFICIENT_CREDITS);
+    ProgramState.Template stateTemplate(){
+        ProgramState.Template t = stateTemplate;
+        if (t == null){
+            t = new ProgramState.Template(presentVariables);
+            stateTemplate = t;
         }
-        if (!res.isDebug()){
-            // Finished normally within budget
-            return new ProgramResult(res.getCycles(), (HashMap<String,Integer>) res.getVariableToValue().stream().collect(java.util.stream.Collectors.toMap(com.dto.api.ProgramResult.VariableToValue::variable, com.dto.api.ProgramResult.VariableToValue::value, (a,b)->a, java.util.HashMap::new)), res.getDebugIndex(), false, com.dto.api.ProgramResult.HaltReason.FINISHED);
+        return t;
+    }
+
+    public CompiledProgram getCompiled(){
+        CompiledProgram c = compiled;
+        if (c == null){
+            c = ProgramCompiler.compile(this);
+            compiled = c;
         }
-        // Still debugging and within budget
-        return new ProgramResult(res.getCycles(), (HashMap<String,Integer>) res.getVariableToValue().stream().collect(java.util.stream.Collectors.toMap(com.dto.api.ProgramResult.VariableToValue::variable, com.dto.api.ProgramResult.VariableToValue::value, (a,b)->a, java.util.HashMap::new)), res.getDebugIndex(), true, com.dto.api.ProgramResult.HaltReason.STOPPED_MANUALLY);
+        return c;
     }
 
-    // Legacy stepOver removed; use stepOverWithBudget
+    /*
+        Same result as expand(expansionLevel).executeWithBudget(...) - cycles, variable set, halt index -
+        but the expansion is never built as a command list.
+     */
+    public ProgramResult executeAtLevel(List<Integer> input, int expansionLevel, long maxCycles){
+        return getCompiled(expansionLevel).executeWithBudget(input, maxCycles);
+    }
 
-    public ProgramResult stepOverWithBudget(int maxCycles){
-        // Perform a single debug step
-        ProgramState programState = debugState;
-        BaseCommand command = commands.get(programState.currentCommandIndex);
-        command.execute(programState);
-        boolean stillDebug = !programState.done && programState.currentCommandIndex < commands.size();
-        debugState = programState;
-        ProgramResult res = new ProgramResult(programState.cyclesCount, variableToValue(programState), programState.currentCommandIndex, stillDebug);
-        if (debugState != null && debugState.cyclesCount > maxCycles){
-            rollbackLastStep(debugState);
-            return new ProgramResult(debugState.cyclesCount, variableToValue(debugState), debugState.currentCommandIndex, true, com.dto.api.ProgramResult.HaltReason.INSUFFICIENT_CREDITS);
-        }
-        if (!res.isDebug()){
-            return new ProgramResult(res.getCycles(), (HashMap<String,Integer>) res.getVariableToValue().stream().collect(java.util.stream.Collectors.toMap(com.dto.api.ProgramResult.VariableToValue::variable, com.dto.api.ProgramResult.VariableToValue::value, (a,b)->a, java.util.HashMap::new)), res.getDebugIndex(), false, com.dto.api.ProgramResult.HaltReason.FINISHED);
-        }
-        return new ProgramResult(res.getCycles(), (HashMap<String,Integer>) res.getVariableToValue().stream().collect(java.util.stream.Collectors.toMap(com.dto.api.ProgramResult.VariableToValue::variable, com.dto.api.ProgramResult.VariableToValue::value, (a,b)->a, java.util.HashMap::new)), res.getDebugIndex(), true, com.dto.api.ProgramResult.HaltReason.STOPPED_MANUALLY);
+    // As executeAtLevel, halting with CANCELLED once token fires (nested calls included)
+    public ProgramResult executeAtLevel(List<Integer> input, int expansionLevel, long maxCycles, CancellationToken token){
+        return getCompiled(expansionLevel).executeWithBudget(input, maxCycles, token);
     }
 
-    // Legacy continueDebug removed; use continueDebugWithBudget
+    /*
+        Cycles a run at expansionLevel on input would take, as far as they can be told without running it to the end
+        (see CostAnalyzer); with input null the bounds hold for every input. A run that cannot finish within limit
+        cycles is reported as needing limit + 1.
+     */
+    public CostEstimate estimateCost(int expansionLevel, List<Integer> input, long limit){
+        return CostAnalyzer.estimate(getCompiled(expansionLevel), input, limit);
+    }
 
-    public ProgramResult continueDebugWithBudget(int maxCycles){
-        //Always perform at least 1 step, and then continue debugging to next breakpoint or end
-        ProgramState programState = debugState;
-        BaseCommand command = commands.get(programState.currentCommandIndex);
-        command.execute(programState);
-        if(programState.done || programState.currentCommandIndex >= commands.size()){
-            isMidDebug = false;
-            debugState = null;
-            ProgramResult res = new ProgramResult(programState.cyclesCount, variableToValue(programState), programState.currentCommandIndex, false);
-            // Budget check after finishing step
-            if (programState.cyclesCount > maxCycles){
-                rollbackLastStep(programState);
-                debugState = programState; // remain in debug mode since not finished due to budget
-                isMidDebug = true;
-                return new ProgramResult(debugState.cyclesCount, variableToValue(debugState), debugState.currentCommandIndex, true, com.dto.api.ProgramResult.HaltReason.INSUFFICIENT_CREDITS);
-            }
-            return new ProgramResult(res.getCycles(), (HashMap<String,Integer>) res.getVariableToValue().stream().collect(java.util.stream.Collectors.toMap(com.dto.api.ProgramResult.VariableToValue::variable, com.dto.api.ProgramResult.VariableToValue::value, (a,b)->a, java.util.HashMap::new)), res.getDebugIndex(), false, com.dto.api.ProgramResult.HaltReason.FINISHED);
-        }
-        ProgramResult res = runToBreakpoint(programState);
-        if (debugState != null && debugState.cyclesCount > maxCycles){
-            rollbackLastStep(debugState);
-            return new ProgramResult(debugState.cyclesCount, variableToValue(debugState), debugState.currentCommandIndex, true, ProgramResult.HaltReason.INSUFFICIENT_CREDITS);
-        }
-        if (!res.isDebug()){
-            return new ProgramResult(res.getCycles(), (HashMap<String,Integer>) res.getVariableToValue().stream().collect(java.util.stream.Collectors.toMap(ProgramResult.VariableToValue::variable, ProgramResult.VariableToValue::value, (a,b)->a, java.util.HashMap::new)), res.getDebugIndex(), false, ProgramResult.HaltReason.FINISHED);
-        }
-        return new ProgramResult(res.getCycles(), (HashMap<String,Integer>) res.getVariableToValue().stream().collect(java.util.stream.Collectors.toMap(com.dto.api.ProgramResult.VariableToValue::variable, com.dto.api.ProgramResult.VariableToValue::value, (a,b)->a, java.util.HashMap::new)), res.getDebugIndex(), true, com.dto.api.ProgramResult.HaltReason.STOPPED_MANUALLY);
+    /*
+        As estimateCost, for a caller about to run the program on input: when the trial run behind the estimate
+        finished within limit, its result comes back too, and is the run itself.
+     */
+    public CostTrial estimateCostByTrial(int expansionLevel, List<Integer> input, long limit){
+        return CostAnalyzer.trial(getCompiled(expansionLevel), input, limit);
     }
 
-    private ProgramResult runToBreakpoint(ProgramState programState) {
-        while(!programState.done && programState.currentCommandIndex < commands.size()){
-            if(programState.breakpoints[programState.currentCommandIndex]){
-                isMidDebug = true;
-                debugState = programState;
-                return new ProgramResult(programState.cyclesCount, variableToValue(programState), programState.currentCommandIndex, true);
-            }
-            BaseCommand command = commands.get(programState.currentCommandIndex);
-            command.execute(programState);
+    // An estimate, and the result of the run tried for it when that finished (null otherwise)
+    public record CostTrial(CostEstimate estimate, ProgramResult finished) {}
+
+    public CompiledProgram getCompiled(int expansionLevel){
+        if (expansionLevel <= 0){
+            return getCompiled();
+        }
+        checkLinks();
+        Map<Integer, CompiledProgram> byLevel = compiledByLevel;
+        if (byLevel == null){
+            byLevel = new java.util.concurrent.ConcurrentHashMap<>();
+            compiledByLevel = byLevel;
         }
-        isMidDebug = false;
-        debugState = null;
-        return new ProgramResult(programState.cyclesCount, variableToValue(programState), programState.currentCommandIndex, false);
+        return byLevel.computeIfAbsent(expansionLevel, level -> LevelCompiler.compile(this, level));
     }
 
-    // Helper to rollback the last single step (used by budget guard paths)
-    private static void rollbackLastStep(ProgramState programState){
-        if (programState == null || programState.singleStepChanges.isEmpty()){
+    /*
+        Drops the level caches once a function this program calls, directly or through other functions, has been
+        registered again; registering anything else leaves them (and the JIT code, specializations and cost bounds
+        of the compiled levels) in place. Costs one volatile read while the registry's link generation stands still.
+     */
+    private void checkLinks(){
+        FunctionRegistry.LinkStamp stamp = linkStamp;
+        if (stamp != null && stamp.generation() == FunctionRegistry.linkGeneration()){
             return;
         }
-        SingleStepChanges singleStepChanges = programState.singleStepChanges.pop();
-        programState.cyclesCount = singleStepChanges.getCyclesChange().oldValue();
-        programState.currentCommandIndex = singleStepChanges.getIndexChange().oldValue();
-        programState.variables.get(singleStepChanges.getVariableChanges().variable()).setValue(singleStepChanges.getVariableChanges().oldValue());
-    }
-
-    public void stopDebug(){
-        isMidDebug = false;
-        debugState = null;
+        Set<String> called = new HashSet<>();
+        for (BaseCommand command : commands){
+            called.addAll(command.getCalledFunctionNames());
+        }
+        FunctionRegistry.LinkStamp now = FunctionRegistry.linkStamp(called);
+        if (stamp == null || !stamp.versions().equals(now.versions())){
+            compiledByLevel = null;
+            expansions = null;
+        }
+        linkStamp = now;
     }
 
-    // Package current debug state into a finished ProgramResult for statistics
-    public ProgramResult snapshotDebugAsFinished(){
-        if (debugState == null){
-            throw new IllegalStateException("No debug state to snapshot");
+    // Number of steps kept in the undo ring of newly started debug sessions; older steps are replayed from checkpoints
+    public static void setDebugUndoCapacity(int capacity){
+        if (capacity <= 0){
+            throw new IllegalArgumentException("Undo capacity must be positive");
         }
-        return new ProgramResult(debugState.cyclesCount, variableToValue(debugState), debugState.currentCommandIndex, false);
+        ProgramState.undoCapacity = capacity;
     }
 
-    public ProgramResult stepBack(){
-        ProgramState programState = debugState;
-        if (programState.singleStepChanges.isEmpty()){
-            throw new IllegalStateException("No steps to undo");
+    // Number of runs after which a compiled program is translated to JVM bytecode; 0 keeps everything interpreted
+    public static void setJitThreshold(int runs){
+        if (runs < 0){
+            throw new IllegalArgumentException("JIT threshold must not be negative");
         }
-        SingleStepChanges singleStepChanges = programState.singleStepChanges.pop();
-        programState.cyclesCount = singleStepChanges.getCyclesChange().oldValue();
-        programState.currentCommandIndex = singleStepChanges.getIndexChange().oldValue();
-        programState.variables.get(singleStepChanges.getVariableChanges().variable()).setValue(singleStepChanges.getVariableChanges().oldValue());
-        return new ProgramResult(programState.cyclesCount, variableToValue(programState), programState.currentCommandIndex, true);
+        CompiledProgram.jitThreshold = runs;
     }
 
-    private int getMaxWorkVariable(){
+    int getMaxWorkVariable(){
         int max = 0;
-        for (String variables : presentVariables) {
-            if (variables.charAt(0) == 'z'){
-                max = Math.max(max, Integer.parseInt(variables.substring(1)));
-            }
+        for (String variable : presentVariables) {
+            max = Math.max(max, Names.workNumber(variable));
         }
 
         return max;
     }
-    private int getMaxLabel(){
+    int getMaxLabel(){
         int max = 0;
         for (String label : labels) {
-            if (label.charAt(0) == 'L'){
-                max = Math.max(max, Integer.parseInt(label.substring(1)));
-            }
+            max = Math.max(max, Names.labelNumber(label));
         }
         return max;
     }
 
     void unpackCommands(){
+        dropDerivedForms();
         inputVariables = new ArrayList<>();
         presentVariables = new HashSet<>();
         labelToIndex = new HashMap<>();
         labels = new ArrayList<>();
         for(int i = 0; i < commands.size(); i++){
-            com.commands.BaseCommand command = commands.get(i);
-            if(!command.getLabel().equals(com.commands.BaseCommand.NO_LABEL)){
-                //The only label that matters is the first of its kind in the program.
-                if(!labelToIndex.containsKey(command.getLabel())){
-                    labelToIndex.put(command.getLabel(), i);
-                }
-                labels.add(command.getLabel());
+            indexCommand(i);
+        }
+    }
+
+    // Adds the labels and variables of command i to the lookup structures of the commands before it
+    private void indexCommand(int i){
+        com.commands.BaseCommand command = commands.get(i);
+        if(!command.getLabel().equals(com.commands.BaseCommand.NO_LABEL)){
+            //The only label that matters is the first of its kind in the program.
+            if(!labelToIndex.containsKey(command.getLabel())){
+                labelToIndex.put(command.getLabel(), i);
             }
-            List<String> commandVariables = command.getPresentVariables();
-            presentVariables.addAll(commandVariables);
-            for(String variable : commandVariables){
-                if(variable.startsWith("x") && !inputVariables.contains(variable)){
-                    inputVariables.add(variable);
-                }
+            labels.add(command.getLabel());
+        }
+        List<String> commandVariables = command.getPresentVariables();
+        presentVariables.addAll(commandVariables);
+        for(String variable : commandVariables){
+            if(variable.startsWith("x") && !inputVariables.contains(variable)){
+                inputVariables.add(variable);
             }
         }
     }
 
+    private void dropDerivedForms(){
+        compiled = null;
+        compiledByLevel = null;
+        expansions = null;
+        linkStamp = null;
+        stateTemplate = null;
+    }
+
+    // One level of expansion, with the next free work variable and label number as expanding it left them; the
+    // next level carries on from those, so names stay unique across levels
+    private record Expansion(Program program, int nextVariable, int nextLabel) {}
+
+    /*
+        This program with every command expanded level times, the same code getCompiled(level) runs.
+        The result is cached per level and shared, so it cannot be edited; edit a copy. A level is built from the
+        deepest level below it that is cached, one pass per level, so stepping through levels 1..N costs N passes.
+     */
     public Program expand(int level){
-        List<BaseCommand> currentCommands = commands;
-        AtomicInteger nextAvailableLabel = new AtomicInteger(getMaxLabel()+1);
-        AtomicInteger nextAvailableVariable = new AtomicInteger(getMaxWorkVariable()+1);
-        AtomicInteger realIndex = new AtomicInteger(0);
-        for(int i = 0; i < level; i++){
-            List<BaseCommand> newCommands = new ArrayList<>();
-            realIndex.set(0);
-            for(BaseCommand command : currentCommands){
-                newCommands.addAll(command.expand(nextAvailableVariable, nextAvailableLabel, realIndex));
+        level = Math.max(0, level);
+        if (FunctionRegistry.inTransaction()){
+            // Callees may not be committed yet, so nothing is kept
+            Expansion expansion = unexpanded();
+            for (int i = 0; i < level; i++){
+                expansion = expandOnce(expansion);
             }
-            currentCommands = newCommands;
+            return expansion.program();
+        }
+        checkLinks();
+        Map<Integer, SoftReference<Expansion>> byLevel = expansions;
+        if (byLevel == null){
+            byLevel = new java.util.concurrent.ConcurrentHashMap<>();
+            expansions = byLevel;
+        }
+        int from = level;
+        Expansion expansion = cachedExpansion(byLevel, from);
+        while (expansion == null && from > 0){
+            expansion = cachedExpansion(byLevel, --from);
+        }
+        if (expansion == null){
+            expansion = unexpanded();
+            keepExpansion(byLevel, 0, expansion);
         }
+        while (from < level){
+            expansion = expandOnce(expansion);
+            keepExpansion(byLevel, ++from, expansion);
+        }
+        return expansion.program();
+    }
+
+    private static Expansion cachedExpansion(Map<Integer, SoftReference<Expansion>> byLevel, int level){
+        SoftReference<Expansion> cached = byLevel.get(level);
+        return cached == null ? null : cached.get();
+    }
+
+    private static void keepExpansion(Map<Integer, SoftReference<Expansion>> byLevel, int level, Expansion expansion){
+        expansion.program().markShared();
+        byLevel.put(level, new SoftReference<>(expansion));
+    }
+
+    // Level 0: a copy of the command list, so edits to this program never reach the image
+    private Expansion unexpanded(){
+        return new Expansion(new Program(name, new ArrayList<>(commands)), getMaxWorkVariable() + 1, getMaxLabel() + 1);
+    }
 
-        return new Program(name, currentCommands);
+    private Expansion expandOnce(Expansion from){
+        AtomicInteger nextAvailableVariable = new AtomicInteger(from.nextVariable());
+        AtomicInteger nextAvailableLabel = new AtomicInteger(from.nextLabel());
+        AtomicInteger realIndex = new AtomicInteger(0);
+        List<BaseCommand> newCommands = new ArrayList<>();
+        for(BaseCommand command : from.program().commands){
+            newCommands.addAll(command.expand(nextAvailableVariable, nextAvailableLabel, realIndex));
+        }
+        return new Expansion(new Program(name, newCommands), nextAvailableVariable.get(), nextAvailableLabel.get());
     }
 
     public int getMaxExpansionLevel(){
@@ -290,7 +410,7 @@ public class Program implements Serializable {
         }
     }
 
-    private HashMap<String,Integer> variableToValue(ProgramState state){
+    static HashMap<String,Integer> variableToValue(ProgramState state){
         return (HashMap<String, Integer>) state.variables.values().stream()
                 .collect(Collectors.toMap(Variable::getName, Variable::getValue));
     }
@@ -369,18 +489,6 @@ public class Program implements Serializable {
     }
 
 
-    public void setBreakpoint(int index) {
-        if(debugState != null){
-            debugState.setBreakPoint(index);
-        }
-    }
-
-    public void removeBreakpoint(int index) {
-        if(debugState != null){
-            debugState.removeBreakPoint(index);
-        }
-    }
-
     // ===== Mixed expansion support (visual-only) =====
     private static final class ExpansionSpan {
         final BaseCommand parent;
@@ -399,6 +507,7 @@ public class Program implements Serializable {
     }
 
     public void expandAt(int index){
+        ensureEditable();
         if (index < 0 || index >= commands.size()){
             throw new IndexOutOfBoundsException("expandAt: index out of bounds: " + index);
         }
@@ -431,6 +540,7 @@ public class Program implements Serializable {
     }
 
     public void collapseAt(int index){
+        ensureEditable();
         if (index < 0 || index >= commands.size()){
             throw new IndexOutOfBoundsException("collapseAt: index out of bounds: " + index);
         }
@@ -0,0 +1,315 @@
+package com.program;
+
+import com.commands.ArgExpr;
+import com.commands.BaseCommand;
+import com.commands.Names;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Lowers a Program into a CompiledProgram.
+ * - Variables are resolved to dense int slots (y is always slot 0).
+ * - Jump targets are resolved to instruction indices, with EXIT as a sentinel.
+ * - Each command emits its own opcode through BaseCommand.compile(ProgramCompiler).
+ * Commands can also be appended one at a time (see LevelCompiler), in which case labels are
+ * registered as they arrive and forward jumps are patched when the program is built.
+ */
+public final class ProgramCompiler {
+    private final HashMap<String, Integer> labelToIndex;
+    private final HashMap<String, Integer> slotByName = new HashMap<>();
+    private final List<String> slotNames = new ArrayList<>();
+    private final List<CompiledProgram.CallSite> callSites = new ArrayList<>();
+    // Forward references to labels not seen yet: instruction index -> label
+    private final HashMap<Integer, String> pendingTargets = new HashMap<>();
+    private int[] opcodes;
+    private int[] operandA;
+    private int[] operandB;
+    private int[] targets;
+    private int[] cycles;
+    private int[] callIndex;
+    private int emitted = 0;
+    private String maxArchitecture = "unknown";
+
+    private ProgramCompiler(HashMap<String, Integer> labelToIndex, int capacity) {
+        this.labelToIndex = labelToIndex;
+        capacity = Math.max(capacity, 1);
+        opcodes = new int[capacity];
+        operandA = new int[capacity];
+        operandB = new int[capacity];
+        targets = new int[capacity];
+        cycles = new int[capacity];
+        callIndex = new int[capacity];
+        slot("y");
+    }
+
+    static CompiledProgram compile(Program program) {
+        ProgramCompiler compiler = new ProgramCompiler(program.labelToIndex, program.commands.size());
+        for (String variable : program.presentVariables) {
+            compiler.slot(variable);
+        }
+        for (BaseCommand command : program.commands) {
+            compiler.compileCommand(command);
+        }
+        return compiler.build();
+    }
+
+    // An empty compiler whose commands are supplied one by one through append
+    static ProgramCompiler streaming() {
+        return new ProgramCompiler(new HashMap<>(), 64);
+    }
+
+    // Appends a command at the next instruction index, registering its label (the first occurrence wins, as in Program)
+    void append(BaseCommand command) {
+        if (!command.getLabel().equals(BaseCommand.NO_LABEL)) {
+            labelToIndex.putIfAbsent(command.getLabel(), emitted);
+        }
+        for (String variable : command.getPresentVariables()) {
+            slot(variable);
+        }
+        compileCommand(command);
+    }
+
+    // ---- API used by commands ----
+
+    public int slot(String variable) {
+        Integer slot = slotByName.get(variable);
+        if (slot == null) {
+            slot = slotNames.size();
+            slotByName.put(variable, slot);
+            slotNames.add(variable);
+        }
+        return slot;
+    }
+
+    public int target(String label) {
+        if (label.equals(BaseCommand.EXIT_LABEL)) {
+            return CompiledProgram.EXIT;
+        }
+        Integer index = labelToIndex.get(label);
+        if (index == null) {
+            // Patched in build() if the label is appended later
+            pendingTargets.put(emitted, label);
+            return CompiledProgram.UNRESOLVED;
+        }
+        return index;
+    }
+
+    public void emit(int opcode, int a, int b, int target, int cost) {
+        ensureCapacity();
+        opcodes[emitted] = opcode;
+        operandA[emitted] = a;
+        operandB[emitted] = b;
+        targets[emitted] = target;
+        cycles[emitted] = cost;
+        callIndex[emitted] = -1;
+        emitted++;
+    }
+
+    public void emitCall(int opcode, int a, FunctionHandle callee, List<Object> args, int target, int cost) {
+        ensureCapacity();
+        callIndex[emitted] = callSites.size();
+        callSites.add(compileCall(callee, args));
+        opcodes[emitted] = opcode;
+        operandA[emitted] = a;
+        targets[emitted] = target;
+        cycles[emitted] = cost;
+        emitted++;
+    }
+
+    // ---- Internals ----
+
+    private void compileCommand(BaseCommand command) {
+        int before = emitted;
+        command.compile(this);
+        if (emitted != before + 1) {
+            throw new IllegalStateException("Command emitted no instruction at index " + before);
+        }
+        if (architectureRank(command.getArchitecture()) > architectureRank(maxArchitecture)) {
+            maxArchitecture = command.getArchitecture();
+        }
+    }
+
+    private static int architectureRank(String architecture) {
+        return switch (architecture) {
+            case "I" -> 1;
+            case "II" -> 2;
+            case "III" -> 3;
+            case "IV" -> 4;
+            default -> 0;
+        };
+    }
+
+    private void ensureCapacity() {
+        if (emitted < opcodes.length) {
+            return;
+        }
+        int capacity = opcodes.length * 2;
+        opcodes = Arrays.copyOf(opcodes, capacity);
+        operandA = Arrays.copyOf(operandA, capacity);
+        operandB = Arrays.copyOf(operandB, capacity);
+        targets = Arrays.copyOf(targets, capacity);
+        cycles = Arrays.copyOf(cycles, capacity);
+        callIndex = Arrays.copyOf(callIndex, capacity);
+    }
+
+    // Flattens callee(args) into postfix order: argument values and nested calls as they are evaluated, the call itself last
+    private CompiledProgram.CallSite compileCall(FunctionHandle callee, List<Object> args) {
+        List<Integer> plan = new ArrayList<>();
+        List<FunctionHandle> functions = new ArrayList<>();
+        List<boolean[]> constantArgs = new ArrayList<>();
+        compileCall(callee, args, plan, functions, constantArgs);
+        return new CompiledProgram.CallSite(callee, plan.stream().mapToInt(Integer::intValue).toArray(),
+                functions.toArray(new FunctionHandle[0]), constantArgs.toArray(new boolean[0][]));
+    }
+
+    // Returns whether the call's value is the same in every run: functions are pure, so that holds when all its arguments are
+    private boolean compileCall(FunctionHandle function, List<Object> args, List<Integer> plan, List<FunctionHandle> functions,
+                                List<boolean[]> constantArgs) {
+        boolean[] constant = new boolean[args.size()];
+        boolean any = false;
+        boolean all = true;
+        for (int i = 0; i < args.size(); i++) {
+            if (args.get(i) instanceof String variable) {
+                plan.add(slot(variable));
+            } else {
+                ArgExpr.ArgCall call = (ArgExpr.ArgCall) args.get(i);
+                constant[i] = compileCall(call.callee(), call.args(), plan, functions, constantArgs);
+            }
+            any |= constant[i];
+            all &= constant[i];
+        }
+        plan.add(-(functions.size() + 1));
+        plan.add(args.size());
+        functions.add(function);
+        constantArgs.add(any ? constant : null);
+        return all;
+    }
+
+    CompiledProgram build() {
+        if (emitted < opcodes.length) {
+            opcodes = Arrays.copyOf(opcodes, emitted);
+            operandA = Arrays.copyOf(operandA, emitted);
+            operandB = Arrays.copyOf(operandB, emitted);
+            targets = Arrays.copyOf(targets, emitted);
+            cycles = Arrays.copyOf(cycles, emitted);
+            callIndex = Arrays.copyOf(callIndex, emitted);
+        }
+        for (java.util.Map.Entry<Integer, String> pending : pendingTargets.entrySet()) {
+            Integer index = labelToIndex.get(pending.getValue());
+            if (index != null) {
+                targets[pending.getKey()] = index;
+            }
+        }
+        // Map x1..xN to slots so program input can be copied in directly
+        int maxInput = 0;
+        for (String name : slotNames) {
+            maxInput = Math.max(maxInput, inputIndex(name));
+        }
+        int[] inputSlots = new int[maxInput];
+        Arrays.fill(inputSlots, -1);
+        for (int slot = 0; slot < slotNames.size(); slot++) {
+            int inputIndex = inputIndex(slotNames.get(slot));
+            if (inputIndex > 0) {
+                inputSlots[inputIndex - 1] = slot;
+            }
+        }
+        return assemble(opcodes, operandA, operandB, targets, cycles, callIndex,
+                callSites.toArray(new CompiledProgram.CallSite[0]), slotNames.toArray(new String[0]), inputSlots, maxArchitecture);
+    }
+
+    // Adds the fused blocks and loop headers derived from the instructions (also used by ProgramOptimizer)
+    static CompiledProgram assemble(int[] opcodes, int[] operandA, int[] operandB, int[] targets, int[] cycles, int[] callIndex,
+                                    CompiledProgram.CallSite[] callSites, String[] slotNames, int[] inputSlots,
+                                    String maxArchitecture) {
+        int[][] blockEffects = new int[opcodes.length][];
+        int[] blockEnd = new int[opcodes.length];
+        int[] blockCycles = new int[opcodes.length];
+        fuseBlocks(opcodes, operandA, operandB, targets, cycles, blockEffects, blockEnd, blockCycles);
+        boolean[] loopHeaders = new boolean[opcodes.length];
+        for (int pc = 0; pc < targets.length; pc++) {
+            if (targets[pc] >= 0 && targets[pc] <= pc) {
+                loopHeaders[targets[pc]] = true;
+            }
+        }
+        return new CompiledProgram(opcodes, operandA, operandB, targets, cycles, callIndex, callSites, slotNames, inputSlots,
+                blockEffects, blockEnd, blockCycles, loopHeaders, maxArchitecture);
+    }
+
+    /*
+        Splits maximal runs of INCREASE / DECREASE / NEUTRAL / ZERO_VARIABLE / CONSTANT_ASSIGNMENT into basic blocks
+        (a jump target always starts a new block) and folds each block into one superinstruction.
+        Every such command maps a variable v >= 0 to max(v + add, floor), and the form is closed under composition,
+        so a block becomes one (add, floor) pair per touched slot plus its total cycles.
+     */
+    private static void fuseBlocks(int[] opcodes, int[] operandA, int[] operandB, int[] targets, int[] cycles,
+                                   int[][] blockEffects, int[] blockEnd, int[] blockCycles) {
+        boolean[] leader = new boolean[opcodes.length];
+        for (int target : targets) {
+            if (target >= 0 && target < leader.length) {
+                leader[target] = true;
+            }
+        }
+        int start = 0;
+        while (start < opcodes.length) {
+            int end = start;
+            while (end < opcodes.length && fusable(opcodes[end], operandB[end]) && (end == start || !leader[end])) {
+                end++;
+            }
+            if (end - start >= 2) {
+                HashMap<Integer, long[]> bySlot = new java.util.LinkedHashMap<>();
+                int total = 0;
+                for (int pc = start; pc < end; pc++) {
+                    total += cycles[pc];
+                    if (opcodes[pc] == CompiledProgram.OP_NEUTRAL) {
+                        continue;
+                    }
+                    long[] f = bySlot.computeIfAbsent(operandA[pc], k -> new long[]{0, Integer.MIN_VALUE});
+                    long add = switch (opcodes[pc]) {
+                        case CompiledProgram.OP_INCREASE -> 1;
+                        case CompiledProgram.OP_DECREASE -> -1;
+                        default -> Integer.MIN_VALUE; // ZERO_VARIABLE / CONSTANT_ASSIGNMENT discard the old value
+                    };
+                    long floor = switch (opcodes[pc]) {
+                        case CompiledProgram.OP_INCREASE -> Integer.MIN_VALUE;
+                        case CompiledProgram.OP_CONSTANT_ASSIGNMENT -> operandB[pc];
+                        default -> 0;
+                    };
+                    // max(max(v + a1, b1) + a2, b2) = max(v + (a1 + a2), max(b1 + a2, b2))
+                    f[1] = Math.max(f[1] + add, floor);
+                    f[0] = f[0] + add;
+                    f[0] = Math.max(f[0], Integer.MIN_VALUE);
+                    f[1] = Math.max(f[1], Integer.MIN_VALUE);
+                }
+                int[] effects = new int[bySlot.size() * 3];
+                int i = 0;
+                for (java.util.Map.Entry<Integer, long[]> e : bySlot.entrySet()) {
+                    effects[i++] = e.getKey();
+                    effects[i++] = (int) e.getValue()[0];
+                    effects[i++] = (int) e.getValue()[1];
+                }
+                blockEffects[start] = effects;
+                blockEnd[start] = end;
+                blockCycles[start] = total;
+            }
+            start = Math.max(end, start + 1);
+        }
+    }
+
+    private static boolean fusable(int opcode, int operandB) {
+        return switch (opcode) {
+            case CompiledProgram.OP_INCREASE, CompiledProgram.OP_DECREASE, CompiledProgram.OP_NEUTRAL,
+                 CompiledProgram.OP_ZERO_VARIABLE -> true;
+            // A negative constant would leave the non-negative domain the fused form relies on
+            case CompiledProgram.OP_CONSTANT_ASSIGNMENT -> operandB >= 0;
+            default -> false;
+        };
+    }
+
+    // Returns k for a canonical input name "xk" (as produced by ProgramState), otherwise 0
+    static int inputIndex(String name) {
+        return Names.inputNumber(name);
+    }
+}
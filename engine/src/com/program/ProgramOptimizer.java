@@ -0,0 +1,492 @@
+package com.program;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Rewrites a CompiledProgram into a faster one that computes the same result with the same total cycles.
+ * - Constant propagation: assignments from a known value become CONSTANT_ASSIGNMENT, writes that cannot change
+ *   their variable and jumps whose outcome is known become NEUTRAL / GOTO_LABEL.
+ * - Dead-store elimination: writes to a z variable whose value never reaches y, an input variable, a jump or a call
+ *   become NEUTRAL.
+ * - Jump threading: a GOTO_LABEL landing on another GOTO_LABEL jumps straight to the final target.
+ * Every rewritten instruction keeps its cost in cycles (a threaded GOTO_LABEL carries the cost of the ones it
+ * skips), which serves as the cost map back to the original program: a run of the optimized form that finishes
+ * reports exactly the original's cycles and result. Runs that stop part way are not comparable, as the costs of a
+ * threaded chain are charged up front and eliminated variables are not reported.
+ * The same passes specialize a function for a nested call whose arguments are partly known (see specialize).
+ */
+final class ProgramOptimizer {
+    // Constant propagation keeps one value per variable per instruction; larger programs skip it
+    private static final long MAX_PROPAGATION_CELLS = 1 << 22;
+    // Steps a specialization may run ahead on known values (it stops early at anything that depends on the run)
+    private static final int MAX_PREFIX_STEPS = 1 << 16;
+    private static final long UNKNOWN = Long.MIN_VALUE;
+
+    private final CompiledProgram source;
+    private int[] opcodes;
+    private int[] operandA;
+    private int[] operandB;
+    private int[] targets;
+    private int[] cycles;
+    private int[] callIndex;
+
+    private ProgramOptimizer(CompiledProgram source) {
+        this.source = source;
+        this.opcodes = source.opcodes.clone();
+        this.operandA = source.operandA.clone();
+        this.operandB = source.operandB.clone();
+        this.targets = source.targets.clone();
+        this.cycles = source.cycles.clone();
+        this.callIndex = source.callIndex.clone();
+    }
+
+    static CompiledProgram optimize(CompiledProgram program) {
+        ProgramOptimizer optimizer = new ProgramOptimizer(program);
+        long[] entry = new long[program.slotCount()];
+        for (int slot : program.inputSlots) {
+            if (slot >= 0) {
+                entry[slot] = UNKNOWN;
+            }
+        }
+        if ((long) program.size() * program.slotCount() <= MAX_PROPAGATION_CELLS) {
+            optimizer.propagateConstants(entry);
+        }
+        String[] slotNames = optimizer.eliminateDeadStores(false);
+        optimizer.threadJumps();
+        return ProgramCompiler.assemble(optimizer.opcodes, optimizer.operandA, optimizer.operandB, optimizer.targets,
+                optimizer.cycles, program.callIndex, program.callSites, slotNames, program.inputSlots,
+                program.getMaxArchitecture());
+    }
+
+    /*
+        Partial evaluation of program for nested calls with args.size() arguments, of which the non-null ones are
+        known. The instructions from the start that depend only on known values are run here (see runPrefix), and the
+        residual program starts from the state they reach. From there propagation folds the control flow that depends
+        only on known values, everything but y is treated as dead, and instructions no run can reach are dropped.
+        A nested call only reports its result and cycles, and the residual program has the same of both for every
+        call matching args, including whether it fits a budget: the costs along every path are unchanged, the
+        prefix's being charged at the start. Returns program itself when it is too large to analyze.
+     */
+    static CompiledProgram specialize(CompiledProgram program, List<Integer> args) {
+        if ((long) program.size() * program.slotCount() > MAX_PROPAGATION_CELLS) {
+            return program;
+        }
+        ProgramOptimizer optimizer = new ProgramOptimizer(program);
+        // Inputs beyond the call's arguments are 0 in every call
+        long[] entry = new long[program.slotCount()];
+        for (int i = 0; i < program.inputSlots.length && i < args.size(); i++) {
+            if (program.inputSlots[i] >= 0) {
+                entry[program.inputSlots[i]] = args.get(i) == null ? UNKNOWN : args.get(i);
+            }
+        }
+        optimizer.runPrefix(entry);
+        optimizer.propagateConstants(entry);
+        String[] slotNames = optimizer.eliminateDeadStores(true);
+        optimizer.threadJumps();
+        return optimizer.compact(slotNames);
+    }
+
+    /*
+        Runs the program from the start on the known values in entry, as the interpreter would, up to the first
+        instruction that reads a value that varies between calls, makes a call, or cannot complete (a jump to a
+        missing label). Then puts a prologue in front of the program that sets the variables the prefix changed,
+        charges the prefix's cycles and jumps to where it stopped; when the prefix finishes the program, the
+        prologue is all that is left.
+     */
+    private void runPrefix(long[] entry) {
+        int size = opcodes.length;
+        long[] values = entry.clone();
+        int pc = 0;
+        long spent = 0;
+        boolean finished = false;
+        int steps = 0;
+        for (; steps < MAX_PREFIX_STEPS && pc < size; steps++) {
+            int a = operandA[pc];
+            int op = opcodes[pc];
+            boolean readsUnknown = switch (op) {
+                case CompiledProgram.OP_INCREASE, CompiledProgram.OP_DECREASE, CompiledProgram.OP_JUMP_NOT_ZERO,
+                     CompiledProgram.OP_JUMP_ZERO, CompiledProgram.OP_JUMP_EQUAL_CONSTANT -> values[a] == UNKNOWN;
+                case CompiledProgram.OP_ASSIGNMENT -> values[operandB[pc]] == UNKNOWN;
+                case CompiledProgram.OP_JUMP_EQUAL_VARIABLE -> values[a] == UNKNOWN || values[operandB[pc]] == UNKNOWN;
+                case CompiledProgram.OP_QUOTE, CompiledProgram.OP_JUMP_EQUAL_FUNCTION -> true;
+                default -> false;
+            };
+            if (readsUnknown || spent + cycles[pc] > Integer.MAX_VALUE) {
+                break;
+            }
+            boolean taken = switch (op) {
+                case CompiledProgram.OP_GOTO_LABEL -> true;
+                case CompiledProgram.OP_JUMP_NOT_ZERO, CompiledProgram.OP_JUMP_ZERO,
+                     CompiledProgram.OP_JUMP_EQUAL_CONSTANT, CompiledProgram.OP_JUMP_EQUAL_VARIABLE -> decide(pc, values);
+                default -> false;
+            };
+            if (taken && targets[pc] == CompiledProgram.EXIT) {
+                finished = true;
+                break;
+            }
+            if (taken && targets[pc] < 0) {
+                break;
+            }
+            switch (op) {
+                case CompiledProgram.OP_INCREASE -> values[a] = (int) (values[a] + 1);
+                case CompiledProgram.OP_DECREASE -> values[a] = values[a] == 0 ? 0 : (int) (values[a] - 1);
+                case CompiledProgram.OP_ZERO_VARIABLE -> values[a] = 0;
+                case CompiledProgram.OP_CONSTANT_ASSIGNMENT -> values[a] = operandB[pc];
+                case CompiledProgram.OP_ASSIGNMENT -> values[a] = values[operandB[pc]];
+                default -> {
+                }
+            }
+            spent += cycles[pc];
+            pc = taken ? targets[pc] : pc + 1;
+        }
+        finished |= pc >= size;
+        if (steps == 0 && !finished) {
+            return;
+        }
+        int[][] prologue = new int[values.length + 1][];
+        int count = 0;
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != entry[slot] && (!finished || slot == 0)) {
+                prologue[count++] = new int[]{CompiledProgram.OP_CONSTANT_ASSIGNMENT, slot, (int) values[slot], CompiledProgram.NO_TARGET, 0};
+            }
+        }
+        if (!finished) {
+            prologue[count++] = new int[]{CompiledProgram.OP_GOTO_LABEL, 0, 0, pc, 0};
+        } else if (count == 0) {
+            prologue[count++] = new int[]{CompiledProgram.OP_NEUTRAL, 0, 0, CompiledProgram.NO_TARGET, 0};
+        }
+        prologue[0][4] = (int) spent;
+        if (finished) {
+            // Nothing after the prologue runs: it falls off the end
+            opcodes = new int[0];
+            operandA = new int[0];
+            operandB = new int[0];
+            targets = new int[0];
+            cycles = new int[0];
+            callIndex = new int[0];
+        }
+        prepend(prologue, count);
+    }
+
+    // Puts count instructions (opcode, a, b, target, cycles; targets relative to the current program) in front
+    private void prepend(int[][] instructions, int count) {
+        int size = opcodes.length + count;
+        int[] newOpcodes = new int[size];
+        int[] newA = new int[size];
+        int[] newB = new int[size];
+        int[] newTargets = new int[size];
+        int[] newCycles = new int[size];
+        int[] newCallIndex = new int[size];
+        for (int i = 0; i < count; i++) {
+            newOpcodes[i] = instructions[i][0];
+            newA[i] = instructions[i][1];
+            newB[i] = instructions[i][2];
+            newTargets[i] = instructions[i][3] >= 0 ? instructions[i][3] + count : instructions[i][3];
+            newCycles[i] = instructions[i][4];
+            newCallIndex[i] = -1;
+        }
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            newOpcodes[count + pc] = opcodes[pc];
+            newA[count + pc] = operandA[pc];
+            newB[count + pc] = operandB[pc];
+            newTargets[count + pc] = targets[pc] >= 0 ? targets[pc] + count : targets[pc];
+            newCycles[count + pc] = cycles[pc];
+            newCallIndex[count + pc] = callIndex[pc];
+        }
+        opcodes = newOpcodes;
+        operandA = newA;
+        operandB = newB;
+        targets = newTargets;
+        cycles = newCycles;
+        callIndex = newCallIndex;
+    }
+
+    /*
+        Forward dataflow over the values each variable can have before each instruction: a constant, or UNKNOWN.
+        entry holds the values at the start (UNKNOWN for inputs that vary between runs). Values follow the interpreter exactly (int overflow, DECREASE
+        stopping at 0), so a value known here is the value every run sees.
+     */
+    private void propagateConstants(long[] entry) {
+        int size = opcodes.length;
+        long[][] in = new long[size][];
+        if (size == 0) {
+            return;
+        }
+        in[0] = entry;
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        boolean[] queued = new boolean[size];
+        work.add(0);
+        queued[0] = true;
+        while (!work.isEmpty()) {
+            int pc = work.poll();
+            queued[pc] = false;
+            long[] out = in[pc].clone();
+            int a = operandA[pc];
+            boolean mayFallThrough = true;
+            boolean mayJump = false;
+            switch (opcodes[pc]) {
+                case CompiledProgram.OP_INCREASE -> out[a] = out[a] == UNKNOWN ? UNKNOWN : (int) (out[a] + 1);
+                case CompiledProgram.OP_DECREASE -> out[a] = out[a] == UNKNOWN || out[a] == 0 ? out[a] : (int) (out[a] - 1);
+                case CompiledProgram.OP_ZERO_VARIABLE -> out[a] = 0;
+                case CompiledProgram.OP_CONSTANT_ASSIGNMENT -> out[a] = operandB[pc];
+                case CompiledProgram.OP_ASSIGNMENT -> out[a] = out[operandB[pc]];
+                case CompiledProgram.OP_QUOTE -> out[a] = UNKNOWN;
+                case CompiledProgram.OP_GOTO_LABEL -> {
+                    mayFallThrough = false;
+                    mayJump = true;
+                }
+                case CompiledProgram.OP_JUMP_EQUAL_FUNCTION -> mayJump = true;
+                case CompiledProgram.OP_JUMP_NOT_ZERO, CompiledProgram.OP_JUMP_ZERO,
+                     CompiledProgram.OP_JUMP_EQUAL_CONSTANT, CompiledProgram.OP_JUMP_EQUAL_VARIABLE -> {
+                    Boolean taken = decide(pc, out);
+                    mayFallThrough = taken == null || !taken;
+                    mayJump = taken == null || taken;
+                }
+                default -> {
+                }
+            }
+            if (mayFallThrough && pc + 1 < size) {
+                merge(in, pc + 1, out, work, queued);
+            }
+            if (mayJump && targets[pc] >= 0) {
+                merge(in, targets[pc], out, work, queued);
+            }
+        }
+        for (int pc = 0; pc < size; pc++) {
+            if (in[pc] != null) {
+                rewrite(pc, in[pc]);
+            }
+        }
+    }
+
+    private static void merge(long[][] in, int pc, long[] values, ArrayDeque<Integer> work, boolean[] queued) {
+        long[] current = in[pc];
+        boolean changed = false;
+        if (current == null) {
+            in[pc] = values.clone();
+            changed = true;
+        } else {
+            for (int slot = 0; slot < values.length; slot++) {
+                if (current[slot] != UNKNOWN && current[slot] != values[slot]) {
+                    current[slot] = UNKNOWN;
+                    changed = true;
+                }
+            }
+        }
+        if (changed && !queued[pc]) {
+            work.add(pc);
+            queued[pc] = true;
+        }
+    }
+
+    // Whether the jump at pc is taken given the values before it, or null when that depends on the run
+    private Boolean decide(int pc, long[] values) {
+        long a = values[operandA[pc]];
+        if (opcodes[pc] == CompiledProgram.OP_JUMP_EQUAL_VARIABLE && operandA[pc] == operandB[pc]) {
+            return true;
+        }
+        if (a == UNKNOWN) {
+            return null;
+        }
+        return switch (opcodes[pc]) {
+            case CompiledProgram.OP_JUMP_NOT_ZERO -> a > 0;
+            case CompiledProgram.OP_JUMP_ZERO -> a == 0;
+            case CompiledProgram.OP_JUMP_EQUAL_CONSTANT -> a == operandB[pc];
+            default -> values[operandB[pc]] == UNKNOWN ? null : a == values[operandB[pc]];
+        };
+    }
+
+    // Applies what propagation found about the instruction at pc; its cost is left as it is
+    private void rewrite(int pc, long[] values) {
+        int a = operandA[pc];
+        switch (opcodes[pc]) {
+            case CompiledProgram.OP_ZERO_VARIABLE -> {
+                if (values[a] == 0) {
+                    opcodes[pc] = CompiledProgram.OP_NEUTRAL;
+                }
+            }
+            case CompiledProgram.OP_CONSTANT_ASSIGNMENT -> {
+                if (values[a] == operandB[pc]) {
+                    opcodes[pc] = CompiledProgram.OP_NEUTRAL;
+                }
+            }
+            case CompiledProgram.OP_ASSIGNMENT -> {
+                long value = values[operandB[pc]];
+                if (value != UNKNOWN && value == values[a]) {
+                    opcodes[pc] = CompiledProgram.OP_NEUTRAL;
+                } else if (value != UNKNOWN) {
+                    opcodes[pc] = CompiledProgram.OP_CONSTANT_ASSIGNMENT;
+                    operandB[pc] = (int) value;
+                }
+            }
+            case CompiledProgram.OP_JUMP_NOT_ZERO, CompiledProgram.OP_JUMP_ZERO,
+                 CompiledProgram.OP_JUMP_EQUAL_CONSTANT, CompiledProgram.OP_JUMP_EQUAL_VARIABLE -> {
+                Boolean taken = decide(pc, values);
+                if (taken == null && opcodes[pc] == CompiledProgram.OP_JUMP_EQUAL_VARIABLE && values[operandB[pc]] != UNKNOWN) {
+                    opcodes[pc] = CompiledProgram.OP_JUMP_EQUAL_CONSTANT;
+                    operandB[pc] = (int) values[operandB[pc]];
+                } else if (taken != null && taken) {
+                    opcodes[pc] = CompiledProgram.OP_GOTO_LABEL;
+                } else if (taken != null) {
+                    opcodes[pc] = CompiledProgram.OP_NEUTRAL;
+                    targets[pc] = CompiledProgram.NO_TARGET;
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    /*
+        A variable is live if it is y, an input variable (unless onlyY), read by a jump or a call, or assigned to a
+        live variable. Writes to the other variables become NEUTRAL, and those variables are left out of the result
+        (their slot name is null). Calls are kept whatever they assign, as their cycles depend on the run.
+     */
+    private String[] eliminateDeadStores(boolean onlyY) {
+        String[] slotNames = source.slotNames.clone();
+        boolean[] live = new boolean[slotNames.length];
+        for (int slot = 0; slot < slotNames.length; slot++) {
+            live[slot] = slot == 0 || (!onlyY && slotNames[slot].charAt(0) != 'z');
+        }
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            switch (opcodes[pc]) {
+                case CompiledProgram.OP_JUMP_NOT_ZERO, CompiledProgram.OP_JUMP_ZERO,
+                     CompiledProgram.OP_JUMP_EQUAL_CONSTANT, CompiledProgram.OP_JUMP_EQUAL_FUNCTION -> live[operandA[pc]] = true;
+                case CompiledProgram.OP_JUMP_EQUAL_VARIABLE -> {
+                    live[operandA[pc]] = true;
+                    live[operandB[pc]] = true;
+                }
+                default -> {
+                }
+            }
+            if (opcodes[pc] == CompiledProgram.OP_QUOTE || opcodes[pc] == CompiledProgram.OP_JUMP_EQUAL_FUNCTION) {
+                int[] plan = source.callSites[callIndex[pc]].plan();
+                for (int i = 0; i < plan.length; i++) {
+                    if (plan[i] >= 0) {
+                        live[plan[i]] = true;
+                    } else {
+                        i++;
+                    }
+                }
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int pc = 0; pc < opcodes.length; pc++) {
+                if (opcodes[pc] == CompiledProgram.OP_ASSIGNMENT && live[operandA[pc]] && !live[operandB[pc]]) {
+                    live[operandB[pc]] = true;
+                    changed = true;
+                }
+            }
+        }
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            switch (opcodes[pc]) {
+                case CompiledProgram.OP_INCREASE, CompiledProgram.OP_DECREASE, CompiledProgram.OP_ZERO_VARIABLE,
+                     CompiledProgram.OP_CONSTANT_ASSIGNMENT, CompiledProgram.OP_ASSIGNMENT -> {
+                    if (!live[operandA[pc]]) {
+                        opcodes[pc] = CompiledProgram.OP_NEUTRAL;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        for (int slot = 0; slot < slotNames.length; slot++) {
+            if (!live[slot]) {
+                slotNames[slot] = null;
+            }
+        }
+        return slotNames;
+    }
+
+    /*
+        Points every GOTO_LABEL at the end of the GOTO_LABEL chain it starts, adding up the chain's cycles.
+        A chain ending in a jump to EXIT stops before it, since that last jump is free.
+     */
+    private void threadJumps() {
+        int[] chainTarget = targets.clone();
+        int[] chainCycles = cycles.clone();
+        // seenBy[i] == pc + 1 once the chain from pc has passed i
+        int[] seenBy = new int[opcodes.length];
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            if (opcodes[pc] != CompiledProgram.OP_GOTO_LABEL) {
+                continue;
+            }
+            seenBy[pc] = pc + 1;
+            int target = targets[pc];
+            long total = cycles[pc];
+            while (target >= 0 && seenBy[target] != pc + 1 && opcodes[target] == CompiledProgram.OP_GOTO_LABEL
+                    && targets[target] >= 0 && total + cycles[target] <= Integer.MAX_VALUE) {
+                seenBy[target] = pc + 1;
+                total += cycles[target];
+                target = targets[target];
+            }
+            chainTarget[pc] = target;
+            chainCycles[pc] = (int) total;
+        }
+        System.arraycopy(chainTarget, 0, targets, 0, targets.length);
+        System.arraycopy(chainCycles, 0, cycles, 0, cycles.length);
+    }
+
+    // Keeps only the instructions reachable from the start, renumbered (so halt indices no longer match the source)
+    private CompiledProgram compact(String[] slotNames) {
+        int size = opcodes.length;
+        boolean[] reachable = new boolean[size];
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        if (size > 0) {
+            reachable[0] = true;
+            work.add(0);
+        }
+        while (!work.isEmpty()) {
+            int pc = work.poll();
+            int[] next = {opcodes[pc] == CompiledProgram.OP_GOTO_LABEL ? -1 : pc + 1, jumps(opcodes[pc]) ? targets[pc] : -1};
+            for (int n : next) {
+                if (n >= 0 && n < size && !reachable[n]) {
+                    reachable[n] = true;
+                    work.add(n);
+                }
+            }
+        }
+        int[] newIndex = new int[size];
+        int kept = 0;
+        for (int pc = 0; pc < size; pc++) {
+            newIndex[pc] = reachable[pc] ? kept++ : -1;
+        }
+        int[] keptOpcodes = new int[kept];
+        int[] keptA = new int[kept];
+        int[] keptB = new int[kept];
+        int[] keptTargets = new int[kept];
+        int[] keptCycles = new int[kept];
+        int[] keptCallIndex = new int[kept];
+        for (int pc = 0; pc < size; pc++) {
+            int i = newIndex[pc];
+            if (i < 0) {
+                continue;
+            }
+            keptOpcodes[i] = opcodes[pc];
+            keptA[i] = operandA[pc];
+            keptB[i] = operandB[pc];
+            keptTargets[i] = jumps(opcodes[pc]) && targets[pc] >= 0 ? newIndex[targets[pc]] : targets[pc];
+            keptCycles[i] = cycles[pc];
+            keptCallIndex[i] = callIndex[pc];
+            if (keptOpcodes[i] == CompiledProgram.OP_GOTO_LABEL && keptTargets[i] == i + 1) {
+                // Falls through instead, at the same cost
+                keptOpcodes[i] = CompiledProgram.OP_NEUTRAL;
+                keptTargets[i] = CompiledProgram.NO_TARGET;
+            }
+        }
+        return ProgramCompiler.assemble(keptOpcodes, keptA, keptB, keptTargets, keptCycles, keptCallIndex,
+                source.callSites, slotNames, source.inputSlots, source.getMaxArchitecture());
+    }
+
+    private static boolean jumps(int opcode) {
+        return switch (opcode) {
+            case CompiledProgram.OP_GOTO_LABEL, CompiledProgram.OP_JUMP_NOT_ZERO, CompiledProgram.OP_JUMP_ZERO,
+                 CompiledProgram.OP_JUMP_EQUAL_CONSTANT, CompiledProgram.OP_JUMP_EQUAL_VARIABLE,
+                 CompiledProgram.OP_JUMP_EQUAL_FUNCTION -> true;
+            default -> false;
+        };
+    }
+}
@@ -1,6 +1,7 @@
 package com.program;
 
 import com.commands.BaseCommand;
+import com.commands.Names;
 import com.commands.Variable;
 
 import java.util.*;
@@ -17,21 +18,64 @@ public class ProgramState {
     public List<com.commands.BaseCommand> commands;
     public int currentCommandIndex;
     public HashMap<String, Integer> labelToIndex;
-    public int cyclesCount;
+    public long cyclesCount;
     public boolean done;
     public boolean[] breakpoints;
-    public Stack<SingleStepChanges> singleStepChanges = new Stack<>();
+    public final ExecutionMode mode;
+    // Budget of the run (of a debug session, the limit its stepping is under); nested calls get what is left of it
+    long maxCycles = Long.MAX_VALUE;
+    // Bounded step journal, only present in DEBUG mode
+    private UndoLog undoLog;
+    // Ring capacity for new debug sessions
+    static volatile int undoCapacity = UndoLog.DEFAULT_CAPACITY;
+    // Last step only, used in RUN mode (no allocation per step)
+    private boolean hasLastStep = false;
+    private String lastVariable;
+    private int lastOldValue;
+    private int lastOldIndex;
+    private long lastOldCycles;
 
-    ProgramState(List<Integer> input, HashSet<String> presentVariables, List<com.commands.BaseCommand> commands, HashMap<String, Integer> labelToIndex) {
-        variables = new HashMap<>();
+    /*
+        Variable layout shared by every run of one Program (see Program.stateTemplate): the present variables other
+        than y, each with its input index when it is a canonical xk, so building a state is a presized map fill
+        without formatting or probing names.
+     */
+    static final class Template {
+        private final String[] names;
+        private final int[] inputIndex;
+
+        Template(Collection<String> presentVariables) {
+            List<String> others = new ArrayList<>();
+            for (String name : presentVariables) {
+                if (!name.equals("y")) {
+                    others.add(name);
+                }
+            }
+            names = others.toArray(new String[0]);
+            inputIndex = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                inputIndex[i] = ProgramCompiler.inputIndex(names[i]);
+            }
+        }
+    }
+
+
+    ProgramState(List<Integer> input, Template template, List<com.commands.BaseCommand> commands, HashMap<String, Integer> labelToIndex) {
+        this(input, template, commands, labelToIndex, ExecutionMode.DEBUG);
+    }
+
+    ProgramState(List<Integer> input, Template template, List<com.commands.BaseCommand> commands, HashMap<String, Integer> labelToIndex, ExecutionMode mode) {
+        this.mode = mode;
+        variables = new HashMap<>(2 * (1 + input.size() + template.names.length));
         variables.put("y", new Variable("y", 0));
         for (int i = 0; i < input.size(); i++) {
-            Variable v = new Variable(String.format("x%d",i+1), input.get(i));
-            variables.put(v.getName(), v);
+            String name = Names.inputVariable(i + 1);
+            variables.put(name, new Variable(name, input.get(i)));
         }
-        for(String variableName : presentVariables) {
-            if(!variables.containsKey(variableName)) {
-                variables.put(variableName, new Variable(variableName, 0));
+        for (int i = 0; i < template.names.length; i++) {
+            int k = template.inputIndex[i];
+            if (k == 0 || k > input.size()) {
+                variables.put(template.names[i], new Variable(template.names[i], 0));
             }
         }
         this.commands = commands;
@@ -40,6 +84,105 @@ public class ProgramState {
         this.cyclesCount = 0;
         this.done = false;
         this.breakpoints = new boolean[commands.size()];
+        if (mode == ExecutionMode.DEBUG){
+            undoLog = new UndoLog(variables.keySet(), undoCapacity, UndoLog.DEFAULT_CHECKPOINT_INTERVAL);
+            undoLog.checkpoint(snapshot(), currentCommandIndex, cyclesCount);
+        }
+    }
+
+    /*
+        Called by a command after it has applied its step.
+        variable may be null for steps that only move the index (jumps).
+     */
+    public void recordStep(String variable, int oldValue, int oldIndex, long oldCycles){
+        if (mode == ExecutionMode.DEBUG){
+            undoLog.record(variable, oldValue, oldIndex, oldCycles);
+            if (undoLog.checkpointDue()){
+                undoLog.checkpoint(snapshot(), currentCommandIndex, cyclesCount);
+            }
+            return;
+        }
+        hasLastStep = true;
+        lastVariable = variable;
+        lastOldValue = oldValue;
+        lastOldIndex = oldIndex;
+        lastOldCycles = oldCycles;
+    }
+
+    // Cycles a nested call made by the current command may use
+    public long remainingCycles(){
+        return maxCycles == Long.MAX_VALUE ? Long.MAX_VALUE : maxCycles - cyclesCount;
+    }
+
+    public boolean canUndo(){
+        return mode == ExecutionMode.DEBUG ? undoLog.depth() > 0 : hasLastStep;
+    }
+
+    // Reverts the most recent recorded step; returns false if there is nothing to undo
+    public boolean undoLastStep(){
+        if (!canUndo()){
+            return false;
+        }
+        String variable;
+        int oldValue;
+        if (mode == ExecutionMode.DEBUG){
+            if (undoLog.isRingEmpty()){
+                // The step fell out of the ring window
+                replayTo(undoLog.depth() - 1);
+                return true;
+            }
+            int position = undoLog.pop();
+            variable = undoLog.variableAt(position);
+            oldValue = undoLog.oldValueAt(position);
+            currentCommandIndex = undoLog.oldIndexAt(position);
+            cyclesCount = undoLog.oldCyclesAt(position);
+        } else {
+            hasLastStep = false;
+            variable = lastVariable;
+            oldValue = lastOldValue;
+            currentCommandIndex = lastOldIndex;
+            cyclesCount = lastOldCycles;
+        }
+        if (variable != null){
+            variables.get(variable).setValue(oldValue);
+        }
+        return true;
+    }
+
+    // Restores the nearest checkpoint at or before targetDepth and re-executes the steps after it
+    private void replayTo(int targetDepth){
+        UndoLog.Checkpoint checkpoint = undoLog.checkpointAtOrBefore(targetDepth);
+        String[] names = undoLog.slotNames();
+        for (int slot = 0; slot < names.length; slot++){
+            variables.get(names[slot]).setValue(checkpoint.values()[slot]);
+        }
+        currentCommandIndex = checkpoint.index();
+        cyclesCount = checkpoint.cycles();
+        undoLog.rewindTo(checkpoint);
+        // The steps being replayed were all taken before, so their nested calls are not held to the current budget
+        long budget = maxCycles;
+        maxCycles = Long.MAX_VALUE;
+        try {
+            while (undoLog.depth() < targetDepth){
+                commands.get(currentCommandIndex).execute(this);
+            }
+        } finally {
+            maxCycles = budget;
+        }
+    }
+
+    private int[] snapshot(){
+        String[] names = undoLog.slotNames();
+        int[] values = new int[names.length];
+        for (int slot = 0; slot < names.length; slot++){
+            values[slot] = variables.get(names[slot]).getValue();
+        }
+        return values;
+    }
+
+    // Approximate heap used by this state's undo history, in bytes
+    public long getUndoMemoryUsage(){
+        return undoLog == null ? 0 : undoLog.memoryUsage();
     }
 
     public void initialBreakpoints(List<Integer> indices){
@@ -0,0 +1,143 @@
+package com.program;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+/*
+    Bounded undo history for a debug session.
+    The most recent steps live in a ring of primitive arrays (variable slot, old value, old index, old cycles),
+    so recording a step allocates nothing. Steps that fall out of the ring are still reachable:
+    every checkpointInterval steps a full-state checkpoint is kept, and stepping back past the ring
+    restores the nearest earlier checkpoint and replays forward.
+    When there are too many checkpoints every other one is dropped and the interval doubles,
+    so memory stays bounded no matter how long the session runs.
+ */
+final class UndoLog {
+    static final int DEFAULT_CAPACITY = 4096;
+    static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;
+    private static final int MAX_CHECKPOINTS = 64;
+
+    record Checkpoint(int depth, int[] values, int index, long cycles) {}
+
+    private final String[] slotNames;
+    private final HashMap<String, Integer> slotByName = new HashMap<>();
+    private final int capacity;
+    private final int[] slots;
+    private final int[] oldValues;
+    private final int[] oldIndices;
+    private final long[] oldCycles;
+    private int head = 0;   // next write position in the ring
+    private int size = 0;   // number of steps currently held by the ring
+    private int depth = 0;  // steps recorded since the session started
+    private int checkpointInterval;
+    private final ArrayList<Checkpoint> checkpoints = new ArrayList<>();
+
+    UndoLog(Collection<String> variableNames, int capacity, int checkpointInterval) {
+        if (capacity <= 0 || checkpointInterval <= 0) {
+            throw new IllegalArgumentException("Undo log capacity and checkpoint interval must be positive");
+        }
+        this.slotNames = variableNames.toArray(new String[0]);
+        for (int i = 0; i < slotNames.length; i++) {
+            slotByName.put(slotNames[i], i);
+        }
+        this.capacity = capacity;
+        this.checkpointInterval = checkpointInterval;
+        slots = new int[capacity];
+        oldValues = new int[capacity];
+        oldIndices = new int[capacity];
+        oldCycles = new long[capacity];
+    }
+
+    String[] slotNames() {
+        return slotNames;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    boolean isRingEmpty() {
+        return size == 0;
+    }
+
+    // variable may be null for steps that only move the index (jumps)
+    void record(String variable, int oldValue, int oldIndex, long oldCycle) {
+        slots[head] = variable == null ? -1 : slotByName.get(variable);
+        oldValues[head] = oldValue;
+        oldIndices[head] = oldIndex;
+        oldCycles[head] = oldCycle;
+        head = (head + 1) % capacity;
+        if (size < capacity) {
+            size++;
+        }
+        depth++;
+    }
+
+    // Removes the newest step from the ring and returns its position for the accessors below
+    int pop() {
+        head = (head - 1 + capacity) % capacity;
+        size--;
+        depth--;
+        return head;
+    }
+
+    String variableAt(int position) {
+        return slots[position] < 0 ? null : slotNames[slots[position]];
+    }
+
+    int oldValueAt(int position) {
+        return oldValues[position];
+    }
+
+    int oldIndexAt(int position) {
+        return oldIndices[position];
+    }
+
+    long oldCyclesAt(int position) {
+        return oldCycles[position];
+    }
+
+    boolean checkpointDue() {
+        return depth % checkpointInterval == 0
+                && (checkpoints.isEmpty() || checkpoints.get(checkpoints.size() - 1).depth() < depth);
+    }
+
+    // values must be ordered by slotNames()
+    void checkpoint(int[] values, int index, long cycles) {
+        checkpoints.add(new Checkpoint(depth, values, index, cycles));
+        if (checkpoints.size() > MAX_CHECKPOINTS) {
+            checkpointInterval *= 2;
+            checkpoints.removeIf(c -> c.depth() != 0 && c.depth() % checkpointInterval != 0);
+        }
+    }
+
+    Checkpoint checkpointAtOrBefore(int targetDepth) {
+        Checkpoint best = null;
+        for (Checkpoint c : checkpoints) {
+            if (c.depth() > targetDepth) {
+                break;
+            }
+            best = c;
+        }
+        if (best == null) {
+            throw new IllegalStateException("No checkpoint to replay from");
+        }
+        return best;
+    }
+
+    // Positions the log at a checkpoint; steps after it must be replayed (and re-recorded) by the caller
+    void rewindTo(Checkpoint checkpoint) {
+        depth = checkpoint.depth();
+        size = 0;
+    }
+
+    // Approximate heap footprint of the log in bytes
+    long memoryUsage() {
+        long bytes = (4L * 3 + 8) * capacity;
+        for (Checkpoint c : checkpoints) {
+            bytes += 4L * c.values().length + 32;
+        }
+        return bytes;
+    }
+}
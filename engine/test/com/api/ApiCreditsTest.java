@@ -0,0 +1,141 @@
+package com.api;
+
+import com.dto.api.FunctionCacheStats;
+import com.dto.api.ProgramResult;
+import com.program.Architecture;
+import com.program.FunctionCallCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+    One user's runs on several threads at once (single runs, batches and debug sessions) spend the same credits
+    without spending any twice: the balance never goes below zero, and what is left plus what was used is what the
+    user was given. A short run is executed once, by the cost check before it, and charged for that run. Run like
+    the tests in com.program (see TestSupport there).
+ */
+public final class ApiCreditsTest {
+    private static final long GRANTED = 2_000_000;
+    private static final int THREADS = 5;
+
+    public static void main(String[] args) {
+        try {
+            concurrentRunsShareTheCredits();
+            shortRunsExecuteOnce();
+        } catch (AssertionError e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.out.println("ApiCreditsTest: all passed");
+        System.exit(0);
+    }
+
+    static void concurrentRunsShareTheCredits() {
+        Api api = new Api("credits-test");
+        // y <- max(x1, 1), 3 cycles per count
+        api.createEmptyProgram("CreditsCount");
+        api.createAndAddCommand("DECREASE", "x1", "L1", null);
+        api.createAndAddCommand("INCREASE", "y", null, null);
+        api.createAndAddCommand("JUMP_NOT_ZERO", "x1", null, Map.of("JNZLabel", "L1"));
+        api.addCredits(GRANTED);
+        // Publishes the program before the threads share it
+        api.executeProgram(List.of(1), 0, "I");
+
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int kind = t;
+            threads.add(new Thread(() -> {
+                try {
+                    while (spend(api, kind)) {
+                        check(api.getCredits() >= 0, "credits went below zero: " + api.getCredits());
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError("a run failed", failures.get(0));
+        }
+        check(api.getCredits() >= 0, "credits went below zero: " + api.getCredits());
+        check(api.getCredits() + api.getUsedCredits() == GRANTED,
+                api.getCredits() + " left and " + api.getUsedCredits() + " used of " + GRANTED);
+    }
+
+    static void shortRunsExecuteOnce() {
+        Api api = new Api("credits-test-2");
+        api.addCredits(1_000_000);
+        // y <- x1 + 1
+        api.createEmptyProgram("CreditsSuccessor");
+        api.createAndAddCommand("ASSIGNMENT", "y", null, Map.of("assignedVariable", "x1"));
+        api.createAndAddCommand("INCREASE", "y", null, null);
+        api.executeProgram(List.of(0), 0, "III");
+        api.createEmptyProgram("CreditsCaller");
+        api.createAndAddCommand("QUOTE", "y", null, Map.of("functionName", "CreditsSuccessor", "functionArguments", "x1"));
+
+        long used = api.getUsedCredits();
+        ProgramResult res = api.executeProgram(List.of(41), 0, "IV");
+        check(res.getHaltReason() == ProgramResult.HaltReason.FINISHED && res.getResult() == 42, "caller: " + res.getResult());
+        // A second execution would find the call's result in the cache
+        FunctionCacheStats stats = FunctionCallCache.statistics().stream()
+                .filter(s -> s.getFunctionName().equals("CreditsSuccessor"))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("no cache for CreditsSuccessor"));
+        check(stats.getMisses() == 1 && stats.getHits() == 0,
+                "the run executed more than once: " + stats.getMisses() + " misses, " + stats.getHits() + " hits");
+        check(api.getUsedCredits() - used == Architecture.architectureCosts.get("IV") + res.getCycles(),
+                "charged " + (api.getUsedCredits() - used) + " for a run of " + res.getCycles() + " cycles");
+    }
+
+    // One run of the given kind; false once the credits no longer cover it
+    private static boolean spend(Api api, int kind) {
+        try {
+            switch (kind) {
+                case 0 -> {
+                    List<Boolean> started = Collections.synchronizedList(new ArrayList<>());
+                    List<List<Integer>> inputs = Collections.nCopies(200, List.of(1000));
+                    api.executeBatch(inputs, 0, "I", false,
+                            (index, res) -> started.add(res.getHaltReason() == ProgramResult.HaltReason.FINISHED));
+                    return started.contains(true);
+                }
+                case 1 -> {
+                    List<List<Integer>> inputs = Collections.nCopies(200, List.of(1000));
+                    List<Boolean> started = Collections.synchronizedList(new ArrayList<>());
+                    api.executeBatch(inputs, 0, "I", true,
+                            (index, res) -> started.add(res.getHaltReason() == ProgramResult.HaltReason.FINISHED));
+                    return started.contains(true);
+                }
+                case 2 -> {
+                    ProgramResult res = api.startDebugging(List.of(1000), 0, List.of(1), "I");
+                    while (res.isDebug() && res.getHaltReason() != ProgramResult.HaltReason.INSUFFICIENT_CREDITS) {
+                        res = api.continueDebug();
+                    }
+                    return res.getHaltReason() == ProgramResult.HaltReason.FINISHED;
+                }
+                default -> {
+                    return api.executeProgram(List.of(1000), 0, "I").getHaltReason() == ProgramResult.HaltReason.FINISHED;
+                }
+            }
+        } catch (IllegalStateException e) {
+            // Turned away by the credit gates
+            return false;
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.api;
+
+import com.commands.FnArgs;
+import com.dto.api.ProgramResult;
+
+import java.util.List;
+
+/*
+    Building a program through the Api one command at a time: the edits go to a private working copy, which is
+    published to the registry once, when the program is next run, rather than once per command. Run like the tests
+    in com.program (see TestSupport there).
+ */
+public final class ApiEditingTest {
+    private static final int COMMANDS = 50_000;
+
+    public static void main(String[] args) {
+        try {
+            editsArePublishedOnRun();
+            editsAfterARunGoToANewCopy();
+        } catch (AssertionError e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.out.println("ApiEditingTest: all passed");
+        System.exit(0);
+    }
+
+    static void editsArePublishedOnRun() {
+        Api api = new Api("editing-test");
+        api.addCredits(1_000_000);
+        api.createEmptyProgram("EditingBig");
+        long start = System.nanoTime();
+        for (int i = 0; i < COMMANDS; i++) {
+            api.createAndAddCommand("INCREASE", "y", null, null);
+        }
+        long seconds = (System.nanoTime() - start) / 1_000_000_000L;
+        // Quadratic building (a copy or a registration per command) takes minutes at this size
+        check(seconds < 20, COMMANDS + " edits took " + seconds + " s");
+        check(FnArgs.getProgramByName("EditingBig").getCommands().isEmpty(), "edits should not be registered one by one");
+
+        ProgramResult res = api.executeProgram(List.of(), 0, "I");
+        check(res.getResult() == COMMANDS, "run of the edited program: " + res.getResult());
+        check(FnArgs.getProgramByName("EditingBig").getCommands().size() == COMMANDS, "the run should publish the edits");
+    }
+
+    static void editsAfterARunGoToANewCopy() {
+        Api api = new Api("editing-test-2");
+        api.addCredits(1_000_000);
+        api.createEmptyProgram("EditingSmall");
+        api.createAndAddCommand("INCREASE", "y", null, null);
+        api.executeProgram(List.of(), 0, "I");
+        api.createAndAddCommand("INCREASE", "y", null, null);
+        check(FnArgs.getProgramByName("EditingSmall").getCommands().size() == 1, "the published program should not change");
+        check(api.executeProgram(List.of(), 0, "I").getResult() == 2, "the next run should see the new edit");
+        check(FnArgs.getProgramByName("EditingSmall").getCommands().size() == 2, "the next run should publish it");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
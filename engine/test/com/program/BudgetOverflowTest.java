@@ -0,0 +1,88 @@
+package com.program;
+
+import com.commands.FnArgs;
+import com.dto.api.ProgramResult;
+
+import java.util.List;
+
+import static com.program.TestSupport.check;
+import static com.program.TestSupport.command;
+import static com.program.TestSupport.program;
+import static com.program.TestSupport.within;
+
+/*
+    Cycle counts and budgets past 2^31: runs longer than an int can count, budgets larger than an int, and the
+    boundary where bytecode (which counts in an int) takes over from the interpreter.
+ */
+public final class BudgetOverflowTest {
+    // y <- x1, one DECREASE, INCREASE and JUMP_NOT_ZERO (4 cycles) per unit of x1
+    private static final Program COUNT = program("OverflowCount",
+            command("DECREASE", "x1", "L1"),
+            command("INCREASE", "y", null),
+            command("JUMP_NOT_ZERO", "x1", null, "JNZLabel", "L1"));
+    // Loops for ever while x1 != 0, 3 cycles per iteration
+    private static final Program SPIN = program("OverflowSpin",
+            command("INCREASE", "z1", "L1"),
+            command("JUMP_NOT_ZERO", "x1", null, "JNZLabel", "L1"));
+
+    public static void main(String[] args) {
+        TestSupport.run("BudgetOverflowTest", () -> {
+            runLongerThanAnInt();
+            budgetLargerThanAnInt();
+            bytecodeAtIntBoundary();
+            nestedCallAtIntBoundary();
+        });
+    }
+
+    static void runLongerThanAnInt() {
+        int n = 1_100_000_000;
+        ProgramResult res = within(60, "4.4e9-cycle run", () -> COUNT.executeWithBudget(List.of(n), Long.MAX_VALUE));
+        check(res.getHaltReason() == ProgramResult.HaltReason.FINISHED, "long run should finish: " + res.getHaltReason());
+        check(res.getCycles() == 4L * n, "long run cycles: " + res.getCycles());
+        check(res.getResult() == n, "long run result: " + res.getResult());
+    }
+
+    static void budgetLargerThanAnInt() {
+        long budget = 5_000_000_000L;
+        ProgramResult res = within(60, "5e9 budget", () -> SPIN.executeWithBudget(List.of(1), budget));
+        check(res.getHaltReason() == ProgramResult.HaltReason.INSUFFICIENT_CREDITS, "spin should run out: " + res.getHaltReason());
+        check(res.getCycles() <= budget && res.getCycles() > budget - 3, "spin cycles: " + res.getCycles());
+    }
+
+    static void bytecodeAtIntBoundary() {
+        int threshold = CompiledProgram.jitThreshold;
+        Program.setJitThreshold(1);
+        try {
+            for (long budget : new long[] {Integer.MAX_VALUE - 1L, Integer.MAX_VALUE, Integer.MAX_VALUE + 1L}) {
+                ProgramResult res = within(60, "spin with budget " + budget, () -> SPIN.executeWithBudget(List.of(1), budget));
+                check(res.getHaltReason() == ProgramResult.HaltReason.INSUFFICIENT_CREDITS, "budget " + budget + ": " + res.getHaltReason());
+                check(res.getCycles() <= budget && res.getCycles() > budget - 3, "budget " + budget + " cycles: " + res.getCycles());
+            }
+            check(SPIN.getCompiled().tierUp() != null, "spin should have been tiered up");
+        } finally {
+            Program.setJitThreshold(threshold);
+        }
+    }
+
+    // A looping callee gets what is left of its caller's budget, so it meets the same boundary
+    static void nestedCallAtIntBoundary() {
+        Program spin = program("OverflowSpinFn",
+                command("INCREASE", "z1", "L1"),
+                command("JUMP_NOT_ZERO", "x1", null, "JNZLabel", "L1"));
+        FnArgs.registerProgram("overflow-test", spin);
+        Program caller = program("OverflowCaller",
+                command("QUOTE", "y", null, "functionName", "OverflowSpinFn", "functionArguments", "x1"));
+        int threshold = CompiledProgram.jitThreshold;
+        Program.setJitThreshold(1);
+        try {
+            long budget = Integer.MAX_VALUE;
+            for (int run = 0; run < 3; run++) {
+                ProgramResult res = within(60, "nested spin", () -> caller.executeWithBudget(List.of(1), budget));
+                check(res.getHaltReason() == ProgramResult.HaltReason.INSUFFICIENT_CREDITS, "nested spin: " + res.getHaltReason());
+                check(res.getCycles() == 0 && res.getDebugIndex() == 0, "nested spin halts on the call: " + res.getCycles());
+            }
+        } finally {
+            Program.setJitThreshold(threshold);
+        }
+    }
+}
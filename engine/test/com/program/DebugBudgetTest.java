@@ -0,0 +1,86 @@
+package com.program;
+
+import com.commands.FnArgs;
+import com.dto.api.ProgramResult;
+
+import java.util.List;
+
+import static com.program.TestSupport.check;
+import static com.program.TestSupport.command;
+import static com.program.TestSupport.program;
+import static com.program.TestSupport.within;
+
+/*
+    Debug sessions under a budget: starting, stepping and continuing stop on the command that would overrun it,
+    with that command undone, whether the cycles are the program's own or a nested call's, and a session stopped
+    that way carries on once it is given more.
+ */
+public final class DebugBudgetTest {
+    // Loops for ever while x1 != 0
+    private static final Program SPIN = program("DebugSpin",
+            command("INCREASE", "z1", "L1"),
+            command("JUMP_NOT_ZERO", "x1", null, "JNZLabel", "L1"));
+
+    public static void main(String[] args) {
+        TestSupport.run("DebugBudgetTest", () -> {
+            FnArgs.registerProgram("debug-budget-test", SPIN);
+            nestedCallStopsAtTheBudget();
+            ownLoopStopsAtTheBudget();
+            steppingStopsAtTheBudget();
+        });
+    }
+
+    static void nestedCallStopsAtTheBudget() {
+        Program caller = program("DebugSpinCaller",
+                command("INCREASE", "y", null),
+                command("QUOTE", "z2", null, "functionName", "DebugSpin", "functionArguments", "x1"),
+                command("INCREASE", "y", null));
+        DebugSession session = new DebugSession(caller);
+        ProgramResult res = within(20, "debugging a call that never ends",
+                () -> session.startDebugWithBudget(List.of(1), List.of(), 100));
+        check(res.getHaltReason() == ProgramResult.HaltReason.INSUFFICIENT_CREDITS, "start: " + res.getHaltReason());
+        check(res.getDebugIndex() == 1 && res.getCycles() == 1 && res.getResult() == 1,
+                "start should stop before the call: index " + res.getDebugIndex() + ", cycles " + res.getCycles());
+        check(res.isDebug(), "the session should stay paused");
+
+        ProgramResult cont = within(20, "continuing into a call that never ends", () -> session.continueDebugWithBudget(1000));
+        check(cont.getHaltReason() == ProgramResult.HaltReason.INSUFFICIENT_CREDITS && cont.getDebugIndex() == 1,
+                "continue: " + cont.getHaltReason() + " at " + cont.getDebugIndex());
+    }
+
+    static void ownLoopStopsAtTheBudget() {
+        DebugSession session = new DebugSession(SPIN);
+        ProgramResult res = within(20, "debugging a loop", () -> session.startDebugWithBudget(List.of(1), List.of(), 100));
+        ProgramResult plain = SPIN.executeWithBudget(List.of(1), 100);
+        check(res.getHaltReason() == ProgramResult.HaltReason.INSUFFICIENT_CREDITS, "loop: " + res.getHaltReason());
+        check(res.getCycles() == plain.getCycles() && res.getDebugIndex() == plain.getDebugIndex(),
+                "loop should stop where a plain run does: " + res.getCycles() + " at " + res.getDebugIndex()
+                        + " vs " + plain.getCycles() + " at " + plain.getDebugIndex());
+
+        ProgramResult more = within(20, "continuing a loop", () -> session.continueDebugWithBudget(200));
+        check(more.getHaltReason() == ProgramResult.HaltReason.INSUFFICIENT_CREDITS
+                        && more.getCycles() == SPIN.executeWithBudget(List.of(1), 200).getCycles(),
+                "continuing with a larger budget: " + more.getHaltReason() + " after " + more.getCycles());
+    }
+
+    static void steppingStopsAtTheBudget() {
+        // y <- 3, one cycle per step
+        Program three = program("DebugThree",
+                command("INCREASE", "y", null),
+                command("INCREASE", "y", null),
+                command("INCREASE", "y", null));
+        DebugSession session = new DebugSession(three);
+        ProgramResult paused = session.startDebugWithBudget(List.of(), List.of(0), 2);
+        check(paused.getHaltReason() == ProgramResult.HaltReason.STOPPED_MANUALLY && paused.getDebugIndex() == 0,
+                "breakpoint: " + paused.getHaltReason());
+        session.stepOverWithBudget(2);
+        session.stepOverWithBudget(2);
+        ProgramResult over = session.stepOverWithBudget(2);
+        check(over.getHaltReason() == ProgramResult.HaltReason.INSUFFICIENT_CREDITS && over.getDebugIndex() == 2
+                        && over.getCycles() == 2 && over.isDebug(),
+                "the third step should not fit: " + over.getHaltReason() + " at " + over.getDebugIndex());
+        ProgramResult done = session.stepOverWithBudget(3);
+        check(done.getHaltReason() == ProgramResult.HaltReason.FINISHED && done.getResult() == 3 && !done.isDebug(),
+                "with one more cycle the run finishes: " + done.getHaltReason());
+    }
+}
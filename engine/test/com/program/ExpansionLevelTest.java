@@ -0,0 +1,90 @@
+package com.program;
+
+import com.commands.FnArgs;
+import com.dto.api.ProgramResult;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.program.TestSupport.check;
+import static com.program.TestSupport.command;
+import static com.program.TestSupport.program;
+
+/*
+    The program Program.expand(level) shows is the one getCompiled(level) runs, at every level, including levels
+    past getMaxExpansionLevel (a QUOTE keeps expanding there, through the ASSIGNMENTs that pass its arguments), and
+    whether a level comes from the cache, is built from a cached level below it, or is built from scratch. Cached
+    levels outlive registrations of programs the caller does not reach, and give way when a function it reaches,
+    even through another function, is registered again.
+ */
+public final class ExpansionLevelTest {
+    // y <- max(x1, 1) in basic commands only, so quoting it adds one level to getMaxExpansionLevel while the
+    // ASSIGNMENTs passing the arguments expand for two more
+    private static final Program COUNT = program("ExpansionCount",
+            command("DECREASE", "x1", "L1"),
+            command("INCREASE", "y", null),
+            command("JUMP_NOT_ZERO", "x1", null, "JNZLabel", "L1"));
+
+    public static void main(String[] args) {
+        TestSupport.run("ExpansionLevelTest", () -> {
+            FnArgs.registerProgram("expansion-test", COUNT);
+            Program caller = program("ExpansionCaller",
+                    command("QUOTE", "y", null, "functionName", "ExpansionCount", "functionArguments", "x1"),
+                    command("INCREASE", "y", null));
+            int deepest = caller.getMaxExpansionLevel() + 3;
+            // Deepest first, so the shallower levels are then served from the cache
+            for (int level = deepest; level >= 0; level--) {
+                sameAsCompiled(caller, level);
+            }
+            for (int level = 0; level <= deepest; level++) {
+                sameAsCompiled(caller, level);
+            }
+            check(caller.expand(deepest) == caller.expand(deepest), "expand(" + deepest + ") should be cached");
+            levelsFollowTheirCallees();
+        });
+    }
+
+    // Re-registers ExpansionCount, so it runs last
+    static void levelsFollowTheirCallees() {
+        FnArgs.registerProgram("expansion-test", program("ExpansionMiddle",
+                command("QUOTE", "y", null, "functionName", "ExpansionCount", "functionArguments", "x1")));
+        String[][] rows = {
+                command("QUOTE", "y", null, "functionName", "ExpansionMiddle", "functionArguments", "x1"),
+                command("INCREASE", "y", null)};
+        Program top = program("ExpansionTop", rows);
+        int level = top.getMaxExpansionLevel();
+        CompiledProgram compiled = top.getCompiled(level);
+        Program expanded = top.expand(level);
+
+        FnArgs.registerProgram("expansion-test", program("ExpansionUnrelated", command("INCREASE", "y", null)));
+        check(top.getCompiled(level) == compiled && top.expand(level) == expanded,
+                "registering a program ExpansionTop does not call dropped its levels");
+
+        // y <- 7 instead of y <- max(x1, 1), still taking x1
+        FnArgs.registerProgram("expansion-test", program("ExpansionCount",
+                command("NEUTRAL", "x1", null),
+                command("CONSTANT_ASSIGNMENT", "y", null, "constantValue", "7")));
+        check(top.getCompiled(level) != compiled && top.expand(level) != expanded,
+                "re-registering a function ExpansionTop reaches through ExpansionMiddle kept its levels");
+        for (int l = 0; l <= top.getMaxExpansionLevel() + 1; l++) {
+            long result = top.getCompiled(l).executeWithBudget(List.of(3), Long.MAX_VALUE).getResult();
+            check(result == 8, "ExpansionTop at level " + l + " should see the new callee: " + result);
+            sameAsCompiled(top, l);
+        }
+    }
+
+    static void sameAsCompiled(Program p, int level) {
+        CompiledProgram shown = p.expand(level).getCompiled();
+        CompiledProgram run = p.getCompiled(level);
+        String what = p.getName() + " at level " + level;
+        check(shown.size() == run.size(), what + ": expand has " + shown.size() + " instructions, getCompiled " + run.size());
+        check(Arrays.equals(shown.opcodes, run.opcodes) && Arrays.equals(shown.targets, run.targets),
+                what + ": expand and getCompiled differ");
+        for (int x1 = 0; x1 < 5; x1++) {
+            ProgramResult a = shown.executeWithBudget(List.of(x1), Long.MAX_VALUE);
+            ProgramResult b = run.executeWithBudget(List.of(x1), Long.MAX_VALUE);
+            check(a.getResult() == b.getResult() && a.getCycles() == b.getCycles(),
+                    what + " on " + x1 + ": " + a.getResult() + "/" + a.getCycles() + " vs " + b.getResult() + "/" + b.getCycles());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.program;
+
+import com.commands.FnArgs;
+import com.dto.api.FunctionCacheStats;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.program.TestSupport.check;
+import static com.program.TestSupport.command;
+import static com.program.TestSupport.program;
+
+/*
+    The per-function call cache: it stays within its capacity, keeps the entries in use over ones that are not,
+    and answers many threads calling the same function with the same arguments.
+ */
+public final class FunctionCallCacheTest {
+    // y <- x1 + 1
+    private static final Program SUCCESSOR = program("CacheSuccessor",
+            command("ASSIGNMENT", "y", null, "assignedVariable", "x1"),
+            command("INCREASE", "y", null));
+
+    public static void main(String[] args) {
+        TestSupport.run("FunctionCallCacheTest", () -> {
+            FnArgs.registerProgram("cache-test", SUCCESSOR);
+            staysWithinCapacity();
+            keepsRecentlyUsedEntries();
+            parallelHits();
+            FunctionCallCache.setCapacity(1024);
+        });
+    }
+
+    static void staysWithinCapacity() {
+        FunctionCallCache.setCapacity(64);
+        for (int x = 0; x < 1000; x++) {
+            check(SUCCESSOR.call(List.of(x), Long.MAX_VALUE).result() == x + 1, "successor of " + x);
+            check(stats().getSize() <= 64, "cache grew to " + stats().getSize() + " entries");
+        }
+    }
+
+    static void keepsRecentlyUsedEntries() {
+        FunctionCallCache.setCapacity(64);
+        SUCCESSOR.call(List.of(-1), Long.MAX_VALUE);
+        for (int x = 0; x < 1000; x++) {
+            SUCCESSOR.call(List.of(x), Long.MAX_VALUE);
+            // Used between every store, so it is never the least recently used
+            SUCCESSOR.call(List.of(-1), Long.MAX_VALUE);
+        }
+        check(stats().getMisses() == 1001, "the entry in use was evicted: " + stats().getMisses() + " misses");
+    }
+
+    static void parallelHits() {
+        FunctionCallCache.setCapacity(64);
+        SUCCESSOR.call(List.of(7), Long.MAX_VALUE);
+        long calls = IntStream.range(0, 400_000).parallel()
+                .filter(i -> SUCCESSOR.call(List.of(7), Long.MAX_VALUE).result() == 8)
+                .count();
+        check(calls == 400_000, "wrong results from parallel hits");
+        check(stats().getHits() == 400_000 && stats().getMisses() == 1,
+                "parallel hits: " + stats().getHits() + " hits, " + stats().getMisses() + " misses");
+    }
+
+    private static FunctionCacheStats stats() {
+        return FunctionCallCache.statistics().stream()
+                .filter(s -> s.getFunctionName().equals(SUCCESSOR.getName()))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("no cache for " + SUCCESSOR.getName()));
+    }
+}
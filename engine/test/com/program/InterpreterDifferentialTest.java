@@ -0,0 +1,193 @@
+package com.program;
+
+import com.commands.FnArgs;
+import com.dto.api.ProgramResult;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.program.TestSupport.check;
+import static com.program.TestSupport.command;
+import static com.program.TestSupport.program;
+
+/*
+    Every way of running a program against the command interpreter (a DEBUG run of the expanded program) on
+    random programs, at every expansion level, with budgets that let runs finish and budgets that stop them part
+    way: the compiled form, its bytecode (whole, and framed for a cancellable run), the scheduler in 5-cycle slices,
+    lockstep batches and checkpointed runs saved to disk and loaded back between slices all report the same cycles,
+    result, variables and halt index.
+ */
+public final class InterpreterDifferentialTest {
+    private static final String USER = "differential-test";
+    private static final String[] VARIABLES = {"y", "x1", "x2", "z1", "z2", "z3"};
+    private static final String[] OPERATIONS = {"INCREASE", "DECREASE", "NEUTRAL", "JUMP_NOT_ZERO", "ZERO_VARIABLE",
+            "ASSIGNMENT", "CONSTANT_ASSIGNMENT", "GOTO_LABEL", "JUMP_ZERO", "JUMP_EQUAL_CONSTANT", "JUMP_EQUAL_VARIABLE",
+            "QUOTE", "JUMP_EQUAL_FUNCTION", "INCREASE", "DECREASE", "JUMP_NOT_ZERO"};
+    private static final int PROGRAMS = 300;
+    private static final int MAX_LEVEL = 3;
+
+    // y <- x1 - x2 (0 when x2 > x1)
+    private static final Program MINUS = program("DiffMinus",
+            command("ASSIGNMENT", "y", null, "assignedVariable", "x1"),
+            command("ASSIGNMENT", "z1", null, "assignedVariable", "x2"),
+            command("JUMP_ZERO", "z1", "L1", "JZLabel", "EXIT"),
+            command("DECREASE", "y", null),
+            command("DECREASE", "z1", null),
+            command("GOTO_LABEL", "", null, "gotoLabel", "L1"));
+    // y <- x1 + 1
+    private static final Program SUCCESSOR = program("DiffSuccessor",
+            command("ASSIGNMENT", "y", null, "assignedVariable", "x1"),
+            command("INCREASE", "y", null));
+
+    private static int cases = 0;
+    private static int bytecodeCases = 0;
+
+    public static void main(String[] args) {
+        TestSupport.run("InterpreterDifferentialTest", () -> {
+            FnArgs.registerProgram(USER, MINUS);
+            FnArgs.registerProgram(USER, SUCCESSOR);
+            Random random = new Random(11);
+            Path checkpoint = temporaryFile();
+            int threshold = CompiledProgram.jitThreshold;
+            try {
+                for (int k = 0; k < PROGRAMS; k++) {
+                    Program p = randomProgram("Diff" + k, random);
+                    // Checkpoints name their program, so it has to be registered to be loaded back
+                    FnArgs.registerProgram(USER, p);
+                    for (int level = 0; level <= Math.min(p.getMaxExpansionLevel(), MAX_LEVEL); level++) {
+                        compareAtLevel(p, level, random, checkpoint);
+                    }
+                }
+            } finally {
+                Program.setJitThreshold(threshold);
+            }
+            check(cases > 1000, "only " + cases + " cases ran");
+            // Programs the JIT declines run interpreted, but most have to have been checked as bytecode
+            check(bytecodeCases > cases / 2, "only " + bytecodeCases + " of " + cases + " cases ran as bytecode");
+        });
+    }
+
+    static void compareAtLevel(Program p, int level, Random random, Path checkpoint) {
+        Program expanded = p.expand(level);
+        CompiledProgram code = p.getCompiled(level);
+        ExecutionScheduler scheduler = new ExecutionScheduler(2, 5);
+        List<List<Integer>> inputs = new ArrayList<>();
+        List<ProgramResult> expected = new ArrayList<>();
+        long[] budgets = new long[4];
+        for (int t = 0; t < budgets.length; t++) {
+            List<Integer> input = new ArrayList<>();
+            int count = random.nextInt(3);
+            for (int i = 0; i < count; i++) {
+                input.add(random.nextInt(5));
+            }
+            long budget = t == 0 ? 4000 : random.nextInt(300);
+            String what = p.getName() + " at level " + level + " on " + input + " with budget " + budget;
+            ProgramResult interpreted = expanded.executeWithBudget(input, budget, ExecutionMode.DEBUG);
+
+            Program.setJitThreshold(0);
+            same(what + " compiled", code.executeWithBudget(input, budget), interpreted);
+            Program.setJitThreshold(1);
+            if (code.tierUp() != null) {
+                same(what + " bytecode", code.executeWithBudget(input, budget), interpreted);
+                same(what + " cancellable bytecode", code.executeWithBudget(input, budget, new CancellationToken()), interpreted);
+                bytecodeCases++;
+            }
+            same(what + " scheduled", scheduler.execute(USER, p, level, input, budget, null), interpreted);
+            same(what + " checkpointed", checkpointed(p, level, input, budget, random, checkpoint), interpreted);
+
+            inputs.add(input);
+            expected.add(interpreted);
+            budgets[t] = budget;
+            cases++;
+        }
+        if (LockstepExecution.supports(code)) {
+            ProgramResult[] lanes = LockstepExecution.run(code, inputs, budgets);
+            for (int i = 0; i < lanes.length; i++) {
+                same(p.getName() + " at level " + level + " lockstep lane " + i, lanes[i], expected.get(i));
+            }
+        }
+    }
+
+    // Runs in random slices, saving the execution and loading it back after each
+    private static ProgramResult checkpointed(Program p, int level, List<Integer> input, long budget, Random random, Path file) {
+        try {
+            CheckpointedExecution execution = CheckpointedExecution.start(p, level, null, input, budget);
+            while (!execution.isDone()) {
+                execution.run(1 + random.nextInt(120));
+                execution.save(file);
+                execution = CheckpointedExecution.load(file);
+            }
+            return execution.getResult();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Up to 12 random commands; jumps only target labels the program has (or EXIT), so every program is legal
+    private static Program randomProgram(String name, Random random) {
+        int size = 3 + random.nextInt(10);
+        String[] labels = new String[size];
+        List<String> targets = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (random.nextInt(3) == 0) {
+                labels[i] = "L" + (1 + random.nextInt(9));
+                targets.add(labels[i]);
+            }
+        }
+        targets.add("EXIT");
+        String[][] rows = new String[size][];
+        for (int i = 0; i < size; i++) {
+            String operation = OPERATIONS[random.nextInt(OPERATIONS.length)];
+            String variable = VARIABLES[random.nextInt(VARIABLES.length)];
+            String other = VARIABLES[random.nextInt(VARIABLES.length)];
+            String a = VARIABLES[1 + random.nextInt(VARIABLES.length - 1)];
+            String b = VARIABLES[1 + random.nextInt(VARIABLES.length - 1)];
+            String target = targets.get(random.nextInt(targets.size()));
+            String[] args = switch (operation) {
+                case "JUMP_NOT_ZERO" -> new String[] {"JNZLabel", target};
+                case "ASSIGNMENT" -> new String[] {"assignedVariable", other};
+                case "CONSTANT_ASSIGNMENT" -> new String[] {"constantValue", "" + random.nextInt(4)};
+                case "GOTO_LABEL" -> new String[] {"gotoLabel", target};
+                case "JUMP_ZERO" -> new String[] {"JZLabel", target};
+                case "JUMP_EQUAL_CONSTANT" -> new String[] {"constantValue", "" + random.nextInt(3), "JEConstantLabel", target};
+                case "JUMP_EQUAL_VARIABLE" -> new String[] {"variableName", other, "JEVariableLabel", target};
+                case "QUOTE" -> new String[] {"functionName", "DiffMinus", "functionArguments",
+                        random.nextBoolean() ? a + "," + b : "((DiffSuccessor," + b + ")," + a + ")"};
+                case "JUMP_EQUAL_FUNCTION" -> new String[] {"functionName", "DiffSuccessor", "functionArguments",
+                        random.nextBoolean() ? b : "(DiffMinus," + b + "," + a + ")", "JEFunctionLabel", target};
+                default -> new String[0];
+            };
+            String[] row = new String[3 + args.length];
+            row[0] = operation;
+            row[1] = variable;
+            row[2] = labels[i];
+            System.arraycopy(args, 0, row, 3, args.length);
+            rows[i] = row;
+        }
+        return program(name, rows);
+    }
+
+    private static void same(String what, ProgramResult actual, ProgramResult expected) {
+        check(key(actual).equals(key(expected)), what + ": " + key(actual) + " vs " + key(expected));
+    }
+
+    private static String key(ProgramResult res) {
+        return res.getHaltReason() + "/" + res.getCycles() + "/" + res.getResult() + "/" + res.getDebugIndex()
+                + "/" + res.getVariableToValue();
+    }
+
+    private static Path temporaryFile() {
+        try {
+            Path file = Files.createTempFile("differential", ".ckpt");
+            file.toFile().deleteOnExit();
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
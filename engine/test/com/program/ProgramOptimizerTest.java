@@ -0,0 +1,198 @@
+package com.program;
+
+import com.dto.api.ProgramResult;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static com.program.TestSupport.check;
+import static com.program.TestSupport.command;
+import static com.program.TestSupport.program;
+
+/*
+    ProgramOptimizer against the program as written, on the same inputs and budgets, at every expansion level:
+    runs of the optimized form that finish report the plain run's cycles, result and variables (less the ones it
+    eliminated), a plain run that runs out of budget runs out on the optimized form too, and a result-only run
+    through ExecutionScheduler that runs out or is cancelled starts over on the original and reports exactly the
+    plain run.
+ */
+public final class ProgramOptimizerTest {
+    // y <- x1 through a copy, with a dead constant store and a chain of GOTO_LABELs closing the loop
+    private static final Program DEAD_STORES = program("OptDeadStores",
+            command("ASSIGNMENT", "z1", null, "assignedVariable", "x1"),
+            command("CONSTANT_ASSIGNMENT", "z2", null, "constantValue", "7"),
+            command("JUMP_ZERO", "z1", "L1", "JZLabel", "EXIT"),
+            command("DECREASE", "z1", null),
+            command("INCREASE", "y", null),
+            command("INCREASE", "z3", null),
+            command("GOTO_LABEL", "", null, "gotoLabel", "L2"),
+            command("GOTO_LABEL", "", "L2", "gotoLabel", "L3"),
+            command("GOTO_LABEL", "", "L3", "gotoLabel", "L1"));
+    // y <- 3 + x1, through constants the optimizer can follow and a jump whose outcome is known
+    private static final Program CONSTANTS = program("OptConstants",
+            command("CONSTANT_ASSIGNMENT", "z1", null, "constantValue", "3"),
+            command("ASSIGNMENT", "z2", null, "assignedVariable", "z1"),
+            command("JUMP_EQUAL_CONSTANT", "z2", null, "constantValue", "3", "JEConstantLabel", "L1"),
+            command("INCREASE", "y", null),
+            command("ASSIGNMENT", "y", "L1", "assignedVariable", "z2"),
+            command("ZERO_VARIABLE", "z4", null),
+            command("JUMP_ZERO", "x1", "L2", "JZLabel", "EXIT"),
+            command("DECREASE", "x1", null),
+            command("INCREASE", "y", null),
+            command("GOTO_LABEL", "", null, "gotoLabel", "L2"));
+    // y <- x1 - x2 when x1 >= x2, else 0, with a work variable nothing reads
+    private static final Program DIFFERENCE = program("OptDifference",
+            command("ASSIGNMENT", "z1", null, "assignedVariable", "x1"),
+            command("ASSIGNMENT", "z2", null, "assignedVariable", "x2"),
+            command("JUMP_EQUAL_VARIABLE", "z1", "L1", "variableName", "z2", "JEVariableLabel", "L3"),
+            command("JUMP_ZERO", "z2", null, "JZLabel", "L3"),
+            command("JUMP_ZERO", "z1", null, "JZLabel", "L3"),
+            command("DECREASE", "z1", null),
+            command("DECREASE", "z2", null),
+            command("INCREASE", "z5", null),
+            command("GOTO_LABEL", "", null, "gotoLabel", "L1"),
+            command("JUMP_NOT_ZERO", "z2", "L3", "JNZLabel", "L4"),
+            command("ASSIGNMENT", "y", null, "assignedVariable", "z1"),
+            command("NEUTRAL", "y", "L4"));
+
+    private static final List<Program> PROGRAMS = List.of(DEAD_STORES, CONSTANTS, DIFFERENCE);
+    private static final int INPUTS_PER_LEVEL = 40;
+
+    public static void main(String[] args) {
+        TestSupport.run("ProgramOptimizerTest", () -> {
+            optimizerRewrites();
+            finishedRunsMatch();
+            budgetHaltsMatch();
+            resultOnlyRunsRestartOnOriginal();
+            cancelledResultOnlyRunsReportOriginal();
+        });
+    }
+
+    // Guards the other cases against passing only because nothing was optimized
+    static void optimizerRewrites() {
+        for (Program p : PROGRAMS) {
+            CompiledProgram plain = p.getCompiled(0);
+            CompiledProgram optimized = plain.optimized();
+            boolean rewritten = false;
+            for (int pc = 0; pc < plain.size(); pc++) {
+                rewritten |= plain.opcodes[pc] != optimized.opcodes[pc] || plain.targets[pc] != optimized.targets[pc];
+            }
+            check(rewritten, p.getName() + " should be rewritten by the optimizer");
+        }
+    }
+
+    static void finishedRunsMatch() {
+        Random random = new Random(1);
+        forEachRun(random, (p, level, input) -> {
+            CompiledProgram plain = p.getCompiled(level);
+            ProgramResult expected = plain.executeWithBudget(input, Long.MAX_VALUE);
+            ProgramResult actual = plain.optimized().executeWithBudget(input, Long.MAX_VALUE);
+            String what = describe(p, level, input, Long.MAX_VALUE);
+            check(expected.getHaltReason() == ProgramResult.HaltReason.FINISHED, what + " should finish");
+            check(sameFinished(actual, expected), what + ": " + key(actual) + " vs " + key(expected));
+        });
+    }
+
+    static void budgetHaltsMatch() {
+        Random random = new Random(2);
+        int[] halted = {0};
+        forEachRun(random, (p, level, input) -> {
+            CompiledProgram plain = p.getCompiled(level);
+            long full = plain.executeWithBudget(input, Long.MAX_VALUE).getCycles();
+            long budget = random.nextInt((int) full + 1);
+            ProgramResult expected = plain.executeWithBudget(input, budget);
+            ProgramResult actual = plain.optimized().executeWithBudget(input, budget);
+            String what = describe(p, level, input, budget);
+            if (expected.getHaltReason() == ProgramResult.HaltReason.FINISHED) {
+                check(sameFinished(actual, expected), what + ": " + key(actual) + " vs " + key(expected));
+            } else {
+                halted[0]++;
+                check(actual.getHaltReason() == expected.getHaltReason(), what + " should halt like the plain run: " + key(actual));
+            }
+        });
+        check(halted[0] > 0, "no budget in budgetHaltsMatch halted a run");
+    }
+
+    static void resultOnlyRunsRestartOnOriginal() {
+        Random random = new Random(3);
+        ExecutionScheduler scheduler = new ExecutionScheduler(2, 50);
+        int[] restarted = {0};
+        forEachRun(random, (p, level, input) -> {
+            CompiledProgram plain = p.getCompiled(level);
+            long full = plain.executeWithBudget(input, Long.MAX_VALUE).getCycles();
+            long budget = random.nextBoolean() ? Long.MAX_VALUE : random.nextInt((int) full + 1);
+            ProgramResult expected = plain.executeWithBudget(input, budget);
+            ProgramResult actual = scheduler.execute("optimizer-test", p, level, input, budget, null, true);
+            String what = describe(p, level, input, budget);
+            if (expected.getHaltReason() == ProgramResult.HaltReason.FINISHED) {
+                check(sameFinished(actual, expected), what + ": " + key(actual) + " vs " + key(expected));
+            } else {
+                // Only the original reports every variable at the halt, so an exact match shows the run started over
+                check(key(actual).equals(key(expected)), what + ": " + key(actual) + " vs " + key(expected));
+                if (!key(plain.optimized().executeWithBudget(input, budget)).equals(key(expected))) {
+                    restarted[0]++;
+                }
+            }
+        });
+        check(restarted[0] > 0, "no result-only run had to start over on the original");
+    }
+
+    static void cancelledResultOnlyRunsReportOriginal() {
+        Random random = new Random(4);
+        ExecutionScheduler scheduler = new ExecutionScheduler(2, 50);
+        CancellationToken cancelled = new CancellationToken();
+        cancelled.cancel();
+        int[] differs = {0};
+        forEachRun(random, (p, level, input) -> {
+            CompiledProgram plain = p.getCompiled(level);
+            ProgramResult expected = plain.executeWithBudget(input, Long.MAX_VALUE, cancelled);
+            ProgramResult actual = scheduler.execute("optimizer-test", p, level, input, Long.MAX_VALUE, cancelled, true);
+            String what = describe(p, level, input, Long.MAX_VALUE) + " cancelled";
+            check(key(actual).equals(key(expected)), what + ": " + key(actual) + " vs " + key(expected));
+            if (!key(plain.optimized().executeWithBudget(input, Long.MAX_VALUE, cancelled)).equals(key(expected))) {
+                differs[0]++;
+            }
+        });
+        check(differs[0] > 0, "no cancelled optimized run differed from the original");
+    }
+
+    private interface RunCase {
+        void run(Program p, int level, List<Integer> input);
+    }
+
+    // Every program at every expansion level with small random inputs (zeros included)
+    private static void forEachRun(Random random, RunCase body) {
+        for (Program p : PROGRAMS) {
+            int arity = p.getInputVariables().size();
+            for (int level = 0; level <= p.getMaxExpansionLevel(); level++) {
+                for (int i = 0; i < INPUTS_PER_LEVEL; i++) {
+                    List<Integer> input = new ArrayList<>();
+                    for (int k = 0; k < arity; k++) {
+                        input.add(random.nextInt(i % 4 == 0 ? 2 : 30));
+                    }
+                    body.run(p, level, input);
+                }
+            }
+        }
+    }
+
+    // Same halt, cycles and result; the optimized run may leave out variables it eliminated
+    private static boolean sameFinished(ProgramResult optimized, ProgramResult plain) {
+        return optimized.getHaltReason() == plain.getHaltReason()
+                && optimized.getCycles() == plain.getCycles()
+                && optimized.getResult() == plain.getResult()
+                && optimized.getDebugIndex() == plain.getDebugIndex()
+                && new HashSet<>(plain.getVariableToValue()).containsAll(optimized.getVariableToValue());
+    }
+
+    private static String key(ProgramResult res) {
+        return res.getHaltReason() + "/" + res.getCycles() + "/" + res.getResult() + "/" + res.getDebugIndex()
+                + "/" + res.getVariableToValue();
+    }
+
+    private static String describe(Program p, int level, List<Integer> input, long budget) {
+        return p.getName() + " at level " + level + " on " + input + " with budget " + budget;
+    }
+}
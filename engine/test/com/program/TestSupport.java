@@ -0,0 +1,74 @@
+package com.program;
+
+import com.XMLHandlerV2.SInstructionArgument;
+import com.commands.BaseCommand;
+import com.commands.CommandFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/*
+    Shared pieces of the engine tests. The tests need nothing beyond the JDK: each test class has a main that runs
+    its cases and throws AssertionError on the first failure, e.g.
+        javac -d out $(find dto/src engine/src engine/test -name '*.java') && java -cp out com.program.BudgetOverflowTest
+    (with the jakarta.xml.bind API on the class path).
+ */
+final class TestSupport {
+    private TestSupport() {}
+
+    /*
+        A program from one row per command: name, variable, label (null for none), then argument name/value pairs,
+        e.g. {"JUMP_NOT_ZERO", "x1", null, "JNZLabel", "L1"}.
+     */
+    static Program program(String name, String[]... rows) {
+        List<BaseCommand> commands = new ArrayList<>();
+        for (String[] row : rows) {
+            List<SInstructionArgument> args = new ArrayList<>();
+            for (int i = 3; i + 1 < row.length; i += 2) {
+                SInstructionArgument arg = new SInstructionArgument();
+                arg.setName(row[i]);
+                arg.setValue(row[i + 1]);
+                args.add(arg);
+            }
+            commands.add(CommandFactory.createCommand(row[0], row[1], row[2], args, commands.size()));
+        }
+        return new Program(name, commands);
+    }
+
+    // Runs a test class's cases and exits, so a run left spinning by a failed case cannot keep the JVM alive
+    static void run(String test, Runnable cases) {
+        try {
+            cases.run();
+        } catch (AssertionError e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.out.println(test + ": all passed");
+        System.exit(0);
+    }
+
+    static String[] command(String... row) {
+        return row;
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    // Runs work on another thread and fails if it takes longer than seconds (a run that never halts)
+    static <T> T within(int seconds, String what, Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(work).get(seconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new AssertionError(what + " did not finish within " + seconds + " s");
+        } catch (Exception e) {
+            throw new AssertionError(what + " failed: " + e, e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.program;
+
+import com.commands.FnArgs;
+import com.dto.api.ProgramResult;
+
+import java.util.List;
+
+import static com.program.TestSupport.check;
+import static com.program.TestSupport.command;
+import static com.program.TestSupport.program;
+import static com.program.TestSupport.within;
+
+/*
+    Cancellable and sliced runs of tiered-up programs stay on bytecode: it polls the run's token at loop headers,
+    whether the program runs it itself or a nested call does, and checkpointed and scheduled runs pause and resume
+    it at slice boundaries with the same outcome as a plain run.
+ */
+public final class TieredExecutionTest {
+    private static final String USER = "tiered-test";
+    // Loops while x1 != 0 through an ASSIGNMENT, which LoopSummarizer leaves alone: 7 cycles and 3 steps per iteration
+    private static final Program SPIN = program("TieredSpin",
+            command("ASSIGNMENT", "z2", "L1", "assignedVariable", "z1"),
+            command("INCREASE", "z1", null),
+            command("JUMP_NOT_ZERO", "x1", null, "JNZLabel", "L1"));
+    // y <- x1 the same way, 8 cycles per unit
+    private static final Program COUNT = program("TieredCount",
+            command("ASSIGNMENT", "z1", "L1", "assignedVariable", "y"),
+            command("INCREASE", "y", null),
+            command("DECREASE", "x1", null),
+            command("JUMP_NOT_ZERO", "x1", null, "JNZLabel", "L1"));
+
+    public static void main(String[] args) {
+        TestSupport.run("TieredExecutionTest", () -> {
+            FnArgs.registerProgram(USER, SPIN);
+            FnArgs.registerProgram(USER, COUNT);
+            int threshold = CompiledProgram.jitThreshold;
+            Program.setJitThreshold(1);
+            try {
+                ownLoopPollsAsBytecode();
+                nestedLoopPollsAsBytecode();
+                slicedRunsMatchPlainRuns();
+            } finally {
+                Program.setJitThreshold(threshold);
+            }
+        });
+    }
+
+    static void ownLoopPollsAsBytecode() {
+        CompiledProgram code = SPIN.getCompiled();
+        check(code.tierUp() != null, "spin should have been tiered up");
+        // Fires on the third poll; the first comes before the first step
+        ProgramResult res = within(20, "cancellable spin",
+                () -> code.executeWithBudget(List.of(1), Integer.MAX_VALUE, CancellationToken.afterPolls(3)));
+        check(res.getHaltReason() == ProgramResult.HaltReason.CANCELLED, "spin: " + res.getHaltReason());
+        // The interpreter polls every CHECK_INTERVAL steps, bytecode every CHECK_INTERVAL iterations of 3 steps
+        check(res.getCycles() > 7L * CallStack.CHECK_INTERVAL,
+                "spin stopped after " + res.getCycles() + " cycles, as the interpreter would");
+        check(res.getDebugIndex() == 0, "spin should stop on its loop header: " + res.getDebugIndex());
+    }
+
+    static void nestedLoopPollsAsBytecode() {
+        Program caller = program("TieredSpinCaller",
+                command("INCREASE", "y", null),
+                command("QUOTE", "z1", null, "functionName", "TieredSpin", "functionArguments", "x1"));
+        ProgramResult res = within(20, "cancellable call",
+                () -> caller.executeWithBudget(List.of(1), Integer.MAX_VALUE, CancellationToken.afterPolls(3)));
+        check(res.getHaltReason() == ProgramResult.HaltReason.CANCELLED, "call: " + res.getHaltReason());
+        check(res.getDebugIndex() == 1 && res.getCycles() == 1 && res.getResult() == 1,
+                "the caller should stop on its call: index " + res.getDebugIndex() + ", cycles " + res.getCycles());
+    }
+
+    static void slicedRunsMatchPlainRuns() {
+        Program caller = program("TieredCountCaller",
+                command("QUOTE", "z1", null, "functionName", "TieredCount", "functionArguments", "x1"),
+                command("QUOTE", "y", null, "functionName", "TieredCount", "functionArguments", "x2"),
+                command("INCREASE", "y", null));
+        ExecutionScheduler scheduler = new ExecutionScheduler(2, 1000);
+        for (Program p : List.of(COUNT, caller)) {
+            for (long budget : new long[] {Integer.MAX_VALUE, 150_000}) {
+                // Inputs of their own, as the caller's callees are answered from FunctionCallCache once they have run
+                List<Integer> input = budget == Integer.MAX_VALUE ? List.of(20_000, 30_000) : List.of(10_000, 40_000);
+                String what = p.getName() + " with budget " + budget;
+                CheckpointedExecution execution = CheckpointedExecution.start(p, 0, null, input, budget);
+                int slices = 0;
+                while (!execution.isDone()) {
+                    execution.run(1000);
+                    slices++;
+                }
+                check(slices > 50, what + " checkpointed in only " + slices + " slices");
+                ProgramResult plain = p.executeWithBudget(input, budget);
+                same(what + " checkpointed", execution.getResult(), plain);
+                same(what + " scheduled", scheduler.execute(USER, p, 0, input, budget, new CancellationToken()), plain);
+            }
+        }
+    }
+
+    private static void same(String what, ProgramResult actual, ProgramResult expected) {
+        check(actual.getHaltReason() == expected.getHaltReason() && actual.getCycles() == expected.getCycles()
+                        && actual.getDebugIndex() == expected.getDebugIndex()
+                        && actual.getVariableToValue().equals(expected.getVariableToValue()),
+                what + ": " + actual.getHaltReason() + " after " + actual.getCycles() + " at " + actual.getDebugIndex()
+                        + " " + actual.getVariableToValue() + ", plain run: " + expected.getHaltReason() + " after "
+                        + expected.getCycles() + " at " + expected.getDebugIndex() + " " + expected.getVariableToValue());
+    }
+}
@@ -5,6 +5,8 @@ import {
   ProgramSummary,
   ProgramResult,
   ExecuteProgramRequest,
+  CostEstimate,
+  CostEstimateRequest,
   DebugStartRequest,
   ApiResponse,
 } from '../../types/api';
@@ -50,6 +52,16 @@ export class ProgramService {
     return apiClient.post<ProgramResult>('/program/execute', request);
   }
 
+  // Cancel the running program executions (each returns a CANCELLED result)
+  async cancelExecution(): Promise<ApiResponse<boolean>> {
+    return apiClient.post<boolean>('/program/execute/cancel');
+  }
+
+  // Estimate the cycles a run would take, without running it
+  async estimateCost(request: CostEstimateRequest): Promise<ApiResponse<CostEstimate>> {
+    return apiClient.post<CostEstimate>('/program/cost', request);
+  }
+
   // Check if program can run
   async checkRunnability(expansionLevel: number, architecture: string): Promise<ApiResponse<string>> {
     return apiClient.get<string>('/program/runnability', { expansionLevel, architecture });
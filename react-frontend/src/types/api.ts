@@ -45,7 +45,8 @@ export interface VariableToValue {
 export enum HaltReason {
   FINISHED = 'FINISHED',
   STOPPED_MANUALLY = 'STOPPED_MANUALLY',
-  INSUFFICIENT_CREDITS = 'INSUFFICIENT_CREDITS'
+  INSUFFICIENT_CREDITS = 'INSUFFICIENT_CREDITS',
+  CANCELLED = 'CANCELLED'
 }
 
 // User related types
@@ -82,11 +83,26 @@ export interface ChatMessage {
   timestamp: number;
 }
 
+// Cycles a run is expected to take (maxCycles is -1 when there is no upper bound)
+export interface CostEstimate {
+  minCycles: number;
+  maxCycles: number;
+  exact: boolean;
+}
+
 // Request types
 export interface ExecuteProgramRequest {
   expansionLevel: number;
   input: number[];
   architecture: string;
+  timeoutMillis?: number;
+  resultOnly?: boolean;
+}
+
+export interface CostEstimateRequest {
+  expansionLevel: number;
+  // Omitted: bounds for every input
+  input?: number[];
 }
 
 export interface DebugStartRequest {
@@ -0,0 +1,31 @@
+package main.java.program;
+
+import com.api.Api;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import main.java.utils.RequestHelpers;
+import main.java.utils.ResponseHelper;
+
+import java.io.IOException;
+
+/*
+    Stops the user's program runs in progress. Each stopped run still answers its own request, with a result
+    halted as CANCELLED that holds the state it had reached.
+ */
+@WebServlet("/program/execute/cancel")
+public class CancelExecutionServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException, ServletException {
+
+        Api api = RequestHelpers.getApi(req, resp);
+        if(api == null){return;}
+
+        boolean cancelled = api.cancelExecution();
+        ResponseHelper.success(resp, cancelled ? "Execution cancelled" : "No execution in progress", cancelled);
+    }
+}
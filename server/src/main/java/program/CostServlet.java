@@ -0,0 +1,40 @@
+package main.java.program;
+
+import com.api.Api;
+import com.dto.api.CostEstimate;
+import jakarta.servlet.annotation.MultipartConfig;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import main.java.utils.RequestHelpers;
+import main.java.utils.ResponseHelper;
+
+import java.io.IOException;
+import java.util.List;
+
+@WebServlet("/program/cost")
+@MultipartConfig
+public class CostServlet extends HttpServlet {
+
+    private static class RequestDto{
+        public int expansionLevel;
+        // Omitted: bounds that hold for every input
+        public List<Integer> input;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        Api api = RequestHelpers.getApi(req, resp);
+        if(api == null){return;}
+
+        RequestDto dto = RequestHelpers.getBody(req, RequestDto.class);
+
+        try {
+            CostEstimate estimate = api.estimateCost(dto.input, dto.expansionLevel);
+            ResponseHelper.success(resp, "Cost estimated", estimate);
+        } catch (Exception e) {
+            ResponseHelper.error(resp, "Failed to estimate cost: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package main.java.program;
+
+import com.api.Api;
+import com.dto.api.ProgramResult;
+import com.google.gson.Gson;
+import com.program.BatchExecution;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.MultipartConfig;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import main.java.utils.RequestHelpers;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/*
+    Runs the active program over many inputs and streams one JSON line per run ({"index", "result"}) in input order.
+    The body carries either an explicit list of input vectors, or per-variable bounds (from/to) whose every
+    combination is run. Credits are charged per run, so a batch that runs out still streams every result.
+ */
+@WebServlet("/program/execute/batch")
+@MultipartConfig
+public class ExecuteBatchServlet extends HttpServlet {
+
+    private static final int FLUSH_EVERY = 256;
+
+    private static class RequestDto{
+        public int expansionLevel;
+        public String architecture;
+        public List<List<Integer>> inputs;
+        public List<Integer> from;
+        public List<Integer> to;
+        // Run inputs in lockstep lanes (programs without nested calls)
+        public boolean lockstep;
+    }
+
+    private record Line(int index, ProgramResult result){}
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException, ServletException {
+
+        Api api = RequestHelpers.getApi(req, resp);
+        if(api == null){return;}
+
+        RequestDto dto = RequestHelpers.getBody(req, RequestDto.class);
+
+        List<List<Integer>> inputs;
+        try{
+            inputs = dto.inputs != null ? dto.inputs : BatchExecution.inputGrid(dto.from, dto.to);
+        }
+        catch (Exception e){
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid batch inputs: " + e.getMessage());
+            return;
+        }
+
+        Gson gson = new Gson();
+        resp.setContentType("application/x-ndjson");
+        PrintWriter out = resp.getWriter();
+        int[] written = {0};
+        try{
+            api.executeBatch(inputs, dto.expansionLevel, dto.architecture, dto.lockstep, (index, result) -> {
+                out.println(gson.toJson(new Line(index, result)));
+                if (++written[0] % FLUSH_EVERY == 0){
+                    out.flush();
+                    if (out.checkError()){
+                        throw new UncheckedIOException(new IOException("Client disconnected"));
+                    }
+                }
+            });
+            out.flush();
+        }
+        catch (Exception e){
+            if (written[0] == 0 && !resp.isCommitted()){
+                resp.reset();
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Failed to execute batch: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package main.java.program;
+
+import com.api.Api;
+import com.dto.api.ProgramResult;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.MultipartConfig;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import main.java.utils.RequestHelpers;
+import main.java.utils.ResponseHelper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.List;
+
+/*
+    Runs the active program with checkpoints written to disk every checkpointInterval cycles (one file per user,
+    under the directory named by the checkpoint.dir system property). With resume, continues the user's saved
+    execution instead, e.g. after the server restarted and the program was uploaded again.
+ */
+@WebServlet("/program/execute/checkpointed")
+@MultipartConfig
+public class ExecuteCheckpointedServlet extends HttpServlet {
+
+    private static final long DEFAULT_INTERVAL = 100_000_000L;
+
+    private static class RequestDto{
+        public int expansionLevel;
+        public List<Integer> input;
+        public String architecture;
+        public long checkpointInterval;
+        public boolean resume;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException, ServletException {
+
+        Api api = RequestHelpers.getApi(req, resp);
+        if(api == null){return;}
+
+        RequestDto dto = RequestHelpers.getBody(req, RequestDto.class);
+        long interval = dto.checkpointInterval > 0 ? dto.checkpointInterval : DEFAULT_INTERVAL;
+
+        try{
+            Path dir = Path.of(System.getProperty("checkpoint.dir", "checkpoints"));
+            Files.createDirectories(dir);
+            Path file = dir.resolve(checkpointFileName(RequestHelpers.getUserId(req)));
+            ProgramResult result = dto.resume
+                    ? api.resumeExecution(file, interval)
+                    : api.executeWithCheckpoints(dto.input, dto.expansionLevel, dto.architecture, interval, file);
+            ResponseHelper.success(resp, "Program executed successfully", result);
+        }
+        catch (Exception e){
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Failed to execute program: " + e.getMessage());
+        }
+    }
+
+    // The user id's UTF-8 bytes in lower-case hex: a different name for every user, safe on any file system
+    private static String checkpointFileName(String userId){
+        return HexFormat.of().formatHex(userId.getBytes(StandardCharsets.UTF_8)) + ".ckpt";
+    }
+}
@@ -27,6 +27,10 @@ public class ExecuteServlet extends HttpServlet {
         public int expansionLevel;
         public List<Integer> input;
         public String architecture;
+        // Wall-clock limit for the run (0: none); a run past it halts with CANCELLED
+        public long timeoutMillis;
+        // Report only y, the inputs and the work variables the result depends on, which lets the run skip the rest
+        public boolean resultOnly;
     }
 
     @Override
@@ -39,7 +43,7 @@ public class ExecuteServlet extends HttpServlet {
         RequestDto dto = RequestHelpers.getBody(req, RequestDto.class);
 
         try{
-            ProgramResult result = api.executeProgram(dto.input, dto.expansionLevel, dto.architecture);
+            ProgramResult result = api.executeProgram(dto.input, dto.expansionLevel, dto.architecture, dto.timeoutMillis, dto.resultOnly);
             // Always return the result, even if halted due to insufficient credits
             // Let the client handle the halt reason and display appropriate warnings
             ResponseHelper.success(resp, "Program executed successfully", result);
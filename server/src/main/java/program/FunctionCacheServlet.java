@@ -0,0 +1,27 @@
+package main.java.program;
+
+import com.api.Api;
+import com.dto.api.FunctionCacheStats;
+import jakarta.servlet.annotation.MultipartConfig;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import main.java.utils.RequestHelpers;
+import main.java.utils.ResponseHelper;
+
+import java.io.IOException;
+import java.util.List;
+
+@WebServlet("/function/cache")
+@MultipartConfig
+public class FunctionCacheServlet extends HttpServlet {
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        Api api = RequestHelpers.getApi(req, resp);
+        if(api == null){return;}
+
+        List<FunctionCacheStats> stats = Api.getFunctionCacheStatistics();
+        ResponseHelper.success(resp, "Function cache statistics retrieved successfully", stats);
+    }
+}
@@ -0,0 +1,29 @@
+package main.java.program.debug;
+
+import com.api.Api;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.MultipartConfig;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import main.java.utils.RequestHelpers;
+import main.java.utils.ResponseHelper;
+
+import java.io.IOException;
+
+@WebServlet("/program/debug/memory")
+@MultipartConfig
+public class MemoryServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException, ServletException {
+
+        Api api = RequestHelpers.getApi(req, resp);
+        if(api == null){return;}
+
+        long bytes = api.getDebugMemoryUsage();
+        ResponseHelper.success(resp, "Debug memory usage retrieved successfully", bytes);
+    }
+}
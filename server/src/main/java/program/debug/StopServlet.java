@@ -25,7 +25,7 @@ public class StopServlet extends HttpServlet {
         if(api == null){return;}
 
         try{
-            int cost = api.stopDebug();
+            long cost = api.stopDebug();
             ResponseHelper.success(resp, "Program debugging stopped successfully. Total cost: " + cost, cost);
         }
         catch (Exception e){
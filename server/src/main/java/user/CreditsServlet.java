@@ -25,7 +25,7 @@ public class CreditsServlet extends HttpServlet {
             return;
         }
 
-        int credits = Integer.parseInt(req.getParameter("credits"));
+        long credits = Long.parseLong(req.getParameter("credits"));
         api.addCredits(credits);
 
         ResponseHelper.success(resp, "Credits added successfully", null);
@@ -36,7 +36,7 @@ public class CreditsServlet extends HttpServlet {
         Api api = RequestHelpers.getApi(req, resp);
         if(api == null){return;}
 
-        int credits = api.getCredits();
+        long credits = api.getCredits();
 
         ResponseHelper.success(resp, "Credits retrieved successfully", credits);
     }